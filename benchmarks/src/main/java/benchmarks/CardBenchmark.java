@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.Card;
+import common.Type;
+import common.TypeClassifier;
+import server.CardType;
+
+/**
+ * Benchmarks of Card.toString, which the clients call for every card they
+ * print, and of classifying a type line, which the loader does for every
+ * card it reads.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardBenchmark {
+	/** The card to describe. */
+	private Card card;
+	/** A type line to classify, a new string each time as the loader
+	 * reads it. */
+	private final char[] line = "Legendary Artifact Creature - Golem"
+			.toCharArray();
+
+	/**
+	 * Choose a card from a synthetic deck.
+	 * @throws IOException - if the deck cannot be written or read.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		card = SyntheticDeck.source(SyntheticDeck.DEFAULT_CARDS)
+				.next(CardType.ALL);
+	}
+
+	/**
+	 * Describe the card.
+	 * @return The description of the card.
+	 */
+	@Benchmark
+	public String cardToString() {
+		return card.toString();
+	}
+
+	/**
+	 * Classify a type line read from a file.
+	 * @return The Type of the line.
+	 */
+	@Benchmark
+	public Type classify() {
+		return TypeClassifier.classify(new String(line));
+	}
+}
@@ -0,0 +1,146 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.Card;
+import common.CardCodec;
+import common.WireFormat;
+import server.CardSource;
+import server.CardType;
+import server.EncodedCards;
+
+/**
+ * Benchmarks of writing and reading a hand of cards in each wire format,
+ * framed as a TCP response: the binary format with its header, and Java
+ * serialization ended by an empty string.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardCodecBenchmark {
+	/** The format to write and read. */
+	@Param
+	public WireFormat format;
+	/** The number of cards in the hand. */
+	@Param({ "60" })
+	public int count;
+	/** The hand to write. */
+	private Card[] hand;
+	/** The cards of the deck, already encoded. */
+	private EncodedCards encoded;
+	/** The hand, already written, to read. */
+	private byte[] written;
+
+	/**
+	 * Draw a hand from a synthetic deck and write it once to be read.
+	 * @throws IOException - if the deck cannot be read or the hand written.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		CardSource source = SyntheticDeck.source(SyntheticDeck.DEFAULT_CARDS);
+		hand = source.draw(CardType.ALL, count);
+		encoded = source.getEncoded();
+		written = write();
+	}
+
+	/**
+	 * Write the hand, encoding each card.
+	 * @return The bytes written.
+	 * @throws IOException - if a card cannot be written.
+	 */
+	@Benchmark
+	public byte[] write() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		if (format == WireFormat.BINARY) {
+			DataOutputStream out = new DataOutputStream(bytes);
+			CardCodec.writeHeader(hand.length, out);
+			for (Card card : hand) {
+				CardCodec.write(card, out);
+			}
+			out.flush();
+		} else {
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			for (Card card : hand) {
+				out.writeObject(card);
+			}
+			out.writeObject("");
+			out.flush();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Write the hand by copying the cards encoded when the deck was read,
+	 * as the servers do. In the serialized format each card is a stream of
+	 * its own, as sent in a UDP packet.
+	 * @return The bytes written.
+	 * @throws IOException - if a card cannot be written.
+	 */
+	@Benchmark
+	public byte[] writeEncoded() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		if (format == WireFormat.BINARY) {
+			CardCodec.writeHeader(hand.length, out);
+		}
+		for (Card card : hand) {
+			encoded.write(card, format, out);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Read the hand written during setup.
+	 * @return The last card read.
+	 * @throws IOException - if a card cannot be read.
+	 * @throws ClassNotFoundException - if Card cannot be found.
+	 */
+	@Benchmark
+	public Object read() throws IOException, ClassNotFoundException {
+		ByteArrayInputStream bytes = new ByteArrayInputStream(written);
+		Object card = null;
+
+		if (format == WireFormat.BINARY) {
+			DataInputStream in = new DataInputStream(bytes);
+			int cards = CardCodec.readHeader(in);
+			for (int i = 0; i < cards; i++) {
+				card = CardCodec.read(in);
+			}
+		} else {
+			ObjectInputStream in = new ObjectInputStream(bytes);
+			Object next;
+			while (!"".equals(next = in.readObject())) {
+				card = next;
+			}
+		}
+		return card;
+	}
+}
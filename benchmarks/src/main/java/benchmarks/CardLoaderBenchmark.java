@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.Card;
+import server.CardLoader;
+import server.DeckSnapshot;
+
+/**
+ * Benchmarks of reading a cards file, by a single thread and split into
+ * chunks parsed by one thread for each processor, and of reading the deck
+ * from a snapshot of the file instead.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CardLoaderBenchmark {
+	/** The number of rows in the file. */
+	@Param({ "20000", "300000" })
+	public int cards;
+	/** The name of the file. */
+	private String filename;
+
+	/**
+	 * Write a synthetic cards file and its snapshot.
+	 * @throws IOException - if the files cannot be written.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		filename = SyntheticDeck.write(cards);
+		File file = new File(filename);
+		DeckSnapshot.write(filename, CardLoader.load(filename), file.length(),
+				file.lastModified());
+		new File(DeckSnapshot.snapshotOf(filename)).deleteOnExit();
+	}
+
+	/**
+	 * Read the file with a single thread.
+	 * @return The cards read.
+	 * @throws IOException - if the file cannot be read.
+	 */
+	@Benchmark
+	public List<Card> sequential() throws IOException {
+		return CardLoader.load(filename, 1);
+	}
+
+	/**
+	 * Read the file with one thread for each processor.
+	 * @return The cards read.
+	 * @throws IOException - if the file cannot be read.
+	 */
+	@Benchmark
+	public List<Card> parallel() throws IOException {
+		return CardLoader.load(filename);
+	}
+
+	/**
+	 * Read the deck from the snapshot of the file.
+	 * @return The cards read.
+	 */
+	@Benchmark
+	public List<Card> snapshot() {
+		return DeckSnapshot.read(filename);
+	}
+}
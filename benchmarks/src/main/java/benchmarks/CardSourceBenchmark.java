@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.Card;
+import server.CardSource;
+import server.CardType;
+
+/**
+ * Benchmarks of choosing cards from a CardSource: a single random card,
+ * and a whole hand without duplicates, for each CardType, drawn uniformly
+ * or by the rarity of each card.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardSourceBenchmark {
+	/** The number of cards in a hand, the largest the servers draw. */
+	private static final int HAND = 60;
+	/** The kind of cards to choose. */
+	@Param
+	public CardType type;
+	/** The number of cards in the deck. */
+	@Param({ "2000" })
+	public int cards;
+	/** Whether the deck is held in columns rather than as Card objects. */
+	@Param({ "false", "true" })
+	public boolean columnar;
+	/** The source to choose cards from. */
+	private CardSource source;
+
+	/**
+	 * Read a synthetic deck.
+	 * @throws IOException - if the deck cannot be written or read.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		source = new CardSource(SyntheticDeck.write(cards), false, columnar);
+	}
+
+	/**
+	 * The hand of a single thread, reused between draws as the servers do.
+	 */
+	@State(Scope.Thread)
+	public static class Hand {
+		/** The cards drawn. */
+		private final Card[] cards = new Card[HAND];
+	}
+
+	/**
+	 * Choose a single random card.
+	 * @return The card chosen.
+	 */
+	@Benchmark
+	public Card next() {
+		return source.next(type);
+	}
+
+	/**
+	 * Choose a single random card by weight.
+	 * @return The card chosen.
+	 */
+	@Benchmark
+	public Card nextWeighted() {
+		return source.next(type, true);
+	}
+
+	/**
+	 * Draw a hand without duplicates into a new array.
+	 * @return The hand drawn.
+	 */
+	@Benchmark
+	public Card[] draw() {
+		return source.draw(type, HAND);
+	}
+
+	/**
+	 * Draw a hand without duplicates into a reused array.
+	 * @param hand - The array to draw into.
+	 * @return The number of cards drawn.
+	 */
+	@Benchmark
+	public int drawInto(Hand hand) {
+		return source.draw(type, hand.cards, HAND);
+	}
+
+	/**
+	 * Draw a hand without duplicates by weight into a reused array.
+	 * @param hand - The array to draw into.
+	 * @return The number of cards drawn.
+	 */
+	@Benchmark
+	public int drawWeightedInto(Hand hand) {
+		return source.draw(type, hand.cards, HAND, true);
+	}
+}
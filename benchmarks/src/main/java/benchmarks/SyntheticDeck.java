@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import server.CardSource;
+
+/**
+ * Class writes a synthetic cards file for the benchmarks, so that they do
+ * not depend on the cards.csv of the working directory. The rows cycle
+ * through type lines of every kind of card, in the same format as
+ * cards.csv: id, name, type line, mana and rarity.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public final class SyntheticDeck {
+	/** The default number of cards in a synthetic deck. */
+	public static final int DEFAULT_CARDS = 2000;
+	/** The type lines the rows cycle through. */
+	private static final String[] TYPE_LINES = {
+			"Creature - Elf Warrior", "Basic Land - Forest", "Instant",
+			"Artifact Creature - Golem", "Land", "Sorcery",
+			"Enchantment - Aura", "Legendary Creature - Dragon",
+			"Artifact", "Tribal Instant - Goblin" };
+	/** The mana costs the rows cycle through. */
+	private static final String[] MANA = { "1G", "0", "2UU", "3", "0", "BR",
+			"W", "4RR", "2", "1R" };
+	/** The rarities the rows cycle through, out of step with the types. */
+	private static final String[] RARITIES = { "common", "common", "common",
+			"common", "common", "common", "uncommon", "uncommon", "uncommon",
+			"rare", "mythic" };
+
+	/**
+	 * Not to be instantiated.
+	 */
+	private SyntheticDeck() {
+	}
+
+	/**
+	 * Write a synthetic cards file to a temporary file, which is deleted
+	 * when the JVM exits. Ids repeat after Short.MAX_VALUE rows, so larger
+	 * files can be parsed, but do not make a card source, which refuses
+	 * cards sharing an id.
+	 * @param cards - The number of rows to write.
+	 * @return The name of the file written.
+	 * @throws IOException - if the file cannot be written.
+	 */
+	public static String write(int cards) throws IOException {
+		File file = File.createTempFile("cards", ".csv");
+		file.deleteOnExit();
+
+		try (PrintWriter out = new PrintWriter(file,
+				StandardCharsets.UTF_8.name())) {
+			for (int i = 1; i <= cards; i++) {
+				int kind = i % TYPE_LINES.length;
+				out.println((1 + (i - 1) % Short.MAX_VALUE) + ",Card " + i + ","
+						+ TYPE_LINES[kind] + "," + MANA[kind] + ","
+						+ RARITIES[i % RARITIES.length]);
+			}
+		}
+		return file.getPath();
+	}
+
+	/**
+	 * Create a card source from a new synthetic cards file.
+	 * @param cards - The number of cards in the deck.
+	 * @return The card source.
+	 * @throws IOException - if the file cannot be written or read.
+	 */
+	public static CardSource source(int cards) throws IOException {
+		return new CardSource(write(cards));
+	}
+}
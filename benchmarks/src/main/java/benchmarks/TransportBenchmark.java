@@ -0,0 +1,234 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import client.AbstractMagicClient;
+import client.MagicTcpClient;
+import client.MagicUdpClient;
+import common.Card;
+import common.WireFormat;
+import server.CardSource;
+import server.MagicServer;
+import server.MagicServerException;
+import server.NioMagicServer;
+import server.TcpMagicServer;
+import server.UdpMagicServer;
+
+/**
+ * End to end benchmarks of a client requesting a hand from a server over
+ * the loopback interface, with 1, 8 and 64 clients at once, and with a
+ * single thread keeping 64 requests outstanding through the event loop of
+ * the asynchronous client. Each result
+ * holds both the throughput of the clients together and the distribution
+ * of the time each request takes. The server runs in the benchmark JVM,
+ * on a port free when the benchmark starts, and is left running until
+ * the JVM exits.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportBenchmark {
+	/** The number of times to try the first request to a new server. */
+	private static final int START_ATTEMPTS = 50;
+	/** The time to wait between the first requests, in milliseconds. */
+	private static final int START_WAIT = 100;
+	/** The server to request cards from: tcp, nio or udp. */
+	@Param({ "tcp", "nio", "udp" })
+	public String transport;
+	/** The format to request cards in. */
+	@Param
+	public WireFormat format;
+	/** The number of requests the asynchronous benchmark keeps outstanding. */
+	private static final int OUTSTANDING = 64;
+	/** The port the server listens at. */
+	private int port;
+
+	/**
+	 * Start a server on a free port, and wait until it answers.
+	 * @throws IOException - if the deck cannot be read or the server does
+	 * not answer.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		CardSource source = SyntheticDeck.source(SyntheticDeck.DEFAULT_CARDS);
+		MagicServer server;
+
+		if (transport.equals("udp")) {
+			try (DatagramSocket socket = new DatagramSocket(0)) {
+				port = socket.getLocalPort();
+			}
+			server = new UdpMagicServer(port, source);
+		} else {
+			try (ServerSocket socket = new ServerSocket(0)) {
+				port = socket.getLocalPort();
+			}
+			server = transport.equals("nio")
+					? new NioMagicServer(port, source,
+							NioMagicServer.DEFAULT_LOOPS,
+							NioMagicServer.DEFAULT_BACKLOG)
+					: new TcpMagicServer(port, source);
+		}
+		Thread thread = new Thread(() -> {
+			try {
+				server.listen();
+			} catch (MagicServerException ex) {
+				System.err.println("Benchmark server error: "
+						+ ex.getMessage());
+			}
+		}, "benchmark-" + transport);
+		thread.setDaemon(true);
+		thread.start();
+		awaitServer();
+	}
+
+	/**
+	 * Request cards until the server answers.
+	 * @throws IOException - if the server never answers.
+	 */
+	private void awaitServer() throws IOException {
+		AbstractMagicClient client = newClient();
+
+		for (int attempt = 1;; attempt++) {
+			try {
+				client.getCards();
+				return;
+			} catch (IOException | ClassNotFoundException ex) {
+				if (attempt == START_ATTEMPTS) {
+					throw new IOException("Server did not start: "
+							+ ex.getMessage(), ex);
+				}
+			}
+			try {
+				Thread.sleep(START_WAIT);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while starting", ex);
+			}
+		}
+	}
+
+	/**
+	 * Create a client of the server which asks for the benchmark format.
+	 * @return The new client.
+	 */
+	private AbstractMagicClient newClient() {
+		InetAddress host = InetAddress.getLoopbackAddress();
+		AbstractMagicClient client = transport.equals("udp")
+				? new MagicUdpClient(host, port)
+				: new MagicTcpClient(host, port);
+
+		client.setWireFormat(format);
+		return client;
+	}
+
+	/**
+	 * The client of a single benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+		/** The client of the server. */
+		private AbstractMagicClient client;
+
+		/**
+		 * Create the client.
+		 * @param benchmark - The benchmark whose server to request from.
+		 */
+		@Setup
+		public void setup(TransportBenchmark benchmark) {
+			client = benchmark.newClient();
+		}
+	}
+
+	/**
+	 * Request a hand with a single client.
+	 * @param client - The client of this thread.
+	 * @return The cards received.
+	 * @throws IOException - if the request fails.
+	 * @throws ClassNotFoundException - if Card cannot be found.
+	 */
+	@Benchmark
+	@Threads(1)
+	public List<Card> clients1(Client client)
+			throws IOException, ClassNotFoundException {
+		return client.client.getCards();
+	}
+
+	/**
+	 * Request a hand with 8 clients at once.
+	 * @param client - The client of this thread.
+	 * @return The cards received.
+	 * @throws IOException - if the request fails.
+	 * @throws ClassNotFoundException - if Card cannot be found.
+	 */
+	@Benchmark
+	@Threads(8)
+	public List<Card> clients8(Client client)
+			throws IOException, ClassNotFoundException {
+		return client.client.getCards();
+	}
+
+	/**
+	 * Request a hand with 64 clients at once.
+	 * @param client - The client of this thread.
+	 * @return The cards received.
+	 * @throws IOException - if the request fails.
+	 * @throws ClassNotFoundException - if Card cannot be found.
+	 */
+	@Benchmark
+	@Threads(64)
+	public List<Card> clients64(Client client)
+			throws IOException, ClassNotFoundException {
+		return client.client.getCards();
+	}
+
+	/**
+	 * Request 64 hands at once from a single thread, through the event loop
+	 * of the asynchronous client, and wait for them all. The format
+	 * parameter does not apply: responses are always binary.
+	 * @param client - The client of this thread.
+	 * @return The cards received.
+	 */
+	@Benchmark
+	@Threads(1)
+	@OperationsPerInvocation(OUTSTANDING)
+	public List<List<Card>> async64(Client client) {
+		List<CompletableFuture<List<Card>>> futures =
+				new ArrayList<>(OUTSTANDING);
+		List<List<Card>> hands = new ArrayList<>(OUTSTANDING);
+
+		for (int i = 0; i < OUTSTANDING; i++) {
+			futures.add(client.client.getCardsAsync());
+		}
+		for (CompletableFuture<List<Card>> future : futures) {
+			hands.add(future.join());
+		}
+		return hands;
+	}
+}
@@ -3,6 +3,13 @@ package client;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import common.Card;
+import common.Protocol;
+import common.WireFormat;
 
 /**
  * An abstract class that contains fields and methods that may 
@@ -22,6 +29,15 @@ public abstract class AbstractMagicClient implements MagicClient {
 	private InetAddress host;
 	/** The port on the remote host to which to connect. */
 	private int port;
+	/** The format in which the server should send cards. */
+	private WireFormat format;
+	/** Whether the server should draw cards in proportion to weight. */
+	private boolean weighted;
+	/** The exact number of cards to ask for, or -1 to ask for the number
+	 * the flag gives. */
+	private int count = -1;
+	/** The number of bytes received from the server so far. */
+	private long bytesReceived;
 
 	/**
 	 * Initializes a new AbstractMagicClient with the specified host,
@@ -52,6 +68,7 @@ public abstract class AbstractMagicClient implements MagicClient {
 		this.host = host;
 		this.port = port;
 		this.flag = flag;
+		this.format = WireFormat.SERIAL;
 	}
 
 	/**
@@ -62,6 +79,98 @@ public abstract class AbstractMagicClient implements MagicClient {
 		return flag;
 	}
 
+	/**
+	 * Change the flags to send to the server with each further request.
+	 * @param flag - The flags which determine which cards to send back.
+	 */
+	public void setFlag(String flag) {
+		this.flag = flag;
+	}
+
+	/**
+	 * Returns the number of bytes received from the server by every request
+	 * sent by this client.
+	 * @return The number of bytes received from the server.
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * Count bytes received from the server.
+	 * @param bytes - The number of bytes received.
+	 */
+	protected void received(long bytes) {
+		bytesReceived += bytes;
+	}
+
+	/**
+	 * Returns the format in which the server should send cards.
+	 * @return The format in which the server should send cards.
+	 */
+	protected WireFormat getWireFormat() {
+		return format;
+	}
+
+	/**
+	 * Change the format in which the server should send cards.
+	 * @param format - The format in which the server should send cards.
+	 */
+	public void setWireFormat(WireFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * Change whether the server should draw cards in proportion to their
+	 * weights, such as their rarity, rather than uniformly.
+	 * @param weighted - Whether the server should draw cards by weight.
+	 */
+	public void setWeighted(boolean weighted) {
+		this.weighted = weighted;
+	}
+
+	/**
+	 * Change the exact number of cards to ask the server for, in place of
+	 * the number the flag gives.
+	 * @param count - The number of cards, or -1 for the number the flag
+	 * gives.
+	 */
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	/**
+	 * Returns the request to send to the server: the flag, followed by
+	 * the option selecting the wire format, if any.
+	 * @return The request to send to the server.
+	 */
+	protected String getRequest() {
+		return getRequest(flag);
+	}
+
+	/**
+	 * Returns the request to send to the server for the given flag,
+	 * followed by the options selecting the wire format, a weighted draw
+	 * and an exact number of cards, if any.
+	 * @param flag - The flag which determines which cards to send back.
+	 * @return The request to send to the server.
+	 */
+	protected String getRequest(String flag) {
+		String request = flag;
+
+		if (format.getOption() != null) {
+			request += " " + format.getOption();
+		}
+		if (weighted) {
+			request += " " + Protocol.WEIGHTED;
+		}
+		if (count >= 0) {
+			request += " " + Protocol.OPTION_PREFIX + Protocol.COUNT + "="
+					+ count;
+		}
+		return request;
+	}
+
 	/**
 	 * Returns the address of the host to which to connect.
 	 * @return The address of the host to which to connect.
@@ -78,14 +187,54 @@ public abstract class AbstractMagicClient implements MagicClient {
 		return port;
 	}
 
+	/**
+	 * Returns the address and port of the remote host.
+	 * @return The address of the socket on the remote host.
+	 */
+	protected InetSocketAddress getAddress() {
+		return new InetSocketAddress(host, port);
+	}
+
+	/**
+	 * Sends a request to the host/port specified when this object was
+	 * created from the ClientEventLoop shared by every client, without
+	 * waiting for the response. The cards are always sent in the binary
+	 * format, and the bytes received are not counted by
+	 * getBytesReceived().
+	 * @return A future completed with the cards received from the server,
+	 * or exceptionally if the request fails.
+	 */
+	@Override
+	public CompletableFuture<List<Card>> getCardsAsync() {
+		try {
+			return getCardsAsync(ClientEventLoop.shared());
+		} catch (IOException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+	}
+
+	/**
+	 * Sends a request to the host/port specified when this object was
+	 * created from the given event loop, without waiting for the response.
+	 * @param loop - The event loop to send the request from.
+	 * @return A future completed with the cards received from the server,
+	 * or exceptionally if the request fails.
+	 */
+	public abstract CompletableFuture<List<Card>> getCardsAsync(
+			ClientEventLoop loop);
+
 	/** 
-	 * Establishes a TCP connection to the host/port specified when this
-	 * object was created, reads a continuous stream of random cards from
-	 * the socket's input stream, and prints that data to the specified
-	 * output stream.
+	 * Sends a request to the host/port specified when this object was
+	 * created, and prints the cards received to the specified output stream.
 	 * @param out - The stream to which to write the random cards received.
 	 * @throws IOException - if there is an I/O error while receiving the data.
+	 * @throws ClassNotFoundException - If a received object is of an
+	 * unknown class.
 	 */
-	public abstract void printToStream(PrintStream out) throws IOException, 
-													ClassNotFoundException;
+	public void printToStream(PrintStream out) throws IOException, 
+													ClassNotFoundException {
+		for (Card card : getCards()) {
+			out.print(card + "\r\n");
+		}
+	}
 }
@@ -0,0 +1,673 @@
+package client;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import common.Card;
+import common.CardCodec;
+import common.CardPacket;
+import common.Protocol;
+
+/**
+ * An event loop thread, with its own Selector, which sends requests to
+ * magic servers and reads their responses without blocking, so a single
+ * thread can keep thousands of requests outstanding to any number of
+ * servers. Requests to a TCP server share one connection to it, kept open:
+ * each is sent without waiting for the responses to those before it, and
+ * the responses arrive in order. Each request to a UDP server has a channel
+ * of its own, so its packets cannot be mistaken for those of another
+ * request. Every response is sent in the binary format.
+ *
+ * Each request returns a CompletableFuture, completed on the loop thread
+ * once the response has arrived, so stages which depend on it should not
+ * block. Safe for use by many threads at once.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class ClientEventLoop implements Closeable {
+	/** The size a TCP connection's buffer of unread bytes starts at. */
+	private static final int INPUT_SIZE = 16 * 1024;
+	/** The event loop shared by every client, created when first used. */
+	private static ClientEventLoop shared;
+
+	/** The selector which tells which channels are ready. */
+	private final Selector selector;
+	/** Work handed to the loop by other threads, not yet done. */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	/** The open connection to each TCP server. */
+	private final Map<InetSocketAddress, TcpConnection> connections =
+			new HashMap<>();
+	/** The UDP requests not yet answered. */
+	private final Set<UdpExchange> exchanges = new HashSet<>();
+	/** The time by which the first UDP request may run out of time. */
+	private long earliest;
+	/** Buffer every UDP channel of this loop receives into. */
+	private final ByteBuffer packet =
+			ByteBuffer.allocate(CardPacket.MAX_SIZE);
+
+	/**
+	 * Create a new event loop and start its thread, which does not keep
+	 * the JVM running.
+	 * @throws IOException - if the selector cannot be opened.
+	 */
+	public ClientEventLoop() throws IOException {
+		selector = Selector.open();
+		Thread thread = new Thread(this::run, "magic-client-loop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Get the event loop shared by every client, creating it if need be.
+	 * @return The shared event loop.
+	 * @throws IOException - if the event loop cannot be created.
+	 */
+	public static synchronized ClientEventLoop shared() throws IOException {
+		if (shared == null || !shared.selector.isOpen()) {
+			shared = new ClientEventLoop();
+		}
+		return shared;
+	}
+
+	/**
+	 * Send a request to a TCP server, on the connection to that server
+	 * kept open by this loop, which is opened if need be.
+	 * @param server - The address of the server.
+	 * @param request - The request, without the option keeping the
+	 * connection open, which is added.
+	 * @return A future completed with the cards received, or exceptionally
+	 * if the connection fails before the response has arrived.
+	 */
+	public CompletableFuture<List<Card>> sendTcp(InetSocketAddress server,
+			String request) {
+		CompletableFuture<List<Card>> future = new CompletableFuture<>();
+		byte[] line = (request + " " + Protocol.KEEP_ALIVE + "\n")
+				.getBytes(StandardCharsets.US_ASCII);
+
+		execute(future, () -> {
+			TcpConnection connection = connections.get(server);
+			if (connection == null) {
+				connection = new TcpConnection(server);
+				connections.put(server, connection);
+			}
+			connection.send(ByteBuffer.wrap(line), future);
+		});
+		return future;
+	}
+
+	/**
+	 * Open the connection to a TCP server ahead of the first request to it,
+	 * unless it is already open.
+	 * @param server - The address of the server.
+	 */
+	public void open(InetSocketAddress server) {
+		execute(new CompletableFuture<>(), () -> {
+			if (!connections.containsKey(server)) {
+				connections.put(server, new TcpConnection(server));
+			}
+		});
+	}
+
+	/**
+	 * Send a request to a UDP server from a channel of its own.
+	 * @param server - The address of the server.
+	 * @param request - The request, which must ask for batched packets.
+	 * @param reliable - Whether the request asks the server to send lost
+	 * packets again.
+	 * @return A future completed with the cards received, or exceptionally
+	 * if the response does not arrive in time.
+	 */
+	public CompletableFuture<List<Card>> sendUdp(InetSocketAddress server,
+			String request, boolean reliable) {
+		CompletableFuture<List<Card>> future = new CompletableFuture<>();
+		byte[] data = request.getBytes(StandardCharsets.US_ASCII);
+
+		execute(future, () -> {
+			UdpExchange exchange =
+					new UdpExchange(server, data, reliable, future);
+			if (exchanges.isEmpty() || exchange.deadline - earliest < 0) {
+				earliest = exchange.deadline;
+			}
+			exchanges.add(exchange);
+		});
+		return future;
+	}
+
+	/**
+	 * Stop the event loop. Requests not yet answered are failed.
+	 */
+	@Override
+	public void close() {
+		try {
+			selector.close();
+		} catch (IOException ex) {
+			System.err.println("Client loop error: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Hand work to the loop thread.
+	 * @param future - The future of the request the work sends, failed if
+	 * the work fails or the loop is stopped.
+	 * @param task - The work.
+	 */
+	private void execute(CompletableFuture<List<Card>> future,
+			IoTask task) {
+		Runnable work = () -> {
+			try {
+				task.run();
+			} catch (IOException ex) {
+				future.completeExceptionally(ex);
+			} catch (ClosedSelectorException ex) {
+				future.completeExceptionally(new IOException("Loop closed"));
+			}
+		};
+
+		tasks.add(work);
+		selector.wakeup();
+		// The loop may have stopped before it could take the work.
+		if (!selector.isOpen() && tasks.remove(work)) {
+			future.completeExceptionally(new IOException("Loop closed"));
+		}
+	}
+
+	/**
+	 * Serve every channel until the selector is closed, then fail the
+	 * requests not yet answered.
+	 */
+	private void run() {
+		try {
+			while (selector.isOpen()) {
+				selector.select(expire());
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				Iterator<SelectionKey> keys =
+						selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					((Channel) key.attachment()).ready(key);
+				}
+			}
+		} catch (IOException | ClosedSelectorException ex) {
+			// The loop is shutting down.
+		}
+		IOException closed = new IOException("Loop closed");
+		for (TcpConnection connection
+				: new ArrayList<>(connections.values())) {
+			connection.fail(closed);
+		}
+		for (UdpExchange exchange : new ArrayList<>(exchanges)) {
+			exchange.fail(closed);
+		}
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	/**
+	 * Deal with the UDP requests whose response has not arrived in time.
+	 * Deadlines only move later once set, so the requests are only looked
+	 * at once the earliest deadline known has passed.
+	 * @return The milliseconds until the next request may run out of time,
+	 * or 0 if none is waiting.
+	 */
+	private long expire() {
+		long now = System.nanoTime();
+
+		if (exchanges.isEmpty()) {
+			return 0;
+		}
+		if (earliest - now <= 0) {
+			long next = Long.MAX_VALUE;
+			for (UdpExchange exchange : new ArrayList<>(exchanges)) {
+				if (exchange.deadline - now <= 0) {
+					exchange.expired();
+				}
+				if (!exchange.done) {
+					next = Math.min(next, exchange.deadline - now);
+				}
+			}
+			if (next == Long.MAX_VALUE) {
+				return 0;
+			}
+			earliest = now + next;
+		}
+		// Round up, so the loop does not wake just before the deadline.
+		return Math.max(1, (earliest - now + 999999) / 1000000);
+	}
+
+	/**
+	 * Work for the loop thread which may fail with an IOException.
+	 */
+	private interface IoTask {
+		/**
+		 * Do the work.
+		 * @throws IOException - if the work fails.
+		 */
+		void run() throws IOException;
+	}
+
+	/**
+	 * A channel registered with the selector.
+	 */
+	private interface Channel {
+		/**
+		 * Serve the channel, which is ready.
+		 * @param key - The key of the channel.
+		 */
+		void ready(SelectionKey key);
+	}
+
+	/**
+	 * The connection to a TCP server: the requests not yet written, and
+	 * the requests written but not yet answered, in order.
+	 */
+	private class TcpConnection implements Channel {
+		/** The address of the server. */
+		private final InetSocketAddress server;
+		/** The channel connected to the server. */
+		private final SocketChannel channel;
+		/** The key of the channel. */
+		private final SelectionKey key;
+		/** The requests not yet fully written. */
+		private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+		/** The futures of the requests not yet answered, in order. */
+		private final ArrayDeque<CompletableFuture<List<Card>>> pending =
+				new ArrayDeque<>();
+		/** The bytes read from the server but not yet decoded. */
+		private ByteBuffer input = ByteBuffer.allocate(INPUT_SIZE);
+		/** The cards of the response being read, or null between them. */
+		private List<Card> cards;
+		/** The number of cards in the response being read. */
+		private int count;
+
+		/**
+		 * Start connecting to a server.
+		 * @param server - The address of the server.
+		 * @throws IOException - if the connection cannot be started.
+		 */
+		private TcpConnection(InetSocketAddress server) throws IOException {
+			this.server = server;
+			this.channel = SocketChannel.open();
+			try {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				key = channel.register(selector, channel.connect(server)
+						? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,
+						this);
+			} catch (IOException ex) {
+				channel.close();
+				throw ex;
+			}
+		}
+
+		/**
+		 * Queue a request to be written.
+		 * @param request - The request line.
+		 * @param future - The future to complete with its response.
+		 */
+		private void send(ByteBuffer request,
+				CompletableFuture<List<Card>> future) {
+			output.add(request);
+			pending.add(future);
+			if (channel.isConnected()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Finish connecting, write queued requests or read responses.
+		 * Any error fails every request of the connection.
+		 * @param key - The key of the channel.
+		 */
+		@Override
+		public void ready(SelectionKey key) {
+			try {
+				if (key.isConnectable()) {
+					channel.finishConnect();
+				}
+				if (key.isReadable()) {
+					read();
+				}
+				if (key.isWritable()) {
+					write();
+				}
+				if (key.isValid()) {
+					key.interestOps(output.isEmpty() ? SelectionKey.OP_READ
+							: SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			} catch (IOException ex) {
+				fail(ex);
+			}
+		}
+
+		/**
+		 * Write as many queued requests as the channel accepts.
+		 * @throws IOException - if the requests cannot be written.
+		 */
+		private void write() throws IOException {
+			channel.write(output.toArray(new ByteBuffer[output.size()]));
+			while (!output.isEmpty() && !output.peek().hasRemaining()) {
+				output.poll();
+			}
+		}
+
+		/**
+		 * Read what the server has sent, and complete the request of every
+		 * whole response.
+		 * @throws IOException - if the connection is closed with requests
+		 * unanswered, or the server sends something unexpected.
+		 */
+		private void read() throws IOException {
+			if (channel.read(input) < 0) {
+				throw new EOFException("Connection closed by " + server);
+			}
+			input.flip();
+			while (decode()) {
+				CompletableFuture<List<Card>> future = pending.poll();
+				if (future == null) {
+					throw new IOException("Unexpected response from "
+							+ server);
+				}
+				future.complete(cards);
+				cards = null;
+			}
+			input.compact();
+			// Make room for a card larger than the buffer.
+			if (!input.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(2 * input.capacity());
+				input.flip();
+				input = larger.put(input);
+			}
+		}
+
+		/**
+		 * Decode as much of the response being read as has arrived.
+		 * @return true once the whole response has been decoded.
+		 * @throws IOException - if the response is not valid.
+		 */
+		private boolean decode() throws IOException {
+			if (cards == null) {
+				if (input.remaining() < CardCodec.HEADER_SIZE) {
+					return false;
+				}
+				CardCodec.checkVersion(input.get() & 0xFF);
+				count = CardCodec.checkCount(input.getInt());
+				cards = new ArrayList<>(Math.min(count, Protocol.MAX_COUNT));
+			}
+			while (cards.size() < count) {
+				int length = CardCodec.length(input);
+				if (length < 0 || length > input.remaining()) {
+					return false;
+				}
+				cards.add(CardCodec.decode(input));
+			}
+			return true;
+		}
+
+		/**
+		 * Close the connection and fail every request not yet answered.
+		 * The next request to the server opens a new connection.
+		 * @param cause - The reason the connection failed.
+		 */
+		private void fail(IOException cause) {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// Nothing more can be done for this connection.
+			}
+			connections.remove(server, this);
+			CompletableFuture<List<Card>> future;
+			while ((future = pending.poll()) != null) {
+				future.completeExceptionally(cause);
+			}
+		}
+	}
+
+	/**
+	 * A single request to a UDP server and the packets of its response
+	 * received so far, by sequence number.
+	 */
+	private class UdpExchange implements Channel {
+		/** The address of the server. */
+		private final InetSocketAddress server;
+		/** The channel connected to the server. */
+		private final DatagramChannel channel;
+		/** The key of the channel. */
+		private final SelectionKey key;
+		/** The request. */
+		private final byte[] request;
+		/** Whether the server sends lost packets again. */
+		private final boolean reliable;
+		/** The future to complete with the response. */
+		private final CompletableFuture<List<Card>> future;
+		/** The cards of each DATA packet received, by sequence number. */
+		private final TreeMap<Integer, List<Card>> received = new TreeMap<>();
+		/** The number of DATA packets, once the END packet arrives. */
+		private int packets = -1;
+		/** The id of the response being received, once a packet arrives. */
+		private int response;
+		/** Whether any packet of a response has arrived. */
+		private boolean known;
+		/** The number of times missing packets have been asked for since
+		 * a new packet last arrived. */
+		private int retries;
+		/** The time the next packet is due by. */
+		private long deadline;
+		/** Whether the request has been answered or has failed. */
+		private boolean done;
+
+		/**
+		 * Send a request from a new channel.
+		 * @param server - The address of the server.
+		 * @param request - The request.
+		 * @param reliable - Whether the server sends lost packets again.
+		 * @param future - The future to complete with the response.
+		 * @throws IOException - if the request cannot be sent.
+		 */
+		private UdpExchange(InetSocketAddress server, byte[] request,
+				boolean reliable, CompletableFuture<List<Card>> future)
+						throws IOException {
+			this.server = server;
+			this.request = request;
+			this.reliable = reliable;
+			this.future = future;
+			this.channel = DatagramChannel.open();
+			try {
+				channel.configureBlocking(false);
+				channel.connect(server);
+				key = channel.register(selector, SelectionKey.OP_READ, this);
+				channel.write(ByteBuffer.wrap(request));
+			} catch (IOException ex) {
+				channel.close();
+				throw ex;
+			}
+			extend();
+		}
+
+		/**
+		 * Give the server more time to send the next packet.
+		 */
+		private void extend() {
+			deadline = System.nanoTime() + 1000000L
+					* (reliable ? MagicUdpClient.RETRY_TIMEOUT
+							: MagicUdpClient.TIMEOUT);
+		}
+
+		/**
+		 * Receive every packet which has arrived.
+		 * @param key - The key of the channel.
+		 */
+		@Override
+		public void ready(SelectionKey key) {
+			try {
+				while (!done) {
+					packet.clear();
+					// Unlike read(), receive() tells an empty packet apart
+					// from no packet at all.
+					if (channel.receive(packet) == null) {
+						break;
+					}
+					packet.flip();
+					receive();
+				}
+			} catch (IOException ex) {
+				fail(ex);
+			}
+		}
+
+		/**
+		 * Decode a packet of the response. An empty packet ends an
+		 * unreliable response; the END packet of a reliable response
+		 * holds the number of packets, any missing of which are asked for.
+		 * Once the request has been sent again, the server may send a new
+		 * response in place of the first: only the packets of the latest
+		 * response received are kept, so two hands are never mixed.
+		 * @throws IOException - if the packet is not valid, or missing
+		 * packets cannot be asked for.
+		 */
+		private void receive() throws IOException {
+			extend();
+			if (!packet.hasRemaining()) {
+				if (!reliable) {
+					complete();
+				}
+				return;
+			}
+			CardPacket header = CardPacket.readHeader(packet);
+			if (!known || CardPacket.isNewer(header.getResponse(),
+					response)) {
+				// A later response replaces what came of an earlier one.
+				known = true;
+				response = header.getResponse();
+				received.clear();
+				packets = -1;
+			} else if (header.getResponse() != response) {
+				// A late packet of an earlier response.
+				return;
+			}
+			if (header.getKind() == CardPacket.END) {
+				packets = header.getSequence();
+			} else if (!received.containsKey(header.getSequence())) {
+				List<Card> cards = new ArrayList<>(header.getCount());
+				for (int i = 0; i < header.getCount(); i++) {
+					cards.add(CardCodec.decode(packet));
+				}
+				received.put(header.getSequence(), cards);
+				retries = 0;
+			}
+			if (packets >= 0 && received.size() >= packets) {
+				// Tell the server it may forget the response.
+				channel.write(ByteBuffer.wrap((Protocol.ACK + " "
+						+ Integer.toUnsignedString(response))
+						.getBytes(StandardCharsets.US_ASCII)));
+				complete();
+			} else if (header.getKind() == CardPacket.END) {
+				retry();
+			}
+		}
+
+		/**
+		 * Deal with a packet which has not arrived in time: fail an
+		 * unreliable request, or ask for the missing packets of a reliable
+		 * one.
+		 */
+		private void expired() {
+			try {
+				if (!reliable) {
+					throw new SocketTimeoutException("No response from "
+							+ server);
+				}
+				retry();
+				extend();
+			} catch (IOException ex) {
+				fail(ex);
+			}
+		}
+
+		/**
+		 * Ask the server to send the missing packets of a reliable
+		 * response again, or the request itself if nothing has arrived.
+		 * @throws IOException - if packets have already been asked for the
+		 * maximum number of times, or cannot be asked for.
+		 */
+		private void retry() throws IOException {
+			if (retries++ >= MagicUdpClient.MAX_RETRIES) {
+				throw new SocketTimeoutException("Incomplete response from "
+						+ server + ": " + received.size() + " packets");
+			}
+			if (received.isEmpty() && packets < 0) {
+				channel.write(ByteBuffer.wrap(request));
+				return;
+			}
+			int expected = packets >= 0 ? packets : received.lastKey() + 1;
+			channel.write(ByteBuffer.wrap(MagicUdpClient.nack(response,
+					received, expected)));
+		}
+
+		/**
+		 * Complete the request with the cards received, in the order sent.
+		 */
+		private void complete() {
+			List<Card> cards = new ArrayList<>();
+
+			for (List<Card> cardsOfPacket : received.values()) {
+				cards.addAll(cardsOfPacket);
+			}
+			close();
+			future.complete(cards);
+		}
+
+		/**
+		 * Fail the request.
+		 * @param cause - The reason the request failed.
+		 */
+		private void fail(IOException cause) {
+			close();
+			future.completeExceptionally(cause);
+		}
+
+		/**
+		 * Close the channel of the request, which is done.
+		 */
+		private void close() {
+			done = true;
+			exchanges.remove(this);
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// Nothing more can be done for this channel.
+			}
+		}
+	}
+}
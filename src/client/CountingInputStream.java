@@ -0,0 +1,58 @@
+package client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream which counts the bytes read through it, so that a client
+ * can tell how many bytes a server sent.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+class CountingInputStream extends FilterInputStream {
+	/** The number of bytes read so far. */
+	private long count;
+
+	/**
+	 * Create a stream which counts the bytes read from another.
+	 * @param in - The stream to read from.
+	 */
+	CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * Get the number of bytes read so far.
+	 * @return The number of bytes read.
+	 */
+	long getCount() {
+		return count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			count++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n > 0) {
+			count += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		count += skipped;
+		return skipped;
+	}
+}
@@ -1,6 +1,10 @@
 package client;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import common.Card;
 
 /**
  * The interface to a magic client component.
@@ -20,4 +24,23 @@ public interface MagicClient {
 	 */
 	void printToStream(java.io.PrintStream out) throws IOException, 
 											ClassNotFoundException;
+
+	/**
+	 * Sends a request to the host/port specified when this object was
+	 * created, and returns the cards the server sends back.
+	 * @return The cards received from the server.
+	 * @throws java.io.IOException - If there is an I/O error while receiving
+	 * the data.
+	 * @throws ClassNotFoundException - If a received object is of an
+	 * unknown class.
+	 */
+	List<Card> getCards() throws IOException, ClassNotFoundException;
+
+	/**
+	 * Sends a request to the host/port specified when this object was
+	 * created, without waiting for the response.
+	 * @return A future completed with the cards received from the server,
+	 * or exceptionally if the request fails.
+	 */
+	CompletableFuture<List<Card>> getCardsAsync();
 }
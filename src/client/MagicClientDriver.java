@@ -3,11 +3,18 @@ package client;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import common.Protocol;
+import common.WireFormat;
 
 /**
  * The main driver for a magic client, which connects to a magic server.
- * The magic client can be either TCP or UDP.
- * Usage: java MagicClientDriver <tcp|udp> <host> [port]
+ * The magic client can be either TCP or UDP. The host may also be a list
+ * of servers, separated by commas, each with an optional port, in which
+ * case requests are spread over them by a MagicClientPool.
+ * Usage: java MagicClientDriver <tcp|udp> <host[:port],...> [port] [+options]
  * @author Kevin Filanowski
  * @author Donny Queen
  * @version October 2018
@@ -17,8 +24,9 @@ public class MagicClientDriver {
 	private final static int DEFAULT_PORT = 5892;
 	/** The default flag to send to the server. */
 	public final static String DEFAULT_FLAG = "-A";
-	/** Abstraction of a magic client, which can be UDP or TCP. */
-	private AbstractMagicClient client;
+	/** Abstraction of a magic client of each server, which can be UDP or
+	 * TCP. */
+	private final List<AbstractMagicClient> clients = new ArrayList<>();
 	/** String representation of tcp */
 	private final static String TCP = "tcp";
 	/** String representation of udp */
@@ -59,24 +67,31 @@ public class MagicClientDriver {
 	}
 
 	/**
-	 * Constructor initializes a magic client.
+	 * Constructor initializes a magic client of each server.
 	 * @param protocol - The protocol to setup the client to. UDP or TCP.
-	 * @param host - The host to connect to.
-	 * @param port - The port number to connect to.
+	 * @param host - The host to connect to, or a list of hosts separated by
+	 * commas, each optionally followed by a colon and its own port.
+	 * @param port - The port number to connect to, unless the host has its
+	 * own.
 	 * @param flag - The flag to send to the host.
 	 * @throws UnknownHostException - If the host cannot be reached.
 	 */
 	public MagicClientDriver(String protocol, String host,
 			int port, String flag) throws UnknownHostException {
-		if (protocol.equalsIgnoreCase(TCP)) {
-			client = new MagicTcpClient(InetAddress.getByName(host),
-					port, flag);
-		}
-		else if (protocol.equalsIgnoreCase(UDP)) {
-			client = new MagicUdpClient(InetAddress.getByName(host),
-					port, flag);
-		} else {
-			printUsageAndExit();
+		for (String server : host.split(",")) {
+			int colon = server.indexOf(':');
+			InetAddress address = InetAddress.getByName(colon < 0 ? server
+					: server.substring(0, colon));
+			int serverPort = colon < 0 ? port
+					: Integer.parseInt(server.substring(colon + 1));
+			if (protocol.equalsIgnoreCase(TCP)) {
+				clients.add(new MagicTcpClient(address, serverPort, flag));
+			}
+			else if (protocol.equalsIgnoreCase(UDP)) {
+				clients.add(new MagicUdpClient(address, serverPort, flag));
+			} else {
+				printUsageAndExit();
+			}
 		}
 	}
 
@@ -86,8 +101,14 @@ public class MagicClientDriver {
 	private static void printUsageAndExit() {
 		System.out.println("Usage:\n" + 
 				"java MagicClientDriver <tcp|udp> <host> [port] -[flag]\n" +
+				"or: java MagicClientDriver <tcp|udp> <host[:port],...>"
+				+ " [port] -[flag]\n" +
 				"or: java MagicClientDriver <tcp|udp> <host> -[flag]\n" +
-				"or: java MagicClientDriver <tcp|udp> <host> [port]");
+				"or: java MagicClientDriver <tcp|udp> <host> [port]\n" +
+				"Flags: -L, -S, -C, -LC, -CS, -LS, -A or a composition"
+				+ " such as C=15,L=24,S=21\n" +
+				"Options: +bin, +weighted, +count=N, +batch (udp only),"
+				+ " +reliable (udp only)");
 		System.exit(1);
 	}
 
@@ -96,35 +117,52 @@ public class MagicClientDriver {
 	 * @param args - Command line arguments to the program. There must be 
 	 * at least two arguments. The first argument must be either "tcp" 
 	 * or "udp". The second argument must be the hostname or IP address 
-	 * of a remote host running a magic server for the specified protocol. 
+	 * of a remote host running a magic server for the specified protocol,
+	 * or a list of them separated by commas, each optionally followed by a
+	 * colon and its port.
 	 * The third parameter, if present is either the port number or the flag.
 	 * The fourth argument, if present must be the flag (in which case the 
-	 * third argument must be the port number).
+	 * third argument must be the port number). Options starting with a '+',
+	 * such as +bin to receive cards in the binary format, may be given
+	 * anywhere.
 	 */
 	public static void main(String[] args) {
 		/** Magic client driver to initialize a client */
 		MagicClientDriver driver;
+		/** Options, which start with a '+' and may follow any argument. */
+		List<String> options = new ArrayList<>();
+		/** The arguments which are not options. */
+		List<String> rest = new ArrayList<>();
+
+		for (String arg : args) {
+			if (arg.startsWith("+")) {
+				options.add(arg);
+			} else {
+				rest.add(arg);
+			}
+		}
+		args = rest.toArray(new String[rest.size()]);
 		try {
 			switch(args.length) {
 				case 4: { // All four arguments specified.
 					driver = new MagicClientDriver(args[0], args[1],
 							Integer.parseInt(args[2]), args[3]);
-					driver.go();
+					driver.go(options);
 				} break;
 				case 3: { // Third argument can be flag or port.
-					if (args[2].contains("-")) {
+					if (args[2].contains("-") || args[2].contains("=")) {
 						driver = new MagicClientDriver(args[0], args[1], 
 																args[2]);
-						driver.go();
+						driver.go(options);
 					} else {
 						driver = new MagicClientDriver(args[0], args[1],
 								Integer.parseInt(args[2]));
-						driver.go();
+						driver.go(options);
 					}
 				} break;
 				case 2: { // Protocol and Host specified.
 					driver = new MagicClientDriver(args[0], args[1]);
-					driver.go();
+					driver.go(options);
 				} break;
 				default: { // Wrong number of arguments.
 					printUsageAndExit();
@@ -143,11 +181,60 @@ public class MagicClientDriver {
 	}
 
 	/**
-	 * Runs the client, to send a request to the server.
+	 * Applies the given options to the client of each server, then runs
+	 * the client.
+	 * @param options - Options given on the command line, such as +bin.
+	 * @throws ClassNotFoundException - If the common/Card class is not found.
+	 * @throws IOException - If the client could not write to the server.
+	 */
+	public final void go(List<String> options)
+			throws ClassNotFoundException, IOException {
+		for (String option : options) {
+			for (AbstractMagicClient client : clients) {
+				if (!applyOption(client, option)) {
+					printUsageAndExit();
+				}
+			}
+		}
+		go();
+	}
+
+	/**
+	 * Applies a single command line option, such as +bin, to a client.
+	 * @param client - The client to apply the option to.
+	 * @param option - The option, starting with a '+'.
+	 * @return false if the option is unknown or does not apply to the
+	 * client.
+	 */
+	static boolean applyOption(AbstractMagicClient client, String option) {
+		if (option.equalsIgnoreCase(WireFormat.BINARY.getOption())) {
+			client.setWireFormat(WireFormat.BINARY);
+		} else if (option.equalsIgnoreCase(Protocol.WEIGHTED)) {
+			client.setWeighted(true);
+		} else if (Protocol.intOption(option, Protocol.COUNT) >= 0) {
+			client.setCount(Protocol.intOption(option, Protocol.COUNT));
+		} else if (option.equalsIgnoreCase(Protocol.BATCH)
+				&& client instanceof MagicUdpClient) {
+			((MagicUdpClient) client).setBatched(true);
+		} else if (option.equalsIgnoreCase(Protocol.RELIABLE)
+				&& client instanceof MagicUdpClient) {
+			((MagicUdpClient) client).setReliable(true);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Runs the client, to send a request to the server, or to one of the
+	 * servers chosen by a MagicClientPool if there are several.
 	 * @throws ClassNotFoundException - If the common/Card class is not found.
 	 * @throws IOException - If the client could not write to the server.
 	 */
 	public final void go() throws ClassNotFoundException, IOException{
+		MagicClient client = clients.size() == 1 ? clients.get(0)
+				: new MagicClientPool(clients);
+
 		client.printToStream(System.out);
 	}
 }
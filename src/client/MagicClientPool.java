@@ -0,0 +1,375 @@
+package client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Card;
+
+/**
+ * A magic client which spreads its requests over several servers, each
+ * reached through a client of its own, such as a MagicTcpClient, with the
+ * flag and options every request should use. Requests are sent through a
+ * ClientEventLoop, which keeps a connection open to each TCP server; the
+ * connections are opened when the pool is created.
+ *
+ * Each request goes to the server with the fewest requests outstanding,
+ * either of every server or of two chosen at random (the power of two
+ * choices, the default, which avoids every client piling onto the same
+ * server). A request which fails, or which is not answered in time, is
+ * sent again to a server not yet tried, since asking for a random hand
+ * twice does no harm. A server which fails several requests in a row is
+ * ejected: no request is sent to it for a while, longer each time it is
+ * ejected again without answering a request in between. If every server
+ * left to try is ejected, one is tried anyway. Safe for use by many
+ * threads at once.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class MagicClientPool implements MagicClient {
+	/** The default milliseconds to wait for each attempt of a request. */
+	public static final long DEFAULT_TIMEOUT = 1000;
+	/** The default number of servers to try each request on. */
+	public static final int DEFAULT_ATTEMPTS = 3;
+	/** The number of failures in a row which eject a server. */
+	private static final int EJECT_AFTER = 3;
+	/** The milliseconds a server is ejected for the first time. */
+	private static final long EJECTION = 1000;
+	/** The most times longer than the first a server is ejected for. */
+	private static final int MAX_EJECTION_FACTOR = 30;
+
+	/**
+	 * The ways to choose the server to send a request to.
+	 */
+	public enum Balancing {
+		/** The server with the fewest requests outstanding. */
+		LEAST_OUTSTANDING,
+		/** Of two servers chosen at random, the one with fewer requests
+		 * outstanding. */
+		TWO_CHOICES
+	}
+
+	/** The servers, each with the client which reaches it. */
+	private final Node[] nodes;
+	/** The event loop requests are sent from. */
+	private final ClientEventLoop loop;
+	/** The way to choose the server to send a request to. */
+	private volatile Balancing balancing = Balancing.TWO_CHOICES;
+	/** The milliseconds to wait for each attempt of a request. */
+	private volatile long timeout = DEFAULT_TIMEOUT;
+	/** The number of servers to try each request on. */
+	private volatile int attempts = DEFAULT_ATTEMPTS;
+	/** The number of requests sent again after failing. */
+	private final AtomicLong retries = new AtomicLong();
+	/** The number of times a server has been ejected. */
+	private final AtomicLong ejections = new AtomicLong();
+
+	/**
+	 * Create a pool of the given clients, which sends requests from the
+	 * event loop shared by every client.
+	 * @param clients - The client of each server.
+	 * @throws IOException - if the shared event loop cannot be created.
+	 */
+	public MagicClientPool(List<? extends AbstractMagicClient> clients)
+			throws IOException {
+		this(clients, ClientEventLoop.shared());
+	}
+
+	/**
+	 * Create a pool of the given clients, which sends requests from the
+	 * given event loop.
+	 * @param clients - The client of each server.
+	 * @param loop - The event loop to send requests from.
+	 * @throws IllegalArgumentException - if there are no clients.
+	 */
+	public MagicClientPool(List<? extends AbstractMagicClient> clients,
+			ClientEventLoop loop) {
+		if (clients.isEmpty()) {
+			throw new IllegalArgumentException("No servers to pool");
+		}
+		this.loop = loop;
+		this.nodes = new Node[clients.size()];
+		for (int i = 0; i < nodes.length; i++) {
+			AbstractMagicClient client = clients.get(i);
+			nodes[i] = new Node(client);
+			if (client instanceof MagicTcpClient) {
+				loop.open(client.getAddress());
+			}
+		}
+	}
+
+	/**
+	 * Change the way to choose the server to send each request to.
+	 * @param balancing - The way to choose a server.
+	 */
+	public void setBalancing(Balancing balancing) {
+		this.balancing = balancing;
+	}
+
+	/**
+	 * Change how long to wait for each attempt of a request before trying
+	 * another server.
+	 * @param timeout - The milliseconds to wait.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Change the number of servers to try each request on.
+	 * @param attempts - The number of servers, at least 1.
+	 */
+	public void setAttempts(int attempts) {
+		this.attempts = Math.max(1, attempts);
+	}
+
+	/**
+	 * Change the flags every client sends with each further request.
+	 * @param flag - The flags which determine which cards to send back.
+	 */
+	public void setFlag(String flag) {
+		for (Node node : nodes) {
+			node.client.setFlag(flag);
+		}
+	}
+
+	/**
+	 * Returns the number of requests sent again, after failing or not
+	 * being answered in time.
+	 * @return The number of requests sent again.
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * Returns the number of times a server has been ejected.
+	 * @return The number of ejections.
+	 */
+	public long getEjections() {
+		return ejections.get();
+	}
+
+	/**
+	 * Sends a request to one of the servers, trying others if it fails,
+	 * and waits for the response.
+	 * @return The cards received from the server.
+	 * @throws IOException - if every attempt of the request fails; the
+	 * exception is that of the last attempt.
+	 */
+	@Override
+	public List<Card> getCards() throws IOException {
+		try {
+			return getCardsAsync().get();
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted during request");
+		}
+	}
+
+	/**
+	 * Sends a request to one of the servers, trying others if it fails,
+	 * without waiting for the response.
+	 * @return A future completed with the cards received from the server,
+	 * or exceptionally with the failure of the last attempt.
+	 */
+	@Override
+	public CompletableFuture<List<Card>> getCardsAsync() {
+		CompletableFuture<List<Card>> result = new CompletableFuture<>();
+
+		attempt(result, new boolean[nodes.length], 1, null);
+		return result;
+	}
+
+	/**
+	 * Sends a request to one of the servers, and prints the cards received
+	 * to the specified output stream.
+	 * @param out - The stream to which to write the cards received.
+	 * @throws IOException - if every attempt of the request fails.
+	 */
+	@Override
+	public void printToStream(PrintStream out) throws IOException {
+		for (Card card : getCards()) {
+			out.print(card + "\r\n");
+		}
+	}
+
+	/**
+	 * Send a single attempt of a request to a server not yet tried, and
+	 * once it is done complete the request or make the next attempt.
+	 * @param result - The future of the request.
+	 * @param tried - Whether each server has been tried.
+	 * @param attempt - The number of this attempt, from 1.
+	 * @param last - The failure of the last attempt, or null.
+	 */
+	private void attempt(CompletableFuture<List<Card>> result,
+			boolean[] tried, int attempt, IOException last) {
+		int index = choose(tried);
+
+		if (index < 0) {
+			result.completeExceptionally(last);
+			return;
+		}
+		Node node = nodes[index];
+		tried[index] = true;
+		node.outstanding.incrementAndGet();
+		node.client.getCardsAsync(loop)
+				.orTimeout(timeout, TimeUnit.MILLISECONDS)
+				.whenComplete((cards, failure) -> {
+					node.outstanding.decrementAndGet();
+					if (failure == null) {
+						node.succeeded();
+						result.complete(cards);
+						return;
+					}
+					IOException cause = node.failed(failure);
+					if (attempt < attempts) {
+						retries.incrementAndGet();
+						attempt(result, tried, attempt + 1, cause);
+					} else {
+						result.completeExceptionally(cause);
+					}
+				});
+	}
+
+	/**
+	 * Choose the server to send an attempt of a request to, from those not
+	 * yet tried and not ejected or, if every one of those is ejected, from
+	 * those not yet tried.
+	 * @param tried - Whether each server has been tried.
+	 * @return The index of the server, or -1 if every server has been
+	 * tried.
+	 */
+	private int choose(boolean[] tried) {
+		long now = System.nanoTime();
+		// The servers which may be chosen, the first size of them.
+		int[] candidates = new int[nodes.length];
+		int size = 0;
+
+		for (int i = 0; i < nodes.length; i++) {
+			if (!tried[i] && !nodes[i].isEjected(now)) {
+				candidates[size++] = i;
+			}
+		}
+		if (size == 0) {
+			for (int i = 0; i < nodes.length; i++) {
+				if (!tried[i]) {
+					candidates[size++] = i;
+				}
+			}
+		}
+		if (size == 0) {
+			return -1;
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (size == 1) {
+			return candidates[0];
+		}
+		if (balancing == Balancing.TWO_CHOICES) {
+			int first = random.nextInt(size);
+			int second = (first + 1 + random.nextInt(size - 1)) % size;
+			first = candidates[first];
+			second = candidates[second];
+			return nodes[second].outstanding.get()
+					< nodes[first].outstanding.get() ? second : first;
+		}
+		// Start at random, so ties do not always go to the same server.
+		int start = random.nextInt(size);
+		int best = candidates[start];
+		for (int i = 1; i < size; i++) {
+			int candidate = candidates[(start + i) % size];
+			if (nodes[candidate].outstanding.get()
+					< nodes[best].outstanding.get()) {
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * A single server: the client which reaches it, the requests sent to
+	 * it not yet answered, and whether it is ejected.
+	 */
+	private class Node {
+		/** The client which reaches the server. */
+		private final AbstractMagicClient client;
+		/** The number of requests sent to the server not yet answered. */
+		private final AtomicInteger outstanding = new AtomicInteger();
+		/** The time the server's ejection ends. */
+		private volatile long ejectedUntil = System.nanoTime();
+		/** The number of requests in a row the server has failed. */
+		private int failures;
+		/** The number of times the server has been ejected since it last
+		 * answered a request. */
+		private int ejected;
+
+		/**
+		 * Create a server.
+		 * @param client - The client which reaches the server.
+		 */
+		private Node(AbstractMagicClient client) {
+			this.client = client;
+		}
+
+		/**
+		 * Determine whether the server is ejected.
+		 * @param now - The time now.
+		 * @return true if no request should be sent to the server.
+		 */
+		private boolean isEjected(long now) {
+			return now - ejectedUntil < 0;
+		}
+
+		/**
+		 * Note a request the server has answered.
+		 */
+		private synchronized void succeeded() {
+			failures = 0;
+			ejected = 0;
+		}
+
+		/**
+		 * Note a request the server has failed, ejecting it if it has
+		 * failed too many in a row. Requests sent before the server was
+		 * ejected, and failing while it is, do not count.
+		 * @param failure - The reason the request failed.
+		 * @return The reason the request failed, as an IOException.
+		 */
+		private synchronized IOException failed(Throwable failure) {
+			if (!isEjected(System.nanoTime()) && ++failures >= EJECT_AFTER) {
+				failures = 0;
+				ejected = Math.min(ejected + 1, MAX_EJECTION_FACTOR);
+				ejectedUntil = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(EJECTION * ejected);
+				ejections.incrementAndGet();
+			}
+			if (failure instanceof CompletionException
+					&& failure.getCause() != null) {
+				failure = failure.getCause();
+			}
+			if (failure instanceof TimeoutException) {
+				return new SocketTimeoutException("No response from "
+						+ client.getAddress() + " in " + timeout + " ms");
+			}
+			return failure instanceof IOException ? (IOException) failure
+					: new IOException(failure);
+		}
+	}
+}
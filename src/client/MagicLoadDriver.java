@@ -0,0 +1,481 @@
+package client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import common.Card;
+import common.Histogram;
+
+/**
+ * A load generator for a magic server, which runs many virtual clients at
+ * once, each a MagicTcpClient or MagicUdpClient making one request after
+ * another, and reports the latency, throughput and, for UDP, the packet
+ * loss seen. Each request asks for a flag chosen at random from a weighted
+ * mix.
+ *
+ * Without a rate the clients run in a closed loop, each sending its next
+ * request as soon as the last is answered, to find the most the server can
+ * do. With a rate they run in an open loop: requests are scheduled at fixed
+ * intervals, and latency is measured from when each request was scheduled
+ * rather than when it was sent, so a stalled server is charged for the
+ * requests it held up (the correction for coordinated omission).
+ *
+ * Usage: java MagicLoadDriver <tcp|udp> <host> [port] [clients=N]
+ * [rate=R] [seconds=S] [warmup=S] [mix=-A,-L:2,...] [+options]
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class MagicLoadDriver {
+	/** The default number of virtual clients. */
+	public static final int DEFAULT_CLIENTS = 8;
+	/** The default number of seconds to measure for. */
+	public static final int DEFAULT_SECONDS = 10;
+	/** The default number of seconds to run before measuring. */
+	public static final int DEFAULT_WARMUP = 2;
+	/** The number of nanoseconds in a second. */
+	private static final long SECOND = 1000000000L;
+	/** The number of nanoseconds in a millisecond, as latencies print. */
+	private static final double MILLISECOND = 1000000.0;
+	/** String representation of udp */
+	private static final String UDP = "udp";
+
+	/** The protocol of the clients, tcp or udp. */
+	private final String protocol;
+	/** The host running the server. */
+	private final InetAddress host;
+	/** The port the server listens at. */
+	private final int port;
+	/** The number of virtual clients. */
+	private int clients = DEFAULT_CLIENTS;
+	/** The requests per second of every client together, 0 for no limit. */
+	private double rate;
+	/** The number of seconds to measure for. */
+	private double seconds = DEFAULT_SECONDS;
+	/** The number of seconds to run before measuring. */
+	private double warmup = DEFAULT_WARMUP;
+	/** The flags to choose from. */
+	private final List<String> flags = new ArrayList<>();
+	/** The sum of the weights of each flag and those before it. */
+	private final List<Integer> weights = new ArrayList<>();
+	/** The options to apply to every client, such as +bin. */
+	private final List<String> options = new ArrayList<>();
+
+	/**
+	 * Create a load generator for a server.
+	 * @param protocol - The protocol of the clients, tcp or udp.
+	 * @param host - The host running the server.
+	 * @param port - The port the server listens at.
+	 * @throws UnknownHostException - if the host cannot be found.
+	 */
+	public MagicLoadDriver(String protocol, String host, int port)
+			throws UnknownHostException {
+		this.protocol = protocol;
+		this.host = InetAddress.getByName(host);
+		this.port = port;
+	}
+
+	/**
+	 * Apply a single setting of the form name=value.
+	 * @param setting - The setting.
+	 * @throws IllegalArgumentException - if the setting is unknown or its
+	 * value is not valid.
+	 */
+	public void set(String setting) {
+		int equals = setting.indexOf('=');
+		String name = equals < 0 ? setting : setting.substring(0, equals);
+		String value = setting.substring(equals + 1);
+
+		switch (name.toLowerCase()) {
+			case "clients":
+				clients = Integer.parseInt(value);
+				break;
+			case "rate":
+				rate = Double.parseDouble(value);
+				break;
+			case "seconds":
+				seconds = Double.parseDouble(value);
+				break;
+			case "warmup":
+				warmup = Double.parseDouble(value);
+				break;
+			case "mix":
+				setMix(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown setting: "
+						+ setting);
+		}
+		if (clients < 1 || rate < 0 || seconds <= 0 || warmup < 0) {
+			throw new IllegalArgumentException("Invalid setting: " + setting);
+		}
+	}
+
+	/**
+	 * Set the mix of flags to request, such as "-A,-L:2", in which each
+	 * flag may be followed by a colon and its weight, 1 by default.
+	 * @param mix - The flags, separated by commas.
+	 */
+	private void setMix(String mix) {
+		int total = 0;
+
+		flags.clear();
+		weights.clear();
+		for (String entry : mix.split(",")) {
+			int colon = entry.indexOf(':');
+			int weight = colon < 0 ? 1
+					: Integer.parseInt(entry.substring(colon + 1));
+			if (weight < 1) {
+				throw new IllegalArgumentException("Invalid weight: " + entry);
+			}
+			total += weight;
+			flags.add(colon < 0 ? entry : entry.substring(0, colon));
+			weights.add(total);
+		}
+	}
+
+	/**
+	 * Add an option to apply to every client, such as +bin.
+	 * @param option - The option, starting with a '+'.
+	 * @throws IllegalArgumentException - if the option is unknown or does
+	 * not apply to the protocol.
+	 */
+	public void addOption(String option) {
+		if (!MagicClientDriver.applyOption(newClient(), option)) {
+			throw new IllegalArgumentException("Unknown option: " + option);
+		}
+		options.add(option);
+	}
+
+	/**
+	 * Create a new client of the server, with every option applied.
+	 * @return The new client.
+	 */
+	private AbstractMagicClient newClient() {
+		AbstractMagicClient client = protocol.equalsIgnoreCase(UDP)
+				? new MagicUdpClient(host, port)
+				: new MagicTcpClient(host, port);
+
+		for (String option : options) {
+			MagicClientDriver.applyOption(client, option);
+		}
+		return client;
+	}
+
+	/**
+	 * Choose a flag at random from the mix.
+	 * @return The flag chosen.
+	 */
+	private String nextFlag() {
+		if (flags.isEmpty()) {
+			return AbstractMagicClient.DEFAULT_FLAG;
+		}
+		int pick = ThreadLocalRandom.current().nextInt(
+				weights.get(weights.size() - 1));
+		for (int i = 0; i < flags.size(); i++) {
+			if (pick < weights.get(i)) {
+				return flags.get(i);
+			}
+		}
+		return flags.get(flags.size() - 1);
+	}
+
+	/**
+	 * Run every virtual client for the warmup and then the measurement,
+	 * and print the results.
+	 * @throws InterruptedException - if interrupted while waiting for the
+	 * clients to finish.
+	 */
+	public void run() throws InterruptedException {
+		// The time the clients start, measurement starts and everything ends.
+		long start = System.nanoTime() + SECOND / 10;
+		long measureFrom = start + (long) (warmup * SECOND);
+		long end = measureFrom + (long) (seconds * SECOND);
+		// The nanoseconds between the requests of each client, if limited.
+		long interval = rate > 0 ? (long) (clients * SECOND / rate) : 0;
+		VirtualClient[] virtual = new VirtualClient[clients];
+		Thread[] threads = new Thread[clients];
+
+		System.out.println("Running " + clients + " " + protocol
+				+ " clients " + (rate > 0 ? "at " + rate + " requests/s"
+						: "as fast as possible")
+				+ " for " + seconds + " s after " + warmup + " s of warmup");
+		for (int i = 0; i < clients; i++) {
+			// Spread the clients of an open loop evenly over an interval.
+			virtual[i] = new VirtualClient(newClient(), interval,
+					start + interval * i / clients, measureFrom, end);
+			threads[i] = new Thread(virtual[i], "load-" + i);
+			threads[i].start();
+		}
+
+		Totals totals = new Totals();
+		for (int i = 0; i < clients; i++) {
+			threads[i].join();
+			totals.add(virtual[i]);
+		}
+		totals.print(measureFrom);
+	}
+
+	/**
+	 * A single virtual client, which makes one request after another.
+	 */
+	private class VirtualClient implements Runnable {
+		/** The client of the server. */
+		private final AbstractMagicClient client;
+		/** The nanoseconds between requests, or 0 for a closed loop. */
+		private final long interval;
+		/** The time the first request is scheduled for. */
+		private final long first;
+		/** The time to start measuring. */
+		private final long measureFrom;
+		/** The time to stop. */
+		private final long end;
+		/** The time from scheduling to answer of each request measured. */
+		private final Histogram latency = new Histogram();
+		/** The time from sending to answer of each request measured. */
+		private final Histogram service = new Histogram();
+		/** The number of requests measured which failed. */
+		private long errors;
+		/** The number of cards received by the requests measured. */
+		private long cards;
+		/** The number of bytes received by the requests measured. */
+		private long bytes;
+		/** The number of packets received by the requests measured. */
+		private long packets;
+		/** The number of packets lost by the requests measured. */
+		private long lost;
+		/** The number of requests measured never sent, being too late. */
+		private long unsent;
+		/** The time the last request was answered. */
+		private long finished;
+
+		/**
+		 * Create a virtual client.
+		 * @param client - The client of the server.
+		 * @param interval - The nanoseconds between requests, or 0 for a
+		 * closed loop.
+		 * @param first - The time the first request is scheduled for.
+		 * @param measureFrom - The time to start measuring.
+		 * @param end - The time to stop.
+		 */
+		private VirtualClient(AbstractMagicClient client, long interval,
+				long first, long measureFrom, long end) {
+			this.client = client;
+			this.interval = interval;
+			this.first = first;
+			this.measureFrom = measureFrom;
+			this.end = end;
+		}
+
+		/**
+		 * Make requests until the end. Requests of an open loop still
+		 * waiting to be sent at the end are counted, but not sent.
+		 */
+		@Override
+		public void run() {
+			long scheduled = first;
+
+			while (scheduled < end) {
+				long now;
+				while ((now = System.nanoTime()) < scheduled) {
+					LockSupport.parkNanos(scheduled - now);
+				}
+				if (now >= end) {
+					// A closed loop has no request waiting to be sent.
+					for (; interval > 0 && scheduled < end;
+							scheduled += interval) {
+						unsent += scheduled >= measureFrom ? 1 : 0;
+					}
+					break;
+				}
+				// A closed loop sends each request as soon as it may.
+				if (interval == 0) {
+					scheduled = now;
+				}
+				request(scheduled, now);
+				scheduled = interval == 0 ? System.nanoTime()
+						: scheduled + interval;
+			}
+			finished = System.nanoTime();
+		}
+
+		/**
+		 * Make a single request and record it, if it is measured.
+		 * @param scheduled - The time the request was scheduled for.
+		 * @param sent - The time the request was sent.
+		 */
+		private void request(long scheduled, long sent) {
+			long bytesBefore = client.getBytesReceived();
+			long packetsBefore = packets();
+			long lostBefore = lost();
+			boolean measured = scheduled >= measureFrom;
+
+			client.setFlag(nextFlag());
+			try {
+				List<Card> hand = client.getCards();
+				long answered = System.nanoTime();
+				if (measured) {
+					latency.record(answered - scheduled);
+					service.record(answered - sent);
+					cards += hand.size();
+				}
+			} catch (IOException | ClassNotFoundException ex) {
+				if (measured) {
+					errors++;
+				}
+			}
+			if (measured) {
+				bytes += client.getBytesReceived() - bytesBefore;
+				packets += packets() - packetsBefore;
+				lost += lost() - lostBefore;
+			}
+		}
+
+		/**
+		 * Get the number of packets the client has received.
+		 * @return The number of packets received, 0 for a TCP client.
+		 */
+		private long packets() {
+			return client instanceof MagicUdpClient
+					? ((MagicUdpClient) client).getPacketsReceived() : 0;
+		}
+
+		/**
+		 * Get the number of packets the client has found missing.
+		 * @return The number of packets lost, 0 for a TCP client.
+		 */
+		private long lost() {
+			return client instanceof MagicUdpClient
+					? ((MagicUdpClient) client).getPacketsLost() : 0;
+		}
+	}
+
+	/**
+	 * The results of every virtual client together.
+	 */
+	private class Totals {
+		/** The time from scheduling to answer of each request. */
+		private final Histogram latency = new Histogram();
+		/** The time from sending to answer of each request. */
+		private final Histogram service = new Histogram();
+		/** The number of requests which failed. */
+		private long errors;
+		/** The number of cards received. */
+		private long cards;
+		/** The number of bytes received. */
+		private long bytes;
+		/** The number of packets received. */
+		private long packets;
+		/** The number of packets lost. */
+		private long lost;
+		/** The number of requests never sent, being too late. */
+		private long unsent;
+		/** The time the last client finished. */
+		private long finished;
+
+		/**
+		 * Add the results of a virtual client.
+		 * @param client - The virtual client, which has finished.
+		 */
+		private void add(VirtualClient client) {
+			latency.add(client.latency);
+			service.add(client.service);
+			errors += client.errors;
+			cards += client.cards;
+			bytes += client.bytes;
+			packets += client.packets;
+			lost += client.lost;
+			unsent += client.unsent;
+			finished = Math.max(finished, client.finished);
+		}
+
+		/**
+		 * Print the results.
+		 * @param measureFrom - The time measurement started.
+		 */
+		private void print(long measureFrom) {
+			long requests = latency.getCount();
+			// The seconds from the start of measurement to the last answer.
+			double seconds = (double) (finished - measureFrom) / SECOND;
+
+			System.out.println(String.format("Requests: %d answered, %d "
+					+ "failed, %.1f requests/s", requests, errors,
+					requests / seconds));
+			if (unsent > 0) {
+				System.out.println(unsent + " requests were never sent: the"
+						+ " server did not keep up with the rate");
+			}
+			System.out.println(String.format("Received: %.1f cards/s, "
+					+ "%.3f MB/s", cards / seconds, bytes / seconds / 1e6));
+			if (protocol.equalsIgnoreCase(UDP)) {
+				System.out.println(String.format("Packets: %d received, "
+						+ "%d lost (%.3f%% loss)", packets, lost,
+						packets + lost == 0 ? 0.0
+								: 100.0 * lost / (packets + lost)));
+			}
+			if (rate > 0) {
+				latency.printPercentiles(System.out, MILLISECOND,
+						"Latency from schedule (ms)");
+			}
+			service.printPercentiles(System.out, MILLISECOND,
+					"Latency from send (ms)");
+		}
+	}
+
+	/**
+	 * Prints a simple usage message and terminates the program.
+	 */
+	private static void printUsageAndExit() {
+		System.out.println("Usage:\n"
+				+ "java MagicLoadDriver <tcp|udp> <host> [port] [clients=N]"
+				+ " [rate=R] [seconds=S] [warmup=S] [mix=-A,-L:2,...]"
+				+ " [+options]\n"
+				+ "Without a rate, clients send requests as fast as they are"
+				+ " answered.\n"
+				+ "Options: +bin, +batch (udp only), +reliable (udp only)");
+		System.exit(1);
+	}
+
+	/**
+	 * Provides the entry point of the load generator.
+	 * @param args - Command line arguments: the protocol, the host, then
+	 * optionally the port, followed by any settings of the form name=value
+	 * and options starting with a '+'.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			printUsageAndExit();
+		}
+		try {
+			int next = 2;
+			int port = AbstractMagicClient.DEFAULT_PORT;
+			if (args.length > next && args[next].matches("\\d+")) {
+				port = Integer.parseInt(args[next++]);
+			}
+			if (!args[0].equalsIgnoreCase("tcp")
+					&& !args[0].equalsIgnoreCase(UDP)) {
+				printUsageAndExit();
+			}
+			MagicLoadDriver driver =
+					new MagicLoadDriver(args[0], args[1], port);
+			for (; next < args.length; next++) {
+				if (args[next].startsWith("+")) {
+					driver.addOption(args[next]);
+				} else {
+					driver.set(args[next]);
+				}
+			}
+			driver.run();
+		} catch (IllegalArgumentException | UnknownHostException ex) {
+			System.out.println(ex.getMessage());
+			printUsageAndExit();
+		} catch (InterruptedException ex) {
+			System.out.println("Interrupted");
+		}
+	}
+}
@@ -1,12 +1,20 @@
 package client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import common.Card;
+import common.CardCodec;
+import common.Protocol;
+import common.WireFormat;
 
 /**
  * This class represents a concrete implementation of a 
@@ -16,6 +24,11 @@ import common.Card;
  * @version October 2018
  */
 public class MagicTcpClient extends AbstractMagicClient {
+	/**
+	 * The most requests sent on a kept open connection before the
+	 * response to the first of them is read.
+	 */
+	private static final int PIPELINE_DEPTH = 64;
 
 	/**
 	 * Initializes a new MagicTcpClient with the specified host and 
@@ -48,39 +61,147 @@ public class MagicTcpClient extends AbstractMagicClient {
 
 	/** 
 	 * Establishes a TCP connection with the client connecting to the server.
-	 * Listens for a flag, and sends back the requested types of cards to
-	 * the client. The server ends communication by sending a blank string.
-	 * @param out - The stream to which to write the random cards received.
+	 * Sends the flag, and reads back the requested types of cards. In the
+	 * serialized format the server ends communication by sending a blank
+	 * string; in the binary format the server first sends the number of
+	 * cards that follow.
+	 * @return The cards received from the server.
 	 * @throws IOException - if there is an I/O error while receiving the data.
 	 * @throws ClassNotFoundException - If Card is not imported and found.
 	 */
 	@Override
-	public void printToStream(PrintStream out) throws IOException,
-													ClassNotFoundException {
-		// Holds the object the server sends to the client
-		Object object;
+	public List<Card> getCards() throws IOException, ClassNotFoundException {
 		try (
 				// Socket will be our connection to a server
 				Socket clientSocket = new Socket(getHost(), getPort());
 				// Create a 'stream' connected to the server to send data.
 				DataOutputStream toServer =
 						new DataOutputStream(clientSocket.getOutputStream());
-				// Create a 'stream' connected to the server to read data.
-				ObjectInputStream clientIn =
-						new ObjectInputStream(clientSocket.getInputStream());
 				) {
 			// Write the flag to the server.
-			toServer.writeBytes(getFlag() + "\n");
+			toServer.writeBytes(getRequest() + "\n");
 			toServer.flush();
 
-			// Read in the cards sent from the server and output them.
-			do {
-				object = clientIn.readObject();
-				if (object instanceof Card) {
-					out.print(object + "\r\n");
+			// Counts the bytes the server sends.
+			CountingInputStream fromServer = new CountingInputStream(
+					clientSocket.getInputStream());
+			try {
+				if (getWireFormat() == WireFormat.BINARY) {
+					return readBinary(new DataInputStream(
+							new BufferedInputStream(fromServer)));
+				}
+				return readSerial(new ObjectInputStream(fromServer));
+			} finally {
+				received(fromServer.getCount());
+			}
+		}
+	}
+
+	/**
+	 * Sends the request on the loop's connection to the server, kept open
+	 * and shared with every other request to the server from the loop.
+	 * @param loop - The event loop to send the request from.
+	 * @return A future completed with the cards received from the server,
+	 * or exceptionally if the connection fails.
+	 */
+	@Override
+	public CompletableFuture<List<Card>> getCardsAsync(ClientEventLoop loop) {
+		return loop.sendTcp(getAddress(), getRequest());
+	}
+
+	/**
+	 * Establishes a single TCP connection to the server and sends one
+	 * request for each of the given flags on it, without waiting for each
+	 * response before sending the next request. Responses are read in the
+	 * order the requests were sent. Requests are always answered in the
+	 * binary format, which tells the client where each response ends.
+	 * @param flags - The flags of the requests to send.
+	 * @return The cards of each response, in the order of the flags.
+	 * @throws IOException - if there is an I/O error while receiving the data.
+	 */
+	public List<List<Card>> getCards(List<String> flags) throws IOException {
+		// Holds the cards of each response.
+		List<List<Card>> hands = new ArrayList<>(flags.size());
+		// The number of requests sent so far.
+		int sent = 0;
+
+		try (
+				// Socket will be our connection to a server
+				Socket clientSocket = new Socket(getHost(), getPort());
+				// Create a 'stream' connected to the server to send data.
+				DataOutputStream toServer = new DataOutputStream(
+						new BufferedOutputStream(
+								clientSocket.getOutputStream()));
+				// Counts the bytes the server sends.
+				CountingInputStream fromServer = new CountingInputStream(
+						clientSocket.getInputStream());
+				// Create a 'stream' connected to the server to read data.
+				DataInputStream clientIn = new DataInputStream(
+						new BufferedInputStream(fromServer));
+				) {
+			try {
+				while (hands.size() < flags.size()) {
+					// Keep up to the pipeline depth of requests outstanding.
+					while (sent < flags.size()
+							&& sent - hands.size() < PIPELINE_DEPTH) {
+						toServer.writeBytes(getRequest(flags.get(sent++)) + " "
+								+ Protocol.KEEP_ALIVE + "\n");
+					}
+					toServer.flush();
+					if (sent == flags.size()
+							&& !clientSocket.isOutputShutdown()) {
+						clientSocket.shutdownOutput();
+					}
+					hands.add(readBinary(clientIn));
 				}
+			} finally {
+				received(fromServer.getCount());
 			}
-			while (object instanceof Card);
 		}
+		return hands;
+	}
+
+	/**
+	 * Read cards sent using Java serialization, up to the blank string
+	 * which ends the hand.
+	 * @param clientIn - The stream connected to the server.
+	 * @return The cards received from the server.
+	 * @throws IOException - if there is an I/O error while receiving the data.
+	 * @throws ClassNotFoundException - If Card is not imported and found.
+	 */
+	private List<Card> readSerial(ObjectInputStream clientIn)
+			throws IOException, ClassNotFoundException {
+		// Holds the cards the server sends to the client.
+		List<Card> cards = new ArrayList<>();
+		// Holds the object the server sends to the client
+		Object object = clientIn.readObject();
+
+		// Read in the cards sent from the server.
+		while (object instanceof Card) {
+			cards.add((Card) object);
+			object = clientIn.readObject();
+		}
+		return cards;
+	}
+
+	/**
+	 * Read a hand of cards sent in the binary format.
+	 * @param clientIn - The stream connected to the server.
+	 * @return The cards received from the server.
+	 * @throws IOException - if there is an I/O error while receiving the data.
+	 */
+	private List<Card> readBinary(DataInputStream clientIn)
+			throws IOException {
+		// The number of cards the server is sending.
+		int count = CardCodec.readHeader(clientIn);
+		// Holds the cards the server sends to the client, not sized past
+		// MAX_COUNT on the word of the header alone.
+		List<Card> cards = new ArrayList<>(Math.min(count,
+				Protocol.MAX_COUNT));
+
+		for (int i = 0; i < count; i++) {
+			cards.add(CardCodec.read(clientIn));
+		}
+		return cards;
 	}
 }
@@ -3,12 +3,22 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.PrintStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 
 import common.Card;
+import common.CardCodec;
+import common.CardPacket;
+import common.Protocol;
+import common.WireFormat;
 
 /**
  * This class represents a concrete implementation of a 
@@ -26,7 +36,26 @@ public class MagicUdpClient extends AbstractMagicClient {
 	private static final int SIZE = 1024;
 
 	/** The length of time to wait for a timeout */
-	private static final int TIMEOUT = 500;
+	static final int TIMEOUT = 500;
+	/**
+	 * The length of time to wait for a packet of a reliable response
+	 * before asking the server to send missing packets again.
+	 */
+	static final int RETRY_TIMEOUT = 100;
+	/** The number of times in a row to ask for missing packets, with no
+	 * new packet arriving in between, before giving up. */
+	static final int MAX_RETRIES = 10;
+	/** The most bytes a sequence number takes in a report of missing
+	 * packets, with the space before it. */
+	private static final int MAX_SEQUENCE_LENGTH = 6;
+	/** Whether to ask the server to pack many cards into each packet. */
+	private boolean batched;
+	/** Whether to ask the server to send lost packets again. */
+	private boolean reliable;
+	/** The number of packets received from the server so far. */
+	private long packetsReceived;
+	/** The number of packets found missing so far. */
+	private long packetsLost;
 	/**
 	 * Initializes a new MagicUdpClient with the specified host and 
 	 * the default port and flag.
@@ -56,51 +85,338 @@ public class MagicUdpClient extends AbstractMagicClient {
 		super(host, port, flag);
 	}
 
+	/**
+	 * Change whether to ask the server to pack many cards into each packet.
+	 * Batched packets are always sent in the binary format.
+	 * @param batched - Whether to ask for batched packets.
+	 */
+	public void setBatched(boolean batched) {
+		this.batched = batched;
+		if (batched) {
+			setWireFormat(WireFormat.BINARY);
+		}
+	}
+
+	/**
+	 * Change whether to ask the server to send lost packets again.
+	 * Reliable responses are always batched.
+	 * @param reliable - Whether to ask for a reliable response.
+	 */
+	public void setReliable(boolean reliable) {
+		this.reliable = reliable;
+		if (reliable) {
+			setBatched(true);
+		}
+	}
+
+	/**
+	 * Returns the number of packets received from the server by every
+	 * request sent by this client, including packets sent again.
+	 * @return The number of packets received.
+	 */
+	public long getPacketsReceived() {
+		return packetsReceived;
+	}
+
+	/**
+	 * Returns the number of packets found missing by every request sent by
+	 * this client. Only batched packets carry sequence numbers, so losses
+	 * of unbatched packets are not counted. A lost packet of a reliable
+	 * response is counted each time it is asked for again.
+	 * @return The number of packets found missing.
+	 */
+	public long getPacketsLost() {
+		return packetsLost;
+	}
+
+	/**
+	 * Returns the request to send to the server for the given flag,
+	 * including the options asking for batched packets and a reliable
+	 * response, if set.
+	 * @param flag - The flag which determines which cards to send back.
+	 * @return The request to send to the server.
+	 */
+	@Override
+	protected String getRequest(String flag) {
+		if (reliable) {
+			return super.getRequest(flag) + " " + Protocol.RELIABLE;
+		} else if (batched) {
+			return super.getRequest(flag) + " " + Protocol.BATCH;
+		}
+		return super.getRequest(flag);
+	}
+
 	/** 
-	 * Send a request out to the server and output the random cards received.
-	 * @param out - The stream to which to write the random cards received.
+	 * Send a request out to the server and return the random cards received.
+	 * @return The cards received from the server.
 	 * @throws IOException - if there is an I/O error while receiving the data.
+	 * @throws ClassNotFoundException - If Card is not imported and found.
 	 */
 	@Override
-	public void printToStream(PrintStream out) throws IOException,
-												ClassNotFoundException {
+	public List<Card> getCards() throws IOException, ClassNotFoundException {
+		// Holds the cards the server sends to the client.
+		List<Card> cards = new ArrayList<>();
+
 		// Open a socket to send data. Not the same as a TCP connection!
-		DatagramSocket clientSocket = new DatagramSocket();
-		// Set a timeout in case we get no response.
-		clientSocket.setSoTimeout(TIMEOUT);
-
-		// Create an array of bytes to send data.
-		byte[] sendData = new byte[SIZE];
-		sendData = getFlag().getBytes();
-
-		// New packet to send to server.
-		DatagramPacket sendPacket = new DatagramPacket(sendData, 
-				sendData.length, getHost(), getPort());
-
-		// Push the data into the socket.
-		clientSocket.send(sendPacket);
-
-		// Create storage to receive a packet from the server.
-        byte[] receiveData = new byte[SIZE];
-		DatagramPacket receivePacket = 
-				new DatagramPacket(receiveData, receiveData.length);
-
-        Card card = null;
-
-		// Constantly receive cards until server sends empty packet or timeout.
-		while (receivePacket.getLength() > 0) {
-                clientSocket.receive(receivePacket);
-				ByteArrayInputStream inStream = new 
-											ByteArrayInputStream(receiveData);
-				ObjectInputStream objIn = new ObjectInputStream(
-										new BufferedInputStream(inStream));			
-				card = (Card) objIn.readObject();
-
-			if (receivePacket.getLength() > 0){
-				out.print(card.toString() + "\r\n");
+		try (DatagramSocket clientSocket = new DatagramSocket()) {
+			// Set a timeout in case we get no response.
+			clientSocket.setSoTimeout(TIMEOUT);
+
+			// Create an array of bytes to send data.
+			byte[] sendData = getRequest().getBytes();
+
+			// New packet to send to server.
+			DatagramPacket sendPacket = new DatagramPacket(sendData, 
+					sendData.length, getHost(), getPort());
+
+			// Push the data into the socket.
+			clientSocket.send(sendPacket);
+
+			// Create storage to receive a packet from the server.
+			byte[] receiveData =
+					new byte[batched ? CardPacket.MAX_SIZE : SIZE];
+			DatagramPacket receivePacket = 
+					new DatagramPacket(receiveData, receiveData.length);
+
+			if (reliable) {
+				return receiveReliably(clientSocket, sendPacket,
+						receivePacket);
+			}
+
+			// The number of batched packets expected so far.
+			int expected = 0;
+			// The number of batched packets received.
+			int packets = 0;
+
+			// Constantly receive cards until server sends empty packet
+			// or timeout.
+			clientSocket.receive(receivePacket);
+			while (receivePacket.getLength() > 0) {
+				count(receivePacket);
+				expected = Math.max(expected,
+						decode(receivePacket, cards) + 1);
+				packets++;
+				receivePacket.setLength(receiveData.length);
+				clientSocket.receive(receivePacket);
+			}
+			count(receivePacket);
+			if (batched) {
+				packetsLost += Math.max(0, expected - packets);
+			}
+		}
+		return cards;
+	}
+
+	/**
+	 * Sends the request from a channel of its own, asking for batched
+	 * packets if this client does not already. Lost packets are asked for
+	 * again if the client is reliable; otherwise the request fails if the
+	 * end of the response does not arrive in time. Packets are not counted
+	 * by getPacketsReceived() or getPacketsLost().
+	 * @param loop - The event loop to send the request from.
+	 * @return A future completed with the cards received from the server,
+	 * or exceptionally if the request fails.
+	 */
+	@Override
+	public CompletableFuture<List<Card>> getCardsAsync(ClientEventLoop loop) {
+		String request = getRequest();
+
+		if (!batched) {
+			request += " " + Protocol.BATCH;
+		}
+		return loop.sendUdp(getAddress(), request, reliable);
+	}
+
+	/**
+	 * Receive the packets of a reliable response. Whenever no packet
+	 * arrives in time, or the END packet arrives before every DATA packet,
+	 * the server is told which packets are missing and sends them again.
+	 * Once every packet has arrived the server is told it may forget them.
+	 * If the request is sent again, the server answers with a new response
+	 * in place of the first: the packets of the latest response received
+	 * are kept, and those of any other are dropped, so that the cards of
+	 * two hands are never mixed.
+	 * @param clientSocket - The socket the request was sent from.
+	 * @param request - The packet holding the request.
+	 * @param receivePacket - The packet to receive into.
+	 * @return The cards received from the server, in the order sent.
+	 * @throws IOException - if the response is still incomplete after
+	 * asking for missing packets the maximum number of times.
+	 */
+	private List<Card> receiveReliably(DatagramSocket clientSocket,
+			DatagramPacket request, DatagramPacket receivePacket)
+					throws IOException {
+		// The cards of each DATA packet received, by sequence number.
+		TreeMap<Integer, List<Card>> received = new TreeMap<>();
+		// The number of DATA packets, known once the END packet arrives.
+		int packets = -1;
+		// The number of cards in the response, known with packets.
+		int total = 0;
+		// The number of times missing packets have been asked for since a
+		// new packet last arrived.
+		int retries = 0;
+		// The id of the response being received, once a packet arrives.
+		int response = 0;
+		boolean known = false;
+
+		clientSocket.setSoTimeout(RETRY_TIMEOUT);
+		while (packets < 0 || received.size() < packets) {
+			try {
+				receivePacket.setLength(receivePacket.getData().length);
+				clientSocket.receive(receivePacket);
+				count(receivePacket);
+				ByteBuffer buffer = ByteBuffer.wrap(receivePacket.getData(),
+						receivePacket.getOffset(), receivePacket.getLength());
+				CardPacket header = CardPacket.readHeader(buffer);
+				if (!known || CardPacket.isNewer(header.getResponse(),
+						response)) {
+					// A later response replaces what came of an earlier one.
+					known = true;
+					response = header.getResponse();
+					received.clear();
+					packets = -1;
+				} else if (header.getResponse() != response) {
+					// A late packet of an earlier response.
+					continue;
+				}
+				if (header.getKind() == CardPacket.END) {
+					packets = header.getSequence();
+					total = CardCodec.checkCount(buffer.getInt());
+					if (received.size() < packets) {
+						retries = retry(clientSocket, request, response,
+								received, packets, retries);
+					}
+				} else if (!received.containsKey(header.getSequence())) {
+					List<Card> cards = new ArrayList<>(header.getCount());
+					for (int i = 0; i < header.getCount(); i++) {
+						cards.add(CardCodec.decode(buffer));
+					}
+					received.put(header.getSequence(), cards);
+					retries = 0;
+				}
+			} catch (SocketTimeoutException ex) {
+				retries = retry(clientSocket, request, response, received,
+						packets, retries);
+			}
+		}
+
+		// Tell the server it may forget the response.
+		byte[] ack = (Protocol.ACK + " " + Integer.toUnsignedString(response))
+				.getBytes();
+		clientSocket.send(new DatagramPacket(ack, ack.length,
+				getHost(), getPort()));
+
+		List<Card> cards = new ArrayList<>(Math.min(total,
+				Protocol.MAX_COUNT));
+		for (List<Card> packet : received.values()) {
+			cards.addAll(packet);
+		}
+		return cards;
+	}
+
+	/**
+	 * Ask the server to send the missing packets of a reliable response
+	 * again, followed by its END packet. If nothing has arrived yet, the
+	 * request itself is sent again.
+	 * @param clientSocket - The socket the request was sent from.
+	 * @param request - The packet holding the request.
+	 * @param response - The id of the response being received, if any
+	 * packet has arrived.
+	 * @param received - The cards of each DATA packet received.
+	 * @param packets - The number of DATA packets, or -1 if not yet known.
+	 * @param retries - The number of times packets have been asked for.
+	 * @return The number of times packets have been asked for, including
+	 * this time.
+	 * @throws IOException - if packets have already been asked for the
+	 * maximum number of times, or the request cannot be sent.
+	 */
+	private int retry(DatagramSocket clientSocket, DatagramPacket request,
+			int response, TreeMap<Integer, List<Card>> received, int packets,
+			int retries) throws IOException {
+		if (retries >= MAX_RETRIES) {
+			throw new SocketTimeoutException("Incomplete response from "
+					+ getHost() + ": " + received.size() + " packets");
+		}
+		if (received.isEmpty() && packets < 0) {
+			clientSocket.send(request);
+			return retries + 1;
+		}
+
+		// Every sequence number below the number of packets, or below the
+		// highest received if the END packet has not arrived, is expected.
+		int expected = packets >= 0 ? packets : received.lastKey() + 1;
+		byte[] sendData = nack(response, received, expected);
+		packetsLost += expected - received.size();
+		clientSocket.send(new DatagramPacket(sendData, sendData.length,
+				getHost(), getPort()));
+		return retries + 1;
+	}
+
+	/**
+	 * Build the report of the missing packets of a reliable response: NACK,
+	 * the id of the response and the sequence number of each packet
+	 * missing, as many as fit in a request the server reads whole. Those
+	 * left out are asked for by a later report.
+	 * @param response - The id of the response.
+	 * @param received - The cards of each DATA packet received, by
+	 * sequence number.
+	 * @param expected - The number of packets expected so far.
+	 * @return The report, in ASCII.
+	 */
+	static byte[] nack(int response, TreeMap<Integer, List<Card>> received,
+			int expected) {
+		StringBuilder nack = new StringBuilder(Protocol.NACK).append(' ')
+				.append(Integer.toUnsignedString(response));
+
+		for (int i = 0; i < expected; i++) {
+			if (nack.length() + MAX_SEQUENCE_LENGTH > Protocol.MAX_REQUEST) {
+				break;
+			}
+			if (!received.containsKey(i)) {
+				nack.append(' ').append(i);
+			}
+		}
+		return nack.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Count a packet received from the server.
+	 * @param packet - The packet received from the server.
+	 */
+	private void count(DatagramPacket packet) {
+		packetsReceived++;
+		received(packet.getLength());
+	}
+
+	/**
+	 * Decode the cards held by a packet received from the server.
+	 * @param packet - The packet received from the server.
+	 * @param cards - The list to add the cards to.
+	 * @return The sequence number of a batched packet, otherwise -1.
+	 * @throws IOException - if the packet does not hold a card.
+	 * @throws ClassNotFoundException - If Card is not imported and found.
+	 */
+	private int decode(DatagramPacket packet, List<Card> cards)
+			throws IOException, ClassNotFoundException {
+		ByteBuffer buffer = ByteBuffer.wrap(packet.getData(),
+				packet.getOffset(), packet.getLength());
+
+		if (batched) {
+			CardPacket header = CardPacket.readHeader(buffer);
+			for (int i = 0; i < header.getCount(); i++) {
+				cards.add(CardCodec.decode(buffer));
 			}
-		// Close the socket.
+			return header.getSequence();
+		} else if (getWireFormat() == WireFormat.BINARY) {
+			CardCodec.checkVersion(buffer.get());
+			cards.add(CardCodec.decode(buffer));
+		} else {
+			ByteArrayInputStream inStream = new ByteArrayInputStream(
+					packet.getData(), packet.getOffset(), packet.getLength());
+			ObjectInputStream objIn = new ObjectInputStream(
+					new BufferedInputStream(inStream));
+			cards.add((Card) objIn.readObject());
 		}
-		clientSocket.close();
+		return -1;
 	}
 }
@@ -0,0 +1,86 @@
+package common;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class presents part of an array of ASCII bytes, such as a request line
+ * received from the network, as a CharSequence, so that it can be read
+ * without first making a String of it. A view can be pointed at another
+ * part of an array at any time, so a single view can be reused for every
+ * line read. The view does not copy the bytes, so they must not change
+ * while it is read. This class is not thread safe.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public final class AsciiView implements CharSequence {
+	/** The bytes viewed. */
+	private byte[] bytes = new byte[0];
+	/** The index of the first byte viewed. */
+	private int from;
+	/** The number of bytes viewed. */
+	private int length;
+
+	/**
+	 * Point the view at part of an array.
+	 * @param bytes - The array of ASCII bytes.
+	 * @param from - The index of the first byte to view.
+	 * @param to - The index just past the last byte to view.
+	 * @return This view.
+	 */
+	public AsciiView wrap(byte[] bytes, int from, int to) {
+		this.bytes = bytes;
+		this.from = from;
+		this.length = to - from;
+		return this;
+	}
+
+	/**
+	 * Get the number of characters viewed.
+	 * @return The number of bytes viewed.
+	 */
+	@Override
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Get a character of the view.
+	 * @param index - The position of the character in the view.
+	 * @return The character, the byte at that position read as ASCII.
+	 * @throws IndexOutOfBoundsException - if the index is outside the view.
+	 */
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index " + index
+					+ " out of " + length);
+		}
+		return (char) (bytes[from + index] & 0xFF);
+	}
+
+	/**
+	 * Copy part of the view into a new String.
+	 * @param start - The position of the first character.
+	 * @param end - The position just past the last character.
+	 * @return The characters, as a String.
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("Range " + start + "-" + end
+					+ " out of " + length);
+		}
+		return new String(bytes, from + start, end - start,
+				StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Copy the view into a new String.
+	 * @return The characters viewed, as a String.
+	 */
+	@Override
+	public String toString() {
+		return new String(bytes, from, length, StandardCharsets.ISO_8859_1);
+	}
+}
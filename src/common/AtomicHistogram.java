@@ -0,0 +1,52 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class counts recorded values in the same buckets as Histogram, but may
+ * be recorded to by any number of threads at once without locking. Reading
+ * it takes a snapshot, which is a Histogram.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class AtomicHistogram {
+	/** The number of values recorded in each bucket. */
+	private final AtomicLongArray counts =
+			new AtomicLongArray(Histogram.BUCKETS);
+	/** The sum of the values recorded. */
+	private final LongAdder sum = new LongAdder();
+	/** The smallest value recorded. */
+	private final LongAccumulator min =
+			new LongAccumulator(Math::min, Long.MAX_VALUE);
+	/** The largest value recorded. */
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Record a single value.
+	 * @param value - The value to record; negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		counts.incrementAndGet(Histogram.index(value));
+		sum.add(value);
+		min.accumulate(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Take a copy of the values recorded so far. Values recorded while the
+	 * copy is taken may or may not be included.
+	 * @return The values recorded so far.
+	 */
+	public Histogram snapshot() {
+		long[] copy = new long[Histogram.BUCKETS];
+
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Histogram(copy, sum.sum(), min.get(), max.get());
+	}
+}
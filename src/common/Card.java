@@ -9,6 +9,9 @@ import java.io.Serializable;
  * @version October 2018
  */
 public class Card implements Serializable {
+	/** The implicit value of the original class, fixed so that clients
+	 * built before later changes still read serialized cards. */
+	private static final long serialVersionUID = 7619737017863610163L;
 	/** Name of the card */
 	private String cardName;
 	/** Card location in the input file */
@@ -17,6 +20,12 @@ public class Card implements Serializable {
 	private String mana;
 	/** Which type of card (Artifact, Creature, Land, Spell, Unknown) */
 	private Type type;
+	/**
+	 * How likely the card is to be drawn by a weighted draw, relative to
+	 * the other cards. Only known to the server: it is not sent to clients,
+	 * so a card read from the network has a weight of 0.
+	 */
+	private transient double weight;
 
 	/**
 	 * Create a single card for magic the gathering.
@@ -26,10 +35,24 @@ public class Card implements Serializable {
 	 * @param mana - energy required to use the card.
 	 */
 	public Card(short id, String cardName, Type type, String mana) {
+		this(id, cardName, type, mana, 1);
+	}
+
+	/**
+	 * Create a single card for magic the gathering.
+	 * @param id - unique identifier (currently location in input file)
+	 * @param name - name of the card.
+	 * @param type - Type of card.
+	 * @param mana - energy required to use the card.
+	 * @param weight - how likely the card is to be drawn by a weighted draw.
+	 */
+	public Card(short id, String cardName, Type type, String mana,
+			double weight) {
 		this.id = id;
 		this.cardName = cardName;
 		this.type = type;
 		this.mana = mana;
+		this.weight = weight;
 	}
 
 	/**
@@ -40,10 +63,24 @@ public class Card implements Serializable {
 	 * @param mana - energy required to use the card.
 	 */
 	public Card(short id, String name, String type, String mana) {
+		this(id, name, type, mana, 1);
+	}
+
+	/**
+	 * Create a single card for magic the gathering.
+	 * @param id - unique identifier (currently location in input file)
+	 * @param name - name of the card.
+	 * @param type - String version of Type of card.
+	 * @param mana - energy required to use the card.
+	 * @param weight - how likely the card is to be drawn by a weighted draw.
+	 */
+	public Card(short id, String name, String type, String mana,
+			double weight) {
 		this.id = id;
 		cardName = name;
 		assignType(type);
 		this.mana = mana;
+		this.weight = weight;
 	}
 
 	/**
@@ -52,24 +89,11 @@ public class Card implements Serializable {
 	 * 'Creature' in the string. Land cards contain 'Land' in the string.
 	 * Artifact cards contain 'Artifact' in the string. Spell cards contain 
 	 * 'Sorcery', 'Enchantment', or 'Instant' in the string.
-	 * All other cards are unknown.
+	 * All other cards are unknown. See TypeClassifier.
 	 * @param info - String representing the type.
 	 */
 	private final void assignType(String info) {
-		for (Type c : Type.values()) {
-			if (info.contains(c.toString())) {
-				type = c;
-			}
-		}
-		if (type == null) {
-			if (info.contains("Enchantment") ||
-					info.contains("Instant") || 
-					info.contains("Sorcery")) {
-				type = Type.SPELL;
-			} else {
-				type = Type.UNKNOWN;
-			}
-		}
+		type = TypeClassifier.classify(info);
 	}
 
 	/**
@@ -96,6 +120,22 @@ public class Card implements Serializable {
 		return type;
 	}
 
+	/**
+	 * Get the energy required to use a card.
+	 * @return The energy required to use a card.
+	 */
+	public String getMana() {
+		return mana;
+	}
+
+	/**
+	 * Get how likely a card is to be drawn by a weighted draw.
+	 * @return The weight of a card, relative to the other cards.
+	 */
+	public double getWeight() {
+		return weight;
+	}
+
 	/**
 	 * Change a card's type.
 	 * @param type - new type to assign to a card.
@@ -104,6 +144,25 @@ public class Card implements Serializable {
 		this.type = type;
 	}
 
+	/**
+	 * Two cards are equal if they have the same unique id.
+	 * @param other - The object to compare this card to.
+	 * @return true if the other object is a card with the same id.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Card && ((Card) other).id == id;
+	}
+
+	/**
+	 * Returns a hash code for a card, based on its unique id.
+	 * @return A hash code for a card.
+	 */
+	@Override
+	public int hashCode() {
+		return id;
+	}
+
 	/**
 	 * Returns a formatted string representation of a card.
 	 * @return A formatted string containing the cards name, type, and mana.
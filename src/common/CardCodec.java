@@ -0,0 +1,224 @@
+package common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class writes and reads cards in the compact binary format. A card is
+ * written as its id (2 bytes), the ordinal of its type (1 byte), then its
+ * name and its mana, each as a 2 byte length followed by UTF-8 bytes.
+ * A hand of cards starts with a header holding the format version
+ * (1 byte) and the number of cards that follow (4 bytes).
+ * @author Kevin Filanowski
+ * @author Donald Queen
+ * @version October, 2018
+ */
+public final class CardCodec {
+	/** The number of bytes in the header of a hand. */
+	public static final int HEADER_SIZE = 5;
+	/** The types of card, indexed by ordinal. */
+	private static final Type[] TYPES = Type.values();
+
+	/**
+	 * Private constructor, this class only holds static members.
+	 */
+	private CardCodec() {
+	}
+
+	/**
+	 * Write the header of a hand of cards.
+	 * @param count - The number of cards that follow the header.
+	 * @param out - The output to write to.
+	 * @throws IOException - if the header cannot be written.
+	 */
+	public static void writeHeader(int count, DataOutput out)
+			throws IOException {
+		out.writeByte(Protocol.VERSION);
+		out.writeInt(count);
+	}
+
+	/**
+	 * Read the header of a hand of cards.
+	 * @param in - The input to read from.
+	 * @return The number of cards that follow the header.
+	 * @throws IOException - if the header cannot be read, was written by
+	 * an unsupported version of the format, or gives a number of cards no
+	 * response may hold.
+	 */
+	public static int readHeader(DataInput in) throws IOException {
+		checkVersion(in.readUnsignedByte());
+		return checkCount(in.readInt());
+	}
+
+	/**
+	 * Check the number of cards given by the header of a hand, which is
+	 * read from the network and so cannot be trusted.
+	 * @param count - The number of cards given by the header.
+	 * @return The number of cards.
+	 * @throws IOException - if no response may hold that many cards.
+	 */
+	public static int checkCount(int count) throws IOException {
+		if (count < 0 || count > Protocol.MAX_CARDS) {
+			throw new IOException("Invalid card count " + count);
+		}
+		return count;
+	}
+
+	/**
+	 * Write a single card.
+	 * @param card - The card to write.
+	 * @param out - The output to write to.
+	 * @throws IOException - if the card cannot be written.
+	 */
+	public static void write(Card card, DataOutput out) throws IOException {
+		byte[] name = card.getName().getBytes(StandardCharsets.UTF_8);
+		byte[] mana = card.getMana().getBytes(StandardCharsets.UTF_8);
+
+		out.writeShort(card.getId());
+		out.writeByte(card.getType().ordinal());
+		out.writeShort(name.length);
+		out.write(name);
+		out.writeShort(mana.length);
+		out.write(mana);
+	}
+
+	/**
+	 * Read a single card.
+	 * @param in - The input to read from.
+	 * @return The card read.
+	 * @throws IOException - if the card cannot be read.
+	 */
+	public static Card read(DataInput in) throws IOException {
+		short id = in.readShort();
+		Type type = type(in.readUnsignedByte());
+		byte[] name = new byte[in.readUnsignedShort()];
+		in.readFully(name);
+		byte[] mana = new byte[in.readUnsignedShort()];
+		in.readFully(mana);
+
+		return new Card(id, new String(name, StandardCharsets.UTF_8), type,
+				new String(mana, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Write a single card into a buffer.
+	 * @param card - The card to write.
+	 * @param buffer - The buffer to write to.
+	 * @throws java.nio.BufferOverflowException - if the card does not fit.
+	 */
+	public static void encode(Card card, ByteBuffer buffer) {
+		byte[] name = card.getName().getBytes(StandardCharsets.UTF_8);
+		byte[] mana = card.getMana().getBytes(StandardCharsets.UTF_8);
+
+		buffer.putShort(card.getId());
+		buffer.put((byte) card.getType().ordinal());
+		buffer.putShort((short) name.length);
+		buffer.put(name);
+		buffer.putShort((short) mana.length);
+		buffer.put(mana);
+	}
+
+	/**
+	 * Read a single card from a buffer.
+	 * @param buffer - The buffer to read from.
+	 * @return The card read.
+	 * @throws IOException - if the buffer does not hold a whole card.
+	 */
+	public static Card decode(ByteBuffer buffer) throws IOException {
+		try {
+			short id = buffer.getShort();
+			Type type = type(buffer.get() & 0xFF);
+			String name = string(buffer);
+			String mana = string(buffer);
+
+			return new Card(id, name, type, mana);
+		} catch (BufferUnderflowException ex) {
+			throw new IOException("Truncated card");
+		}
+	}
+
+	/**
+	 * Determine how many bytes a card takes once written.
+	 * @param card - The card to measure.
+	 * @return The number of bytes the card takes.
+	 */
+	public static int length(Card card) {
+		return 7 + card.getName().getBytes(StandardCharsets.UTF_8).length
+				+ card.getMana().getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	/**
+	 * Determine how many bytes the card at the position of a buffer takes,
+	 * without reading it, so a reader which receives bytes a few at a time
+	 * can tell whether the whole card has arrived.
+	 * @param buffer - The buffer holding the start of a card.
+	 * @return The number of bytes the card takes, or -1 if the buffer does
+	 * not yet hold enough of it to tell.
+	 */
+	public static int length(ByteBuffer buffer) {
+		int start = buffer.position();
+		int mana;
+
+		if (buffer.remaining() < 5) {
+			return -1;
+		}
+		mana = start + 5 + (buffer.getShort(start + 3) & 0xFFFF);
+		if (buffer.limit() < mana + 2) {
+			return -1;
+		}
+		return mana + 2 + (buffer.getShort(mana) & 0xFFFF) - start;
+	}
+
+	/**
+	 * Ensure a version read from the network is the one this class writes.
+	 * @param version - The version read.
+	 * @throws IOException - if the version is not supported.
+	 */
+	public static void checkVersion(int version) throws IOException {
+		if (version != Protocol.VERSION) {
+			throw new IOException("Unsupported protocol version " + version);
+		}
+	}
+
+	/**
+	 * Read a length prefixed UTF-8 string from a buffer.
+	 * @param buffer - The buffer to read from.
+	 * @return The string read.
+	 */
+	private static String string(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xFFFF;
+		String result;
+
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		if (buffer.hasArray()) {
+			result = new String(buffer.array(),
+					buffer.arrayOffset() + buffer.position(), length,
+					StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			result = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return result;
+	}
+
+	/**
+	 * Find the type of card with the given ordinal.
+	 * @param ordinal - The ordinal of the type.
+	 * @return The type of card with the given ordinal.
+	 * @throws IOException - if no type has the given ordinal.
+	 */
+	private static Type type(int ordinal) throws IOException {
+		if (ordinal >= TYPES.length) {
+			throw new IOException("Unknown card type " + ordinal);
+		}
+		return TYPES[ordinal];
+	}
+}
@@ -0,0 +1,135 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class reads and writes the header of a batched UDP packet. A batched
+ * packet holds the format version (1 byte), the kind of packet (1 byte),
+ * the id of the response it belongs to (4 bytes), its sequence number
+ * within the response (2 bytes) and the number of cards that follow
+ * (2 bytes), then the cards written by CardCodec. Each response a server
+ * sends has a new id, greater than the last one until the ids wrap around,
+ * so that a client which asks again can tell the packets of the new
+ * response from late packets of the old one.
+ * The last packet of a reliable response is an END packet, whose sequence
+ * number is the number of DATA packets in the response, and which holds
+ * the number of cards in the response (4 bytes) instead of cards.
+ * @author Kevin Filanowski
+ * @author Donald Queen
+ * @version October, 2018
+ */
+public final class CardPacket {
+	/** The number of bytes in the header of a batched packet. */
+	public static final int HEADER_SIZE = 10;
+	/** The largest payload a UDP packet can carry. */
+	public static final int MAX_SIZE = 65507;
+	/** The kind of packet which holds cards. */
+	public static final int DATA = 1;
+	/** The kind of packet which ends a reliable response. */
+	public static final int END = 2;
+	/** The number of bytes in an END packet. */
+	public static final int END_SIZE = HEADER_SIZE + 4;
+
+	/** The kind of packet. */
+	private final int kind;
+	/** The id of the response the packet belongs to. */
+	private final int response;
+	/** The sequence number of the packet within its response. */
+	private final int sequence;
+	/** The number of cards in the packet. */
+	private final int count;
+
+	/**
+	 * Create the header of a batched packet.
+	 * @param kind - The kind of packet.
+	 * @param response - The id of the response.
+	 * @param sequence - The sequence number of the packet.
+	 * @param count - The number of cards in the packet.
+	 */
+	private CardPacket(int kind, int response, int sequence, int count) {
+		this.kind = kind;
+		this.response = response;
+		this.sequence = sequence;
+		this.count = count;
+	}
+
+	/**
+	 * Write the header of a batched packet at the start of a buffer,
+	 * without moving the position of the buffer.
+	 * @param payload - The buffer holding the packet.
+	 * @param kind - The kind of packet.
+	 * @param response - The id of the response.
+	 * @param sequence - The sequence number of the packet.
+	 * @param count - The number of cards in the packet.
+	 */
+	public static void writeHeader(ByteBuffer payload, int kind,
+			int response, int sequence, int count) {
+		payload.put(0, (byte) Protocol.VERSION);
+		payload.put(1, (byte) kind);
+		payload.putInt(2, response);
+		payload.putShort(6, (short) sequence);
+		payload.putShort(8, (short) count);
+	}
+
+	/**
+	 * Read the header at the position of a buffer, leaving the buffer
+	 * positioned at the first card.
+	 * @param payload - The buffer holding the packet.
+	 * @return The header of the packet.
+	 * @throws IOException - if the buffer does not hold a header of a
+	 * supported version.
+	 */
+	public static CardPacket readHeader(ByteBuffer payload)
+			throws IOException {
+		if (payload.remaining() < HEADER_SIZE) {
+			throw new IOException("Truncated packet");
+		}
+		CardCodec.checkVersion(payload.get() & 0xFF);
+		return new CardPacket(payload.get() & 0xFF, payload.getInt(),
+				payload.getShort() & 0xFFFF, payload.getShort() & 0xFFFF);
+	}
+
+	/**
+	 * Determine whether a response was sent after another, allowing for
+	 * the ids wrapping around.
+	 * @param response - The id of a response.
+	 * @param than - The id of the other response.
+	 * @return true if the response is the later one.
+	 */
+	public static boolean isNewer(int response, int than) {
+		return response - than > 0;
+	}
+
+	/**
+	 * Get the kind of packet.
+	 * @return The kind of packet.
+	 */
+	public int getKind() {
+		return kind;
+	}
+
+	/**
+	 * Get the id of the response the packet belongs to.
+	 * @return The id of the response.
+	 */
+	public int getResponse() {
+		return response;
+	}
+
+	/**
+	 * Get the sequence number of the packet within its response.
+	 * @return The sequence number of the packet.
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Get the number of cards in the packet.
+	 * @return The number of cards in the packet.
+	 */
+	public int getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,216 @@
+package common;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Class counts recorded values, such as latencies in nanoseconds, in
+ * buckets whose width grows with the value, in the manner of an HDR
+ * histogram: every value is kept to within 1 part in 128 of its true value,
+ * from 0 up to Long.MAX_VALUE, in a fixed amount of memory. Recording a
+ * value never allocates. A histogram is not safe for use by many threads
+ * at once; give each thread its own and add them together afterwards.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class Histogram {
+	/** The number of bits of each value kept exactly. */
+	private static final int SUB_BITS = 8;
+	/** The number of buckets of width 1, for the smallest values. */
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	/** The number of buckets for each further power of two. */
+	private static final int HALF_COUNT = SUB_COUNT / 2;
+	/** The number of buckets needed for every non-negative long. */
+	static final int BUCKETS =
+			SUB_COUNT + (Long.SIZE - SUB_BITS) * HALF_COUNT;
+	/** The percentiles printed by printPercentiles. */
+	private static final double[] PERCENTILES =
+			{ 50, 75, 90, 99, 99.9, 99.99, 100 };
+
+	/** The number of values recorded in each bucket. */
+	private final long[] counts = new long[BUCKETS];
+	/** The number of values recorded. */
+	private long count;
+	/** The sum of the values recorded. */
+	private long sum;
+	/** The smallest value recorded. */
+	private long min = Long.MAX_VALUE;
+	/** The largest value recorded. */
+	private long max;
+
+	/**
+	 * Create an empty histogram.
+	 */
+	public Histogram() {
+	}
+
+	/**
+	 * Create a histogram holding values already counted in buckets.
+	 * @param counts - The number of values in each bucket.
+	 * @param sum - The sum of the values.
+	 * @param min - The smallest value.
+	 * @param max - The largest value.
+	 */
+	Histogram(long[] counts, long sum, long min, long max) {
+		System.arraycopy(counts, 0, this.counts, 0, BUCKETS);
+		for (long n : counts) {
+			count += n;
+		}
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * Record a single value.
+	 * @param value - The value to record; negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		counts[index(value)]++;
+		count++;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Add every value recorded by another histogram to this one.
+	 * @param other - The histogram whose values to add.
+	 */
+	public void add(Histogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Forget every value recorded.
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	/**
+	 * Get the number of values recorded.
+	 * @return The number of values recorded.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the smallest value recorded.
+	 * @return The smallest value recorded, or 0 if none has been.
+	 */
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	/**
+	 * Get the largest value recorded.
+	 * @return The largest value recorded, or 0 if none has been.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Get the mean of the values recorded.
+	 * @return The mean of the values recorded, or 0 if none has been.
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * Get the value at or below which a given percentage of the recorded
+	 * values fall.
+	 * @param percentile - The percentage, from 0 to 100.
+	 * @return The highest value in the bucket holding that percentile, but
+	 * no more than the largest value recorded; 0 if nothing is recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		// The number of values at or below the percentile, at least one.
+		long wanted = Math.max(1,
+				(long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS && count > 0; i++) {
+			seen += counts[i];
+			if (seen >= wanted) {
+				return Math.min(highest(i), max);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Print the values at the usual percentiles, from the median to the
+	 * largest, on a single line.
+	 * @param out - The stream to print to.
+	 * @param unit - The size of the unit to print values in, such as
+	 * 1000000 to print nanoseconds as milliseconds.
+	 * @param name - What the values are, printed first.
+	 */
+	public void printPercentiles(PrintStream out, double unit, String name) {
+		StringBuilder line = new StringBuilder();
+
+		for (double percentile : PERCENTILES) {
+			line.append(String.format("  p%s %.3f",
+					percentile == 100 ? "max" : trim(percentile),
+					getValueAtPercentile(percentile) / unit));
+		}
+		out.println(String.format("%s (%d values, mean %.3f):",
+				name, count, getMean() / unit) + line);
+	}
+
+	/**
+	 * Format a percentile without a needless fraction, such as 50 or 99.9.
+	 * @param percentile - The percentile to format.
+	 * @return The percentile, formatted.
+	 */
+	private static String trim(double percentile) {
+		return percentile == Math.rint(percentile)
+				? Long.toString((long) percentile)
+				: Double.toString(percentile);
+	}
+
+	/**
+	 * Find the bucket a value is counted in.
+	 * @param value - A non-negative value.
+	 * @return The index of the bucket.
+	 */
+	static int index(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		// Keep the highest SUB_BITS bits of the value.
+		int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		int sub = (int) (value >>> shift);
+		return SUB_COUNT + (shift - 1) * HALF_COUNT + (sub - HALF_COUNT);
+	}
+
+	/**
+	 * Find the highest value counted in a bucket.
+	 * @param index - The index of the bucket.
+	 * @return The highest value counted in the bucket.
+	 */
+	private static long highest(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_COUNT) / HALF_COUNT + 1;
+		long sub = (index - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+}
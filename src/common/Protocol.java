@@ -0,0 +1,285 @@
+package common;
+
+/**
+ * Class holds the constants and helpers shared by magic clients and
+ * servers. A request is a single line of text: a flag such as -L or -CS,
+ * followed by any number of options, each starting with a '+'. In place of
+ * a flag, a request may give its composition: how many creatures (C),
+ * lands (L) and spells (S) to send, such as C=15,L=24,S=21. Apart from
+ * flag(), the helpers scan a request in place, without allocating, and
+ * take any CharSequence, so a server can read a request straight from the
+ * bytes received through an AsciiView.
+ * @author Kevin Filanowski
+ * @author Donald Queen
+ * @version October, 2018
+ */
+public final class Protocol {
+	/** The version of the binary format written by CardCodec. */
+	public static final int VERSION = 1;
+	/** The character every request option starts with. */
+	public static final char OPTION_PREFIX = '+';
+	/** The option asking a UDP server to pack many cards per packet. */
+	public static final String BATCH = "+BATCH";
+	/**
+	 * The option asking a TCP server to keep the connection open for
+	 * further requests once it has sent the response.
+	 */
+	public static final String KEEP_ALIVE = "+KEEP";
+	/**
+	 * The option asking a server to draw each card in proportion to its
+	 * weight, such as its rarity, rather than uniformly.
+	 */
+	public static final String WEIGHTED = "+WEIGHTED";
+	/**
+	 * The option asking for an exact number of cards, as +COUNT=N. It may
+	 * also be given in place of a flag, without the '+'.
+	 */
+	public static final String COUNT = "COUNT";
+	/** The largest number of cards of each type a request may ask for. */
+	public static final int MAX_COUNT = Short.MAX_VALUE;
+	/** The types of card a composition may give, in the order C, L, S. */
+	public static final String COMPOSITION_TYPES = "CLS";
+	/** The largest number of cards a response may hold: MAX_COUNT of each
+	 * type a composition may give. */
+	public static final int MAX_CARDS = COMPOSITION_TYPES.length()
+			* MAX_COUNT;
+	/** The option asking a UDP server to resend lost packets. */
+	public static final String RELIABLE = "+RELIABLE";
+	/**
+	 * Sent by a UDP client in place of a flag, followed by the id of a
+	 * reliable response and the sequence numbers of its packets the client
+	 * is missing.
+	 */
+	public static final String NACK = "+NACK";
+	/** Sent by a UDP client once it has every packet of a response,
+	 * followed by the id of the response. */
+	public static final String ACK = "+ACK";
+	/** The most bytes of a request a UDP server reads; the rest of a longer
+	 * datagram is lost. */
+	public static final int MAX_REQUEST = 1024;
+
+	/**
+	 * Private constructor, this class only holds static members.
+	 */
+	private Protocol() {
+	}
+
+	/**
+	 * Returns the flag of a request, which is its first word.
+	 * @param request - The request sent by a client.
+	 * @return The flag of the request, or an empty string if there is none.
+	 */
+	public static String flag(String request) {
+		String trimmed = request.trim();
+		int end = 0;
+
+		while (end < trimmed.length()
+				&& !Character.isWhitespace(trimmed.charAt(end))) {
+			end++;
+		}
+		return trimmed.substring(0, end);
+	}
+
+	/**
+	 * Determine if the flag of a request, its first word, is the given
+	 * flag. Flags are compared without regard to case.
+	 * @param request - The request sent by a client.
+	 * @param flag - The flag to look for, such as +NACK.
+	 * @return true if the request starts with the flag, false otherwise.
+	 */
+	public static boolean isFlag(CharSequence request, String flag) {
+		int start = skipSpace(request, 0);
+		int end = wordEnd(request, start);
+
+		return end - start == flag.length() && matches(request, start, flag);
+	}
+
+	/**
+	 * Determine if a request carries an option. Options are compared
+	 * without regard to case.
+	 * @param request - The request sent by a client.
+	 * @param option - The option to look for, such as +BIN.
+	 * @return true if the request carries the option, false otherwise.
+	 */
+	public static boolean hasOption(CharSequence request, String option) {
+		int i = skipSpace(request, 0);
+
+		while (i < request.length()) {
+			int end = wordEnd(request, i);
+			if (end - i == option.length() && matches(request, i, option)) {
+				return true;
+			}
+			i = skipSpace(request, end);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number given by a request for a named value, written as
+	 * a word NAME=N or +NAME=N. Names are compared without regard to case.
+	 * @param request - The request sent by a client.
+	 * @param name - The name of the value, such as COUNT.
+	 * @return The number, at most MAX_COUNT, or -1 if the request does not
+	 * give one.
+	 */
+	public static int intOption(CharSequence request, String name) {
+		int i = skipSpace(request, 0);
+
+		while (i < request.length()) {
+			int start = request.charAt(i) == OPTION_PREFIX ? i + 1 : i;
+			int end = wordEnd(request, i);
+			int equals = start + name.length();
+			if (equals < end && request.charAt(equals) == '='
+					&& matches(request, start, name)) {
+				return number(request, equals + 1, end);
+			}
+			i = skipSpace(request, end);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the number of cards of a single type given by the composition
+	 * of a request, such as 24 lands for C=15,L=24,S=21. A type may be
+	 * given more than once, and counts of the same type are added.
+	 * @param request - The request sent by a client.
+	 * @param type - The type of card, C, L or S.
+	 * @return The number of cards of the type, 0 if the composition does
+	 * not give the type, or -1 if the first word of the request is not a
+	 * composition.
+	 */
+	public static int composition(CharSequence request, char type) {
+		int i = skipSpace(request, 0);
+		int end = wordEnd(request, i);
+		int total = 0;
+
+		if (i == end) {
+			return -1;
+		}
+		while (i < end) {
+			char key = Character.toUpperCase(request.charAt(i));
+			if (i + 1 >= end || request.charAt(i + 1) != '='
+					|| COMPOSITION_TYPES.indexOf(key) < 0) {
+				return -1;
+			}
+			int stop = i + 2;
+			while (stop < end && request.charAt(stop) != ',') {
+				stop++;
+			}
+			int value = number(request, i + 2, stop);
+			if (value < 0) {
+				return -1;
+			}
+			if (key == Character.toUpperCase(type)) {
+				total = Math.min(MAX_COUNT, total + value);
+			}
+			i = stop + 1;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the id of the response a NACK or ACK refers to: the word
+	 * after the flag, the id written by CardPacket as an unsigned decimal
+	 * number.
+	 * @param request - The NACK or ACK sent by a client.
+	 * @return The id, from 0 to 2^32 - 1, or -1 if the request does not
+	 * give one.
+	 */
+	public static long responseId(CharSequence request) {
+		int start = skipSpace(request, wordEnd(request,
+				skipSpace(request, 0)));
+		int end = wordEnd(request, start);
+		long value = 0;
+
+		if (start == end || end - start > 10) {
+			return -1;
+		}
+		for (int i = start; i < end; i++) {
+			char c = request.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = 10 * value + (c - '0');
+		}
+		return value > 0xFFFFFFFFL ? -1 : value;
+	}
+
+	/**
+	 * Read a decimal number from part of a request.
+	 * @param request - The request sent by a client.
+	 * @param from - The index of the first digit.
+	 * @param to - The index just past the last digit.
+	 * @return The number, at most MAX_COUNT, or -1 if the part is empty or
+	 * not all digits.
+	 */
+	private static int number(CharSequence request, int from, int to) {
+		int value = 0;
+
+		if (from >= to) {
+			return -1;
+		}
+		for (int i = from; i < to; i++) {
+			char c = request.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = Math.min(MAX_COUNT, 10 * value + (c - '0'));
+		}
+		return value;
+	}
+
+	/**
+	 * Find the first character of a request at or after an index which is
+	 * not white space.
+	 * @param request - The request sent by a client.
+	 * @param from - The index to start at.
+	 * @return The index of the character, or the length of the request.
+	 */
+	private static int skipSpace(CharSequence request, int from) {
+		int i = from;
+
+		while (i < request.length() && request.charAt(i) <= ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Find the end of the word of a request starting at an index.
+	 * @param request - The request sent by a client.
+	 * @param from - The index of the first character of the word.
+	 * @return The index just past the last character of the word.
+	 */
+	private static int wordEnd(CharSequence request, int from) {
+		int i = from;
+
+		while (i < request.length() && request.charAt(i) > ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Determine if part of a request holds a word, without regard to case.
+	 * @param request - The request sent by a client.
+	 * @param from - The index in the request to compare from.
+	 * @param word - The word to compare with.
+	 * @return true if the characters from the index are the word.
+	 */
+	private static boolean matches(CharSequence request, int from,
+			String word) {
+		if (from + word.length() > request.length()) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			char a = request.charAt(from + i);
+			char b = word.charAt(i);
+			if (a != b
+					&& Character.toUpperCase(a) != Character.toUpperCase(b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
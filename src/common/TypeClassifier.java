@@ -0,0 +1,116 @@
+package common;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class decides the Type of a card from its type line, such as
+ * "Artifact Creature - Golem". The line is scanned once, looking at each
+ * position only for the keywords which start with the character there, and
+ * the set of keywords found is mapped to a Type by a table built in
+ * advance. A keyword counts wherever it appears, even inside a longer word.
+ * The name of a Type found in the line gives that Type, the last in the
+ * order of Type winning if there are several; otherwise a spell keyword
+ * ("Enchantment", "Instant" or "Sorcery") gives SPELL, and nothing gives
+ * UNKNOWN. Card sets repeat a few hundred type lines across many cards, so
+ * the Type of each distinct line is remembered, up to a limit. Safe for use
+ * by many threads at once.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public final class TypeClassifier {
+	/** The most distinct type lines remembered. */
+	private static final int MAX_REMEMBERED = 4096;
+	/** The keywords which make a card a spell, if no Type is named. */
+	private static final String[] SPELLS = { "Enchantment", "Instant",
+			"Sorcery" };
+	/** The types of card, indexed by ordinal. */
+	private static final Type[] TYPES = Type.values();
+	/** The keywords looked for, each the name of a Type, by ordinal, then
+	 * each spell keyword; a keyword's bit in a set is 1 << its index. */
+	private static final String[] KEYWORDS = new String[TYPES.length
+			+ SPELLS.length];
+	/** The indexes of the keywords starting with each ASCII character. */
+	private static final int[][] STARTING = new int[128][];
+	/** The Type of each set of keywords found. */
+	private static final Type[] BY_KEYWORDS = new Type[1 << KEYWORDS.length];
+	/** The Type of each distinct type line seen. */
+	private static final Map<String, Type> REMEMBERED =
+			new ConcurrentHashMap<>();
+
+	static {
+		for (Type type : TYPES) {
+			KEYWORDS[type.ordinal()] = type.toString();
+		}
+		System.arraycopy(SPELLS, 0, KEYWORDS, TYPES.length, SPELLS.length);
+		for (int c = 0; c < STARTING.length; c++) {
+			int count = 0;
+			int[] starting = new int[KEYWORDS.length];
+			for (int k = 0; k < KEYWORDS.length; k++) {
+				if (KEYWORDS[k].charAt(0) == c) {
+					starting[count++] = k;
+				}
+			}
+			STARTING[c] = Arrays.copyOf(starting, count);
+		}
+		int spells = ((1 << SPELLS.length) - 1) << TYPES.length;
+		for (int found = 0; found < BY_KEYWORDS.length; found++) {
+			int named = found & ((1 << TYPES.length) - 1);
+			if (named != 0) {
+				// The last Type named wins.
+				BY_KEYWORDS[found] = TYPES[31 - Integer.numberOfLeadingZeros(
+						named)];
+			} else if ((found & spells) != 0) {
+				BY_KEYWORDS[found] = Type.SPELL;
+			} else {
+				BY_KEYWORDS[found] = Type.UNKNOWN;
+			}
+		}
+	}
+
+	/**
+	 * Private constructor, this class only holds static members.
+	 */
+	private TypeClassifier() {
+	}
+
+	/**
+	 * Decide the Type of a card from its type line.
+	 * @param line - The type line of the card.
+	 * @return The Type of the card.
+	 */
+	public static Type classify(String line) {
+		Type type = REMEMBERED.get(line);
+
+		if (type == null) {
+			type = BY_KEYWORDS[keywords(line)];
+			if (REMEMBERED.size() < MAX_REMEMBERED) {
+				REMEMBERED.put(line, type);
+			}
+		}
+		return type;
+	}
+
+	/**
+	 * Find the keywords in a type line.
+	 * @param line - The type line.
+	 * @return The set of keywords found, one bit for each.
+	 */
+	private static int keywords(String line) {
+		int found = 0;
+
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c < STARTING.length) {
+				for (int k : STARTING[c]) {
+					if (line.startsWith(KEYWORDS[k], i)) {
+						found |= 1 << k;
+					}
+				}
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,45 @@
+package common;
+
+/**
+ * Enumeration class defines the formats in which a server can send cards
+ * to a client, these are: Java serialization, and the compact binary
+ * format written by CardCodec.
+ * @author Kevin Filanowski
+ * @author Donald Queen
+ * @version October, 2018
+ */
+public enum WireFormat {
+
+	SERIAL (null),
+	BINARY ("+BIN");
+
+	/** The option a client adds to its request to select the format. */
+	private final String option;
+
+	/**
+	 * Default Constructor for WireFormat enumeration.
+	 * @param option - The request option which selects the format, or null
+	 * if the format is used when no option is given.
+	 */
+	private WireFormat(String option) {
+		this.option = option;
+	}
+
+	/**
+	 * Returns the option a client adds to its request to select the format.
+	 * @return The request option, or null for the default format.
+	 */
+	public String getOption() {
+		return option;
+	}
+
+	/**
+	 * Determine which format a request asks for.
+	 * @param request - The request sent by a client, a flag followed by
+	 * any number of options.
+	 * @return The format the request asks for.
+	 */
+	public static WireFormat of(CharSequence request) {
+		return Protocol.hasOption(request, BINARY.option) ? BINARY : SERIAL;
+	}
+}
@@ -1,6 +1,10 @@
 package server;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import common.Protocol;
+import common.WireFormat;
 
 /**
  * An abstract class that contains fields and methods 
@@ -20,24 +24,48 @@ public abstract class AbstractMagicServer implements MagicServer {
 	public static final int DEFAULT_PORT = 5892;
 	/** The default number of items to send back. */
 	public static final int NUM_ITEMS = 20;
-	/** The default path to a csv file to make a card source */
+	/** The options a request may carry, in the order of their bits. */
+	private static final String[] OPTIONS = { WireFormat.BINARY.getOption(),
+			Protocol.BATCH, Protocol.RELIABLE, Protocol.KEEP_ALIVE,
+			Protocol.WEIGHTED };
+	/** The bit of the binary wire format option. */
+	private static final int BINARY_BIT =
+			optionBit(WireFormat.BINARY.getOption());
+	/** The bit of the batch option. */
+	private static final int BATCH_BIT = optionBit(Protocol.BATCH);
+	/** The bit of the reliable option. */
+	private static final int RELIABLE_BIT = optionBit(Protocol.RELIABLE);
+	/** The bit of the keep alive option. */
+	private static final int KEEP_ALIVE_BIT = optionBit(Protocol.KEEP_ALIVE);
+	/** The bit of the weighted option. */
+	private static final int WEIGHTED_BIT = optionBit(Protocol.WEIGHTED);
+	/** The default path to a csv file to make a card source, which is
+	 * read through a snapshot of its deck kept next to it. */
 	public static final String DEFAULT_FILE = "./cards.csv";
 	/** The port to which the server should 
 	 * listen for incoming connections. */
 	private int port;
 	/** The source of the character stream that the
-	 * server will send to the client. */
-	private CardSource source;
-	/** The number of items to send back before ending connection. */
+	 * server will send to the client. A request reads it once, so that it
+	 * draws from a single deck even if the source is changed meanwhile. */
+	private volatile CardSource source;
+	/** The minimum number of items to send back before ending connection. */
 	private int numItems;
+	/** The requests for the number of cards their flag gives, built for
+	 * the number of items to send when they were last needed. */
+	private volatile Requests requests;
+	/** Counts the requests served by this server. */
+	private final ServerMetrics metrics = new ServerMetrics();
+	/** The hands drawn ahead of requests, or null if none are. */
+	private volatile HandPool handPool;
 
 	/**
 	 * Initializes a new AbstractMagicServer using the
 	 * default port and the default source.
-	 * @throws FileNotFoundException - If the source file cannot be found.
+	 * @throws IOException - If the source file cannot be read.
 	 */
-	public AbstractMagicServer() throws FileNotFoundException {
-		this(new CardSource(DEFAULT_FILE));
+	public AbstractMagicServer() throws IOException {
+		this(new CardSource(DEFAULT_FILE, true));
 	}
 
 	/**
@@ -45,10 +73,10 @@ public abstract class AbstractMagicServer implements MagicServer {
 	 * specified port and the default source.
 	 * @param port - The port to which the server will bind and listen
 	 * for incoming connections.
-	 * @throws FileNotFoundException - If the source file cannot be found.
+	 * @throws IOException - If the source file cannot be read.
 	 */
-	public AbstractMagicServer(int port) throws FileNotFoundException {
-		this(port, new CardSource(DEFAULT_FILE), NUM_ITEMS);		
+	public AbstractMagicServer(int port) throws IOException {
+		this(port, new CardSource(DEFAULT_FILE, true), NUM_ITEMS);		
 	}
 
 	/**
@@ -105,8 +133,70 @@ public abstract class AbstractMagicServer implements MagicServer {
 		return source;
 	}
 
+	/**
+	 * Get the metrics which count the requests served by this server.
+	 * @return The metrics of this server.
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Start drawing hands ahead of requests, so that requests for the
+	 * number of cards their flag gives take a hand already drawn, and
+	 * encoded if the server sends whole hands as one response, instead of
+	 * drawing their own. Stops drawing the hands of any earlier pool.
+	 * @param capacity - The number of hands to hold at most for each kind
+	 * of request, or 0 to stop drawing hands ahead.
+	 */
+	public synchronized void poolHands(int capacity) {
+		HandPool old = handPool;
+
+		if (old != null) {
+			old.stop();
+		}
+		handPool = capacity > 0
+				? new HandPool(this, capacity, encodesHands()) : null;
+		if (handPool != null) {
+			handPool.start();
+		}
+	}
+
+	/**
+	 * Get the hands drawn ahead of requests.
+	 * @return The pool of hands, or null if hands are not drawn ahead.
+	 */
+	public HandPool getHandPool() {
+		return handPool;
+	}
+
+	/**
+	 * Determine whether the hands drawn ahead of requests should also be
+	 * encoded, as they are by servers which send a whole hand as a single
+	 * stream response.
+	 * @return true, unless overridden.
+	 */
+	protected boolean encodesHands() {
+		return true;
+	}
+
+	/**
+	 * Take a hand drawn ahead for a request, if hands are drawn ahead.
+	 * @param request - The request of a client.
+	 * @param source - The card source the request draws from.
+	 * @return A hand for the request, or null if the request must draw
+	 * its own.
+	 */
+	protected HandPool.Hand takeHand(CardRequest request,
+			CardSource source) {
+		HandPool pool = handPool;
+
+		return pool == null ? null : pool.take(request, source);
+	}
+
 	/**
 	 * Change which source is being used to generate characters for the server.
+	 * Requests already drawing from the old source finish on it.
 	 * @param source - a CardSource used to generate cards.
 	 */
 	protected void changeSource(CardSource source) {
@@ -114,7 +204,7 @@ public abstract class AbstractMagicServer implements MagicServer {
 	}
 
 	/**
-	 * Change how many items to send back to the client.
+	 * Change the minimum number of items to send back to the client.
 	 * This number cannot fall below the default of 20 items.
 	 * @param numItems - The number of items to send back to the client.
 	 */
@@ -123,9 +213,9 @@ public abstract class AbstractMagicServer implements MagicServer {
 	}
 
 	/**
-	 * Determine the current number of items we should be sending
+	 * Determine the minimum number of items we should be sending
 	 * back to the client.
-	 * @return The number of items to send back to the client.
+	 * @return The minimum number of items to send back to the client.
 	 */
 	protected int getItemsToSend() {
 		return numItems;
@@ -134,42 +224,165 @@ public abstract class AbstractMagicServer implements MagicServer {
 	/**
 	 * Determine the type (Spell, Creature, land, or some combination thereof)
 	 * as well as the number returned to the client. Three types of cards
-	 * returns 3 types 60 cards, 2 types 40, 1 type 20.
+	 * returns 3 types 60 cards, 2 types 40, 1 type 20. The flag may be
+	 * followed by options, such as the wire format to use. At least as many
+	 * items as this server is configured to send are sent back, unless the
+	 * request asks for an exact number with +COUNT=N, or gives the number
+	 * of each type in place of a flag, such as C=15,L=24,S=21. The request
+	 * is read in place and without regard to case, so it may be an
+	 * AsciiView of the bytes received. Requests for the number of cards
+	 * their flag gives are taken from a table built in advance, so that
+	 * decoding them allocates nothing; the others are built anew. Either
+	 * way the result cannot change, so concurrent requests share no state.
 	 * @param command - the flag data returned from the server.
+	 * @return The type and number of cards to send back to the client.
 	 */
-	protected void setCardsReturned(String command) {
-		switch (command.trim()) {
-	    	case "-L" :
-		    	source.setCardType(CardType.LAND);
-			    this.numItems = ONE_TYPE;
-			    break;
-		    case "-S" :
-			    source.setCardType(CardType.SPELL);
-			    this.numItems = ONE_TYPE;
-			    break;
-		    case "-C" :
-			    source.setCardType(CardType.CREATURE);
-			    this.numItems = ONE_TYPE;
-			    break;	
-	    	case "-LC" :
-	    	case "-CL" :
-	    		source.setCardType(CardType.LC);
-	    		this.numItems = TWO_TYPES;
-	    		break;
-	    	case "-SC" :
-	    	case "-CS" :
-	    		source.setCardType(CardType.CS);
-	    		this.numItems = TWO_TYPES;
-	    		break;
-	    	case "-LS" :
-	    	case "-SL" :
-		    	source.setCardType(CardType.LS);
-		    	this.numItems = TWO_TYPES;
-		    	break;
-	    	default:
-		    	source.setCardType(CardType.ALL);
-		    	this.numItems = THREE_TYPES;
-		    	break;
+	protected CardRequest setCardsReturned(CharSequence command) {
+		// The number of creatures given by a composition, if any.
+		int creatures = Protocol.composition(command, 'C');
+
+		if (creatures >= 0) {
+			return new CardRequest(creatures,
+					Protocol.composition(command, 'L'),
+					Protocol.composition(command, 'S'),
+					WireFormat.of(command),
+					Protocol.hasOption(command, Protocol.BATCH),
+					Protocol.hasOption(command, Protocol.RELIABLE),
+					Protocol.hasOption(command, Protocol.KEEP_ALIVE),
+					Protocol.hasOption(command, Protocol.WEIGHTED));
+		}
+		CardType type = flagType(command);
+		// The exact number of cards asked for, if any.
+		int exact = Protocol.intOption(command, Protocol.COUNT);
+		// The options of the request, one bit each, in the order of OPTIONS.
+		int options = 0;
+		for (int i = 0; i < OPTIONS.length; i++) {
+			if (Protocol.hasOption(command, OPTIONS[i])) {
+				options |= 1 << i;
+			}
+		}
+		if (exact >= 0) {
+			return request(type, exact, options);
+		}
+
+		return requests().requests[type.ordinal() << OPTIONS.length | options];
+	}
+
+	/**
+	 * Get the request for the number of cards a flag gives, which hands
+	 * drawn ahead of requests are drawn for.
+	 * @param type - The types of card asked for.
+	 * @param weighted - Whether cards are drawn in proportion to weight.
+	 * @param format - The wire format asked for.
+	 * @return The request, with no other option.
+	 */
+	CardRequest pooledRequest(CardType type, boolean weighted,
+			WireFormat format) {
+		int options = (format == WireFormat.BINARY ? BINARY_BIT : 0)
+				| (weighted ? WEIGHTED_BIT : 0);
+
+		return requests().requests[type.ordinal() << OPTIONS.length | options];
+	}
+
+	/**
+	 * Get the requests for the number of cards their flag gives, built
+	 * again if the number of items to send has changed.
+	 * @return The requests.
+	 */
+	private Requests requests() {
+		Requests table = requests;
+
+		if (table == null || table.items != numItems) {
+			table = new Requests(numItems);
+			requests = table;
+		}
+		return table;
+	}
+
+	/**
+	 * Find the types of card asked for by the flag of a request: a '-'
+	 * followed by each of C, L and S asked for, once, in any order. Any
+	 * other flag asks for every type.
+	 * @param command - The request sent by a client.
+	 * @return The types of card asked for.
+	 */
+	private static CardType flagType(CharSequence command) {
+		int i = 0;
+		// The types named, one bit each, in the order C, L, S.
+		int named = 0;
+
+		while (i < command.length() && command.charAt(i) <= ' ') {
+			i++;
+		}
+		if (i == command.length() || command.charAt(i++) != '-') {
+			return CardType.ALL;
+		}
+		for (; i < command.length() && command.charAt(i) > ' '; i++) {
+			int index = Protocol.COMPOSITION_TYPES.indexOf(
+					Character.toUpperCase(command.charAt(i)));
+			if (index < 0 || (named & 1 << index) != 0) {
+				return CardType.ALL;
+			}
+			named |= 1 << index;
+		}
+		return CardType.of((named & 1) != 0, (named & 2) != 0,
+				(named & 4) != 0);
+	}
+
+	/**
+	 * Build a request for a number of cards of some types.
+	 * @param type - The types of card asked for.
+	 * @param count - The number of cards asked for.
+	 * @param options - The options of the request, one bit each, in the
+	 * order of OPTIONS.
+	 * @return The request.
+	 */
+	private static CardRequest request(CardType type, int count,
+			int options) {
+		return new CardRequest(type, count, (options & BINARY_BIT) != 0
+				? WireFormat.BINARY : WireFormat.SERIAL,
+				(options & BATCH_BIT) != 0, (options & RELIABLE_BIT) != 0,
+				(options & KEEP_ALIVE_BIT) != 0, (options & WEIGHTED_BIT) != 0);
+	}
+
+	/**
+	 * Find the bit of an option in the options of a request.
+	 * @param option - One of OPTIONS.
+	 * @return The bit of the option, by its index in OPTIONS.
+	 */
+	private static int optionBit(String option) {
+		return 1 << Arrays.asList(OPTIONS).indexOf(option);
+	}
+
+	/**
+	 * The requests for the number of cards their flag gives, for every
+	 * type and set of options, built for a number of items to send.
+	 */
+	private static class Requests {
+		/** The least number of items the requests send. */
+		private final int items;
+		/** The requests, by type ordinal and then options. */
+		private final CardRequest[] requests;
+
+		/**
+		 * Build the requests.
+		 * @param items - The least number of items to send.
+		 */
+		private Requests(int items) {
+			CardType[] types = CardType.values();
+
+			this.items = items;
+			this.requests = new CardRequest[types.length << OPTIONS.length];
+			for (CardType type : types) {
+				int count = type == CardType.ALL ? THREE_TYPES
+						: type == CardType.LAND || type == CardType.SPELL
+						|| type == CardType.CREATURE ? ONE_TYPE : TWO_TYPES;
+				for (int options = 0; options < 1 << OPTIONS.length;
+						options++) {
+					requests[type.ordinal() << OPTIONS.length | options] =
+							request(type, Math.max(count, items), options);
+				}
+			}
 		}
 	}
 
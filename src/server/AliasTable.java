@@ -0,0 +1,120 @@
+package server;
+
+import java.util.Random;
+
+/**
+ * Class draws indexes at random, each with a probability in proportion to
+ * its weight, in constant time: Vose's version of Walker's alias method.
+ * The range of indexes is split into columns of equal probability, each
+ * holding its own index with some probability and one other index, its
+ * alias, with the rest. A draw picks a column and then one of its two
+ * indexes. Building the table takes time in proportion to the number of
+ * weights. The table cannot change once built, so one instance can be
+ * shared by any number of threads.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class AliasTable {
+	/** The probability that each column draws its own index. */
+	private final double[] probabilities;
+	/** The other index of each column. */
+	private final int[] aliases;
+	/** The number of indexes with a positive weight. */
+	private final int positive;
+
+	/**
+	 * Build the table of a list of weights. Indexes with a weight of 0 are
+	 * never drawn, unless every weight is 0, in which case every index is
+	 * drawn with the same probability.
+	 * @param weights - The weight of each index, none negative.
+	 */
+	public AliasTable(double[] weights) {
+		int n = weights.length;
+		double total = 0;
+		int count = 0;
+
+		for (double weight : weights) {
+			total += weight;
+			count += weight > 0 ? 1 : 0;
+		}
+		positive = count;
+		probabilities = new double[n];
+		aliases = new int[n];
+
+		// The weight of each column, scaled so that the mean is 1.
+		double[] scaled = new double[n];
+		// Columns under and over the mean, used as stacks.
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smalls = 0;
+		int larges = 0;
+		for (int i = 0; i < n; i++) {
+			scaled[i] = total > 0 ? weights[i] * n / total : 1;
+			if (scaled[i] < 1) {
+				small[smalls++] = i;
+			} else {
+				large[larges++] = i;
+			}
+		}
+		// Fill each small column up to the mean from a large one.
+		while (smalls > 0 && larges > 0) {
+			int less = small[--smalls];
+			int more = large[--larges];
+			probabilities[less] = scaled[less];
+			aliases[less] = more;
+			scaled[more] = scaled[more] + scaled[less] - 1;
+			if (scaled[more] < 1) {
+				small[smalls++] = more;
+			} else {
+				large[larges++] = more;
+			}
+		}
+		// What remains is full, give or take rounding.
+		while (larges > 0) {
+			probabilities[large[--larges]] = 1;
+		}
+		while (smalls > 0) {
+			probabilities[small[--smalls]] = 1;
+		}
+	}
+
+	/**
+	 * Get the number of indexes of the table.
+	 * @return The number of indexes.
+	 */
+	public int size() {
+		return aliases.length;
+	}
+
+	/**
+	 * Get the number of indexes which can be drawn with a weight.
+	 * @return The number of indexes with a positive weight, or every index
+	 * if every weight is 0.
+	 */
+	public int drawable() {
+		return positive > 0 ? positive : aliases.length;
+	}
+
+	/**
+	 * Determine whether any index has a positive weight.
+	 * @return false if every index is drawn with the same probability
+	 * because every weight is 0.
+	 */
+	public boolean hasWeights() {
+		return positive > 0;
+	}
+
+	/**
+	 * Draw an index at random, in proportion to its weight.
+	 * @param generator - The random number generator to use.
+	 * @return The index drawn.
+	 * @throws IllegalArgumentException - if the table is empty.
+	 */
+	public int next(Random generator) {
+		int column = generator.nextInt(aliases.length);
+
+		return generator.nextDouble() < probabilities[column]
+				? column : aliases[column];
+	}
+}
@@ -0,0 +1,394 @@
+package server;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import common.Card;
+
+/**
+ * Class reads the cards of a deck from a .csv file. The file is mapped
+ * into memory and each row parsed straight from its bytes by a small state
+ * machine, without splitting lines into strings first. A row holds the id,
+ * name, type line and mana of a card, and optionally its weight for
+ * weighted draws: a number, or a rarity (common, uncommon, rare or mythic)
+ * weighted by how many cards of that rarity a booster pack holds. Cards
+ * without a weight weigh 1. The id is read as Short.parseShort reads it,
+ * so it may be negative; ids are not checked to be distinct here, but a
+ * CardSource refuses a deck whose cards share one. A field may be quoted,
+ * so that it can hold commas, with a doubled quote standing for a quote.
+ * Large files are split into chunks at line boundaries which are parsed
+ * in parallel, so a newline inside a quoted field is only allowed in small
+ * files.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public final class CardLoader {
+	/** Files smaller than this many bytes are parsed by a single thread. */
+	private static final int PARALLEL_SIZE = 1 << 20;
+	/** The number of fields of a row: id, name, type line, mana and
+	 * weight. */
+	private static final int FIELDS = 5;
+	/** The number of fields a row must have: id, name and type line. */
+	private static final int REQUIRED_FIELDS = 3;
+	/** The rarities a weight may be given as. */
+	private static final String[] RARITIES = { "common", "uncommon", "rare",
+			"mythic" };
+	/** The weight of each rarity: how many cards of it a booster pack of
+	 * 10 commons, 3 uncommons and a rare or, one time in 8, a mythic
+	 * rare holds. */
+	private static final double[] RARITY_WEIGHTS = { 10, 3, 0.875, 0.125 };
+
+	/**
+	 * Private constructor, this class only holds static members.
+	 */
+	private CardLoader() {
+	}
+
+	/**
+	 * Read the cards of a .csv file, parsing large files with one thread
+	 * for each processor.
+	 * @param filename - The name of the file to read.
+	 * @return The cards of the file, in order.
+	 * @throws IOException - if the file cannot be read, or holds a row
+	 * which is not a card.
+	 */
+	public static List<Card> load(String filename) throws IOException {
+		return load(filename, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Read the cards of a .csv file.
+	 * @param filename - The name of the file to read.
+	 * @param chunks - The number of chunks to parse in parallel, if the
+	 * file is large enough to be worth it.
+	 * @return The cards of the file, in order.
+	 * @throws IOException - if the file cannot be read, or holds a row
+	 * which is not a card.
+	 */
+	public static List<Card> load(String filename, int chunks)
+			throws IOException {
+		return load(filename, chunks, ArrayList<Card>::new, List::add)
+				.stream().flatMap(List::stream)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Read the cards of a .csv file into sinks, one for each chunk of the
+	 * file, without keeping a list of the cards. Each card is handed to
+	 * the sink of its chunk as soon as its row is parsed, so only the card
+	 * being handed over need exist as an object. The sinks of chunks
+	 * parsed in parallel are filled by different threads.
+	 * @param <S> - The type of sink.
+	 * @param filename - The name of the file to read.
+	 * @param chunks - The number of chunks to parse in parallel, if the
+	 * file is large enough to be worth it.
+	 * @param sinks - Makes an empty sink for each chunk.
+	 * @param add - Hands a card to a sink.
+	 * @return The sinks of the chunks, in the order of the chunks.
+	 * @throws IOException - if the file cannot be read, or holds a row
+	 * which is not a card.
+	 */
+	public static <S> List<S> load(String filename, int chunks,
+			Supplier<S> sinks, BiConsumer<S, Card> add) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+				FileChannel channel = file.getChannel()) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(filename + " is too large to map");
+			}
+			ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, size);
+			int[] bounds = boundaries(bytes,
+					size < PARALLEL_SIZE ? 1 : Math.max(1, chunks));
+			if (bounds.length == 2) {
+				S sink = sinks.get();
+				new Parser(bytes, filename).parse(0, bounds[1],
+						card -> add.accept(sink, card));
+				return Collections.singletonList(sink);
+			}
+			try {
+				return IntStream.range(0, bounds.length - 1).parallel()
+						.mapToObj(i -> parse(bytes, filename, bounds[i],
+								bounds[i + 1], sinks, add))
+						.collect(Collectors.toList());
+			} catch (UncheckedIOException ex) {
+				throw ex.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Parse a single chunk of a file, for a parallel stream.
+	 * @param <S> - The type of sink.
+	 * @param bytes - The bytes of the file.
+	 * @param filename - The name of the file, for error messages.
+	 * @param start - The index of the first byte of the chunk.
+	 * @param end - The index just past the last byte of the chunk.
+	 * @param sinks - Makes the sink of the chunk.
+	 * @param add - Hands a card to a sink.
+	 * @return The sink holding the cards of the chunk.
+	 * @throws UncheckedIOException - if a row is not a card.
+	 */
+	private static <S> S parse(ByteBuffer bytes, String filename,
+			int start, int end, Supplier<S> sinks, BiConsumer<S, Card> add) {
+		S sink = sinks.get();
+
+		try {
+			new Parser(bytes.duplicate(), filename).parse(start, end,
+					card -> add.accept(sink, card));
+			return sink;
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Split a file into chunks of about the same size, each starting at
+	 * the beginning of a line.
+	 * @param bytes - The bytes of the file.
+	 * @param chunks - The number of chunks wanted.
+	 * @return The index of the first byte of each chunk, followed by the
+	 * size of the file. Fewer chunks than wanted are returned if lines are
+	 * too long to make them all.
+	 */
+	private static int[] boundaries(ByteBuffer bytes, int chunks) {
+		int size = bytes.limit();
+		int[] bounds = new int[chunks + 1];
+		int count = 1;
+
+		for (int k = 1; k < chunks; k++) {
+			int at = Math.max(bounds[count - 1],
+					(int) ((long) size * k / chunks));
+			while (at < size && bytes.get(at++) != '\n') {
+				// Skip to the start of the next line.
+			}
+			if (at > bounds[count - 1] && at < size) {
+				bounds[count++] = at;
+			}
+		}
+		bounds[count++] = size;
+		return Arrays.copyOf(bounds, count);
+	}
+
+	/**
+	 * The state of parsing a single chunk of a file.
+	 */
+	private static class Parser {
+		/** Not in a field, or in a field which is not quoted. */
+		private static final int PLAIN = 0;
+		/** In a quoted field. */
+		private static final int QUOTED = 1;
+		/** Just after a quote in a quoted field. */
+		private static final int QUOTE = 2;
+		/** The id of a row whose id is not a short. */
+		private static final int NO_ID = Integer.MIN_VALUE;
+
+		/** The bytes of the file. */
+		private final ByteBuffer bytes;
+		/** The name of the file, for error messages. */
+		private final String filename;
+		/** The bytes of the field being parsed. */
+		private byte[] field = new byte[64];
+		/** The number of bytes in the field being parsed. */
+		private int length;
+		/** The fields of the row being parsed, except the id. */
+		private final String[] fields = new String[FIELDS];
+		/** The id of the row being parsed, or NO_ID if it is not a short. */
+		private int id;
+		/** The number of fields of the row being parsed. */
+		private int count;
+
+		/**
+		 * Create a parser of a file.
+		 * @param bytes - The bytes of the file.
+		 * @param filename - The name of the file, for error messages.
+		 */
+		private Parser(ByteBuffer bytes, String filename) {
+			this.bytes = bytes;
+			this.filename = filename;
+		}
+
+		/**
+		 * Parse every row of a chunk of the file.
+		 * @param start - The index of the first byte of the chunk.
+		 * @param end - The index just past the last byte of the chunk.
+		 * @param cards - Takes each card of the chunk, in order.
+		 * @throws IOException - if a row is not a card.
+		 */
+		private void parse(int start, int end, Consumer<Card> cards)
+				throws IOException {
+			int state = PLAIN;
+			// The index of the first byte of the row being parsed.
+			int row = start;
+
+			for (int i = start; i < end; i++) {
+				byte b = bytes.get(i);
+				if (state == QUOTE) {
+					// A doubled quote stands for a quote; anything else
+					// follows the end of the quoted part of the field.
+					state = b == '"' ? QUOTED : PLAIN;
+					if (state == QUOTED) {
+						append(b);
+						continue;
+					}
+				}
+				if (state == QUOTED) {
+					if (b == '"') {
+						state = QUOTE;
+					} else {
+						append(b);
+					}
+				} else if (b == ',') {
+					endField();
+					state = PLAIN;
+				} else if (b == '\n') {
+					// Blank lines are skipped.
+					if (length > 0 || count > 0) {
+						endField();
+						addCard(cards, row);
+					}
+					row = i + 1;
+					state = PLAIN;
+				} else if (b == '"' && state == PLAIN && length == 0) {
+					state = QUOTED;
+				} else if (b != '\r') {
+					append(b);
+				}
+			}
+			if (length > 0 || count > 0) {
+				endField();
+				addCard(cards, row);
+			}
+		}
+
+		/**
+		 * Add a byte to the field being parsed.
+		 * @param b - The byte to add.
+		 */
+		private void append(byte b) {
+			if (length == field.length) {
+				field = Arrays.copyOf(field, 2 * length);
+			}
+			field[length++] = b;
+		}
+
+		/**
+		 * End the field being parsed. Fields past the weight are ignored.
+		 */
+		private void endField() {
+			if (count == 0) {
+				id = parseId();
+			} else if (count < FIELDS) {
+				fields[count] = new String(field, 0, length,
+						StandardCharsets.UTF_8);
+			}
+			count++;
+			length = 0;
+		}
+
+		/**
+		 * Parse the id of a card from the bytes of the field being parsed,
+		 * ignoring spaces around it, as Short.parseShort does: decimal
+		 * digits after an optional sign.
+		 * @return The id, or NO_ID if the field is not a number which fits
+		 * in a short.
+		 */
+		private int parseId() {
+			int from = 0;
+			int to = length;
+			int value = 0;
+			boolean negative = false;
+
+			while (from < to && field[from] == ' ') {
+				from++;
+			}
+			while (to > from && field[to - 1] == ' ') {
+				to--;
+			}
+			if (from < to && (field[from] == '-' || field[from] == '+')) {
+				negative = field[from++] == '-';
+			}
+			if (from == to) {
+				return NO_ID;
+			}
+			for (int i = from; i < to; i++) {
+				if (field[i] < '0' || field[i] > '9') {
+					return NO_ID;
+				}
+				value = 10 * value + (field[i] - '0');
+				if (value > -Short.MIN_VALUE) {
+					return NO_ID;
+				}
+			}
+			value = negative ? -value : value;
+			return value > Short.MAX_VALUE ? NO_ID : value;
+		}
+
+		/**
+		 * End the row being parsed, handing its card over.
+		 * @param cards - Takes the card.
+		 * @param row - The index of the first byte of the row.
+		 * @throws IOException - if the row is not a card.
+		 */
+		private void addCard(Consumer<Card> cards, int row) throws IOException {
+			if (count < REQUIRED_FIELDS || id == NO_ID) {
+				throw malformed(row);
+			}
+			double weight = count >= FIELDS ? parseWeight(fields[4]) : 1;
+			if (!(weight >= 0) || Double.isInfinite(weight)) {
+				throw malformed(row);
+			}
+			cards.accept(new Card((short) id, fields[1], fields[2],
+					count > REQUIRED_FIELDS ? fields[3] : "", weight));
+			count = 0;
+		}
+
+		/**
+		 * Parse the weight of a card, a number or a rarity.
+		 * @param field - The weight field of the row.
+		 * @return The weight, 1 if the field is blank, or NaN if the field
+		 * is neither a number nor a rarity.
+		 */
+		private double parseWeight(String field) {
+			String weight = field.trim();
+
+			if (weight.isEmpty()) {
+				return 1;
+			}
+			for (int i = 0; i < RARITIES.length; i++) {
+				if (RARITIES[i].equalsIgnoreCase(weight)) {
+					return RARITY_WEIGHTS[i];
+				}
+			}
+			try {
+				return Double.parseDouble(weight);
+			} catch (NumberFormatException ex) {
+				return Double.NaN;
+			}
+		}
+
+		/**
+		 * Describe a row which is not a card.
+		 * @param row - The index of the first byte of the row.
+		 * @return The exception to throw.
+		 */
+		private IOException malformed(int row) {
+			return new IOException("Malformed card at byte " + row + " of "
+					+ filename);
+		}
+	}
+}
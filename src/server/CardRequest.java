@@ -0,0 +1,190 @@
+package server;
+
+import common.WireFormat;
+
+/**
+ * Immutable description of a single client request: which types of cards
+ * to send back and how many. A request may also fix how many cards of
+ * each single type to send, its composition, such as 15 creatures and 24
+ * lands. The requests for the number of cards their flag gives are
+ * built once, in a table shared by every connection, and the others are
+ * built for each request; either way a request cannot change, so
+ * concurrent connections may share it safely.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class CardRequest {
+	/** The types of cards the client asked for. */
+	private final CardType type;
+	/** The number of cards to send back to the client. */
+	private final int count;
+	/** The format in which to send the cards. */
+	private final WireFormat format;
+	/** Whether to pack many cards into each UDP packet. */
+	private final boolean batched;
+	/** Whether to hold UDP packets so that lost ones can be sent again. */
+	private final boolean reliable;
+	/** Whether to keep the TCP connection open for further requests. */
+	private final boolean keepAlive;
+	/** Whether to draw cards in proportion to their weights. */
+	private final boolean weighted;
+	/** The number of creatures to send back, or -1 if the request has no
+	 * composition. */
+	private final int creatures;
+	/** The number of lands to send back, if the request has a composition. */
+	private final int lands;
+	/** The number of spells to send back, if the request has a
+	 * composition. */
+	private final int spells;
+
+	/**
+	 * Create a new request for the given type and number of cards.
+	 * Reliable requests are always batched. Batched requests, and requests
+	 * which keep the connection open, are always sent in the binary format,
+	 * since it tells the client how many cards each response holds.
+	 * @param type - The types of cards to send back.
+	 * @param count - The number of cards to send back.
+	 * @param format - The format in which to send the cards.
+	 * @param batched - Whether to pack many cards into each UDP packet.
+	 * @param reliable - Whether to hold UDP packets so that lost ones can
+	 * be sent again.
+	 * @param keepAlive - Whether to keep the TCP connection open for
+	 * further requests.
+	 * @param weighted - Whether to draw cards in proportion to their
+	 * weights.
+	 */
+	public CardRequest(CardType type, int count, WireFormat format,
+			boolean batched, boolean reliable, boolean keepAlive,
+			boolean weighted) {
+		this.type = type;
+		this.count = count;
+		this.batched = batched || reliable;
+		this.format = this.batched || keepAlive ? WireFormat.BINARY : format;
+		this.reliable = reliable;
+		this.keepAlive = keepAlive;
+		this.weighted = weighted;
+		this.creatures = -1;
+		this.lands = 0;
+		this.spells = 0;
+	}
+
+	/**
+	 * Create a new request for the given number of cards of each single
+	 * type. Reliable requests are always batched. Batched requests, and
+	 * requests which keep the connection open, are always sent in the
+	 * binary format.
+	 * @param creatures - The number of creatures to send back.
+	 * @param lands - The number of lands to send back.
+	 * @param spells - The number of spells to send back.
+	 * @param format - The format in which to send the cards.
+	 * @param batched - Whether to pack many cards into each UDP packet.
+	 * @param reliable - Whether to hold UDP packets so that lost ones can
+	 * be sent again.
+	 * @param keepAlive - Whether to keep the TCP connection open for
+	 * further requests.
+	 * @param weighted - Whether to draw cards in proportion to their
+	 * weights.
+	 */
+	public CardRequest(int creatures, int lands, int spells,
+			WireFormat format, boolean batched, boolean reliable,
+			boolean keepAlive, boolean weighted) {
+		this.type = CardType.of(creatures > 0, lands > 0, spells > 0);
+		this.count = creatures + lands + spells;
+		this.batched = batched || reliable;
+		this.format = this.batched || keepAlive ? WireFormat.BINARY : format;
+		this.reliable = reliable;
+		this.keepAlive = keepAlive;
+		this.weighted = weighted;
+		this.creatures = creatures;
+		this.lands = lands;
+		this.spells = spells;
+	}
+
+	/**
+	 * Get the types of cards the client asked for.
+	 * @return The types of cards the client asked for.
+	 */
+	public CardType getType() {
+		return type;
+	}
+
+	/**
+	 * Get the number of cards to send back to the client.
+	 * @return The number of cards to send back to the client.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the format in which to send the cards.
+	 * @return The format in which to send the cards.
+	 */
+	public WireFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Determine if many cards should be packed into each UDP packet.
+	 * @return true if many cards should be packed into each UDP packet.
+	 */
+	public boolean isBatched() {
+		return batched;
+	}
+
+	/**
+	 * Determine if UDP packets should be held so that lost ones
+	 * can be sent again.
+	 * @return true if the response should be sent reliably.
+	 */
+	public boolean isReliable() {
+		return reliable;
+	}
+
+	/**
+	 * Determine if the TCP connection should be kept open for further
+	 * requests once the response has been sent.
+	 * @return true if the connection should be kept open.
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Determine if cards should be drawn in proportion to their weights.
+	 * @return true if the draw is weighted.
+	 */
+	public boolean isWeighted() {
+		return weighted;
+	}
+
+	/**
+	 * Determine if the request fixes how many cards of each single type
+	 * to send back.
+	 * @return true if the request has a composition.
+	 */
+	public boolean isComposed() {
+		return creatures >= 0;
+	}
+
+	/**
+	 * Get the number of cards of a single type to send back, for a request
+	 * with a composition.
+	 * @param single - The type of card: CREATURE, LAND or SPELL.
+	 * @return The number of cards of the type to send back, or 0 if the
+	 * request has no composition or the type is not one of the three.
+	 */
+	public int getCount(CardType single) {
+		switch (single) {
+			case CREATURE :
+				return Math.max(0, creatures);
+			case LAND :
+				return lands;
+			case SPELL :
+				return spells;
+			default :
+				return 0;
+		}
+	}
+}
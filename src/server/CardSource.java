@@ -1,72 +1,322 @@
 package server;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Random;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import common.Card;
 import common.Type;
 
 /**
  * Class that defines the type of cards that can be returned
- * for a deck in Magic the Gathering.
+ * for a deck in Magic the Gathering. The deck cannot change once it has
+ * been read, and the type of card wanted is passed with every draw, so a
+ * single CardSource can serve any number of requests at once.
+ * When the deck is read it is split into one pool of cards per CardType,
+ * so drawing a card takes a single random number whatever the type asked.
+ * Draws may also be weighted, each card being drawn in proportion to its
+ * weight, using an AliasTable built for each pool when the deck is read.
+ * The deck may be kept as a ColumnarDeck instead of as Card objects, which
+ * takes a fraction of the memory, but builds a new Card for each drawn.
  * @author Kevin Filanowski
  * @author Donny Queen
  * @version October 2018
  */
 public class CardSource {
+	/** The single types of card a request's composition may give. */
+	private static final CardType[] SINGLE_TYPES = { CardType.CREATURE,
+			CardType.LAND, CardType.SPELL };
+
 	/** Holds the cards */
-	private ArrayList<Card> deck;
-	/** Scan in data from the input file */
-	private Scanner fileIn;
-	/** Used to randomly choose cards */
-	private Random generator;
-	/** The types of cards we can return */
-	private CardType type;
+	private final List<Card> deck;
+	/** Holds the cards of the deck as objects, or null if it is columnar. */
+	private final Card[] cards;
+	/** Holds the indexes in the deck of the cards allowed by each
+	 * CardType, indexed by ordinal. */
+	private final int[][] pools;
+	/** Holds every card already encoded in each wire format. */
+	private final EncodedCards encoded;
+	/**
+	 * For each thread, a permutation of the indexes of every pool. Drawing
+	 * shuffles the front of a permutation, which leaves it a permutation,
+	 * so it can be reused by the next draw without being reset.
+	 */
+	private final ThreadLocal<int[][]> permutations;
+	/** Holds the alias table of the weights of the cards of each pool,
+	 * indexed by CardType ordinal. */
+	private final AliasTable[] tables;
+	/** For each thread, the marks of the pool positions already drawn by
+	 * its weighted draws. */
+	private final ThreadLocal<Marks> marks;
 
 	/**
 	 * Create a new CardSource object to store and choose cards to
 	 * send back to client.
 	 * @param filename - The name of the file to read in cards.
-	 * @throws FileNotFoundException - if the input file cannot be found.
+	 * @throws IOException - if the input file cannot be read.
+	 */
+	public CardSource(String filename) throws IOException {
+		this(filename, false);
+	}
+
+	/**
+	 * Create a new CardSource object to store and choose cards to
+	 * send back to client, optionally keeping a snapshot of the deck next
+	 * to the input file. An up to date snapshot is read instead of the
+	 * file; otherwise the file is read and the snapshot written again.
+	 * @param filename - The name of the file to read in cards.
+	 * @param snapshot - Whether to read and write a snapshot of the deck.
+	 * @throws IOException - if the input file cannot be read.
 	 */
-	public CardSource(String filename) throws FileNotFoundException {
-		deck = new ArrayList<Card>();
-		generator = new Random();
-		fileIn = new Scanner(new File(filename));
-		type = CardType.ALL;
-		initDeck();
+	public CardSource(String filename, boolean snapshot) throws IOException {
+		this(filename, snapshot, false);
+	}
+
+	/**
+	 * Create a new CardSource object to store and choose cards to
+	 * send back to client, optionally keeping a snapshot of the deck next
+	 * to the input file, and optionally holding the deck in columns.
+	 * @param filename - The name of the file to read in cards.
+	 * @param snapshot - Whether to read and write a snapshot of the deck.
+	 * @param columnar - Whether to hold the deck as a ColumnarDeck.
+	 * @throws IOException - if the input file cannot be read, or two of
+	 * its cards share an id.
+	 */
+	public CardSource(String filename, boolean snapshot, boolean columnar)
+			throws IOException {
+		if (columnar) {
+			deck = snapshot ? initColumnarFromSnapshot(filename)
+					: initColumnar(filename);
+			cards = null;
+		} else {
+			List<Card> read = snapshot
+					? initDeckFromSnapshot(filename) : initDeck(filename);
+			deck = Collections.unmodifiableList(read);
+			cards = read.toArray(new Card[read.size()]);
+		}
+		checkIds(deck, filename);
+		pools = initPools(deck);
+		encoded = new EncodedCards(deck);
+		permutations = ThreadLocal.withInitial(this::initPermutations);
+		tables = initTables();
+		marks = ThreadLocal.withInitial(() -> new Marks(
+				pools[CardType.ALL.ordinal()].length));
 	}
 
 	/**
 	 * Read in the cards from the input file and place them in the deck.
+	 * @param filename - The name of the file to read in cards.
+	 * @return The cards read from the file.
+	 * @throws IOException - if the input file cannot be read.
 	 */
-	private final void initDeck() {
-		// Holds each column in the .csv file of one row.
-		String[] line;
-		// Holds a single card.
-		Card card;
+	private static ArrayList<Card> initDeck(String filename)
+			throws IOException {
+		// Holds the cards read so far.
+		ArrayList<Card> cards = new ArrayList<Card>();
 
 		// Populate the deck with cards.
-		while (fileIn.hasNextLine()) {
-			line = fileIn.nextLine().split(",");
-			card = new Card(Short.parseShort(line[0]),
-					line[1], line[2], line[3]);
-			if (valid(card)) {
-				deck.add(card);
+		for (Card card : CardLoader.load(filename)) {
+			if (valid(card, CardType.ALL)) {
+				cards.add(card);
 			}
 		}
+		return cards;
 	}
 
 	/**
-	 * Change the type of card allowed to be sent back to the client.
-	 * Allowed types are specified by @see CardType
-	 * @param type - Type of card allowed to be sent via the network.
+	 * Read in the cards from the snapshot of the input file, if it is up to
+	 * date, or else from the input file, writing a new snapshot of them.
+	 * A snapshot which cannot be written only costs the next start time.
+	 * @param filename - The name of the file to read in cards.
+	 * @return The cards of the deck.
+	 * @throws IOException - if the input file cannot be read.
+	 */
+	private static List<Card> initDeckFromSnapshot(String filename)
+			throws IOException {
+		List<Card> cards = DeckSnapshot.read(filename);
+
+		if (cards == null) {
+			File file = new File(filename);
+			// Taken before the file is read, so a change meanwhile leaves
+			// the snapshot stale.
+			long length = file.length();
+			long modified = file.lastModified();
+			cards = initDeck(filename);
+			try {
+				DeckSnapshot.write(filename, cards, length, modified);
+			} catch (IOException ex) {
+				System.err.println("Snapshot not written: " + ex.getMessage());
+			}
+		}
+		return cards;
+	}
+
+	/**
+	 * Read in the cards from the input file straight into the columns of a
+	 * deck, without a list of them. Each chunk of the file is parsed into
+	 * a builder of its own, and the builders joined in order.
+	 * @param filename - The name of the file to read in cards.
+	 * @return The deck.
+	 * @throws IOException - if the input file cannot be read.
+	 */
+	private static ColumnarDeck initColumnar(String filename)
+			throws IOException {
+		List<ColumnarDeck.Builder> chunks = CardLoader.load(filename,
+				Runtime.getRuntime().availableProcessors(),
+				ColumnarDeck.Builder::new, (builder, card) -> {
+					if (valid(card, CardType.ALL)) {
+						builder.add(card);
+					}
+				});
+		ColumnarDeck.Builder first = chunks.get(0);
+
+		for (int i = 1; i < chunks.size(); i++) {
+			first.addAll(chunks.get(i));
+			// Let the joined chunk be collected.
+			chunks.set(i, null);
+		}
+		return first.build();
+	}
+
+	/**
+	 * Read in the cards from the snapshot of the input file straight into
+	 * the columns of a deck, if it is up to date, or else from the input
+	 * file, writing a new snapshot from the columns.
+	 * @param filename - The name of the file to read in cards.
+	 * @return The deck.
+	 * @throws IOException - if the input file cannot be read.
+	 */
+	private static ColumnarDeck initColumnarFromSnapshot(String filename)
+			throws IOException {
+		ColumnarDeck deck = DeckSnapshot.readColumnar(filename);
+
+		if (deck == null) {
+			File file = new File(filename);
+			// Taken before the file is read, so a change meanwhile leaves
+			// the snapshot stale.
+			long length = file.length();
+			long modified = file.lastModified();
+			deck = initColumnar(filename);
+			try {
+				DeckSnapshot.write(filename, deck, length, modified);
+			} catch (IOException ex) {
+				System.err.println("Snapshot not written: " + ex.getMessage());
+			}
+		}
+		return deck;
+	}
+
+	/**
+	 * Make sure no two cards of a deck share an id. A card is known by its
+	 * id, so cards sharing one would be taken for each other: they would be
+	 * equal, and would be sent with the encoding of the last of them.
+	 * @param cards - The cards of the deck.
+	 * @param filename - The name of the file the cards were read from.
+	 * @throws IOException - if two cards share an id.
+	 */
+	private static void checkIds(List<Card> cards, String filename)
+			throws IOException {
+		// The ids seen so far, read as unsigned.
+		BitSet seen = new BitSet(1 << Short.SIZE);
+
+		for (int i = 0; i < cards.size(); i++) {
+			// Read without building columnar cards.
+			short id = cards instanceof ColumnarDeck
+					? ((ColumnarDeck) cards).id(i) : cards.get(i).getId();
+			if (seen.get(id & 0xFFFF)) {
+				throw new IOException("Duplicate card id " + id + " in "
+						+ filename);
+			}
+			seen.set(id & 0xFFFF);
+		}
+	}
+
+	/**
+	 * Split the deck into one pool of cards for each CardType.
+	 * @param cards - The cards in the deck.
+	 * @return The indexes of the cards allowed by each CardType, indexed
+	 * by ordinal.
+	 */
+	private static int[][] initPools(List<Card> cards) {
+		// Holds the type of each card, read without building columnar cards.
+		Type[] types = new Type[cards.size()];
+		// Holds the indexes of the cards allowed by each CardType.
+		int[][] result = new int[CardType.values().length][];
+
+		for (int i = 0; i < types.length; i++) {
+			types[i] = cards instanceof ColumnarDeck
+					? ((ColumnarDeck) cards).type(i) : cards.get(i).getType();
+		}
+		for (CardType type : CardType.values()) {
+			int[] pool = new int[types.length];
+			int size = 0;
+			for (int i = 0; i < types.length; i++) {
+				if (type.includes(types[i])) {
+					pool[size++] = i;
+				}
+			}
+			result[type.ordinal()] = Arrays.copyOf(pool, size);
+		}
+		return result;
+	}
+
+	/**
+	 * Determine whether the deck is held as a ColumnarDeck.
+	 * @return true if the deck is columnar, false if it is Card objects.
+	 */
+	public boolean isColumnar() {
+		return cards == null;
+	}
+
+	/**
+	 * Get a card of the deck, building it if the deck is columnar.
+	 * @param index - The position of the card in the deck.
+	 * @return The card.
+	 */
+	private Card card(int index) {
+		return cards != null ? cards[index] : deck.get(index);
+	}
+
+	/**
+	 * Get the weight of a card of the deck, without building it.
+	 * @param index - The position of the card in the deck.
+	 * @return The weight of the card.
+	 */
+	private double weight(int index) {
+		return cards != null ? cards[index].getWeight()
+				: ((ColumnarDeck) deck).weight(index);
+	}
+
+	/**
+	 * Build the alias table of the weights of the cards of every pool.
+	 * @return The alias table of every pool, indexed by CardType ordinal.
 	 */
-	protected void setCardType(CardType type) {
-		this.type = type;
+	private AliasTable[] initTables() {
+		// Holds the alias table of each pool.
+		AliasTable[] result = new AliasTable[pools.length];
+
+		for (int p = 0; p < pools.length; p++) {
+			double[] weights = new double[pools[p].length];
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] = weight(pools[p][i]);
+			}
+			result[p] = new AliasTable(weights);
+		}
+		return result;
+	}
+
+	/**
+	 * Get every card of the deck already encoded in each wire format.
+	 * @return The encoded cards of the deck.
+	 */
+	public EncodedCards getEncoded() {
+		return encoded;
 	}
 
 	/**
@@ -79,54 +329,397 @@ public class CardSource {
 	}
 
 	/**
-	 * Gets a randomly chosen card to return to the client.
-	 * @return a randomly chosen card to return to the client.
+	 * Build the identity permutation of the indexes of every pool.
+	 * @return The indexes of every pool, indexed by CardType ordinal.
 	 */
-	public Card next() {
-		// The card to return to the client.
-		Card result = null;
+	private int[][] initPermutations() {
+		// Holds the indexes of each pool.
+		int[][] result = new int[pools.length][];
 
-		// Return the card type that the client requests.
-		while(!valid(result)) {
-			result = deck.get(generator.nextInt(deck.size()));            
+		for (int p = 0; p < pools.length; p++) {
+			result[p] = new int[pools[p].length];
+			for (int i = 0; i < result[p].length; i++) {
+				result[p][i] = i;
+			}
 		}
 		return result;
 	}
 
+	/**
+	 * Determine how many distinct cards of the given type can be drawn by
+	 * weighted draws: those with a positive weight, or all of them if none
+	 * has one.
+	 * @param type - Type of card allowed to be sent via the network.
+	 * @return The number of cards of the given type which can be drawn.
+	 */
+	public int drawable(CardType type) {
+		return tables[type.ordinal()].drawable();
+	}
+
+	/**
+	 * Determine how many distinct cards of the given type can be drawn.
+	 * @param type - Type of card allowed to be sent via the network.
+	 * @return The number of cards of the given type in the deck.
+	 */
+	public int size(CardType type) {
+		return pools[type.ordinal()].length;
+	}
+
+	/**
+	 * Gets a randomly chosen card of the given type to return to the client.
+	 * Each thread draws from its own random number generator.
+	 * @param type - Type of card allowed to be sent via the network.
+	 * @return a randomly chosen card to return to the client.
+	 * @throws NoSuchElementException - if the deck has no card of the type.
+	 */
+	public Card next(CardType type) {
+		return next(type, false);
+	}
+
+	/**
+	 * Gets a randomly chosen card of the given type to return to the client,
+	 * optionally in proportion to its weight, which takes constant time.
+	 * @param type - Type of card allowed to be sent via the network.
+	 * @param weighted - Whether to choose cards in proportion to weight.
+	 * @return a randomly chosen card to return to the client.
+	 * @throws NoSuchElementException - if the deck has no card of the type.
+	 */
+	public Card next(CardType type, boolean weighted) {
+		// The indexes of the cards the client may receive.
+		int[] pool = pools[type.ordinal()];
+		// Used to randomly choose cards, owned by the calling thread.
+		ThreadLocalRandom generator = ThreadLocalRandom.current();
+
+		if (pool.length == 0) {
+			throw new NoSuchElementException("No cards of type " + type);
+		}
+		return card(pool[weighted ? tables[type.ordinal()].next(generator)
+				: generator.nextInt(pool.length)]);
+	}
+
+	/**
+	 * Draws a hand of distinct, randomly chosen cards of the given type.
+	 * If the deck holds fewer cards of the type than asked for, the hand
+	 * holds every card of the type instead.
+	 * @param type - Type of card allowed to be sent via the network.
+	 * @param count - The number of cards to draw.
+	 * @return The cards drawn, with no card appearing twice.
+	 */
+	public Card[] draw(CardType type, int count) {
+		return draw(type, count, false);
+	}
+
+	/**
+	 * Draws a hand of distinct, randomly chosen cards of the given type,
+	 * optionally in proportion to their weights. If the deck holds fewer
+	 * cards of the type than asked for, or fewer which can be drawn by a
+	 * weighted draw, the hand holds every such card instead.
+	 * @param type - Type of card allowed to be sent via the network.
+	 * @param count - The number of cards to draw.
+	 * @param weighted - Whether to draw cards in proportion to weight.
+	 * @return The cards drawn, with no card appearing twice.
+	 */
+	public Card[] draw(CardType type, int count, boolean weighted) {
+		// The hand to return to the client.
+		Card[] hand = new Card[Math.min(count,
+				weighted ? drawable(type) : size(type))];
+
+		draw(type, hand, hand.length, weighted);
+		return hand;
+	}
+
+	/**
+	 * Draws distinct, randomly chosen cards of the given type into the
+	 * front of the given array. Uses a partial Fisher-Yates shuffle of the
+	 * calling thread's permutation of the pool, so it takes time in
+	 * proportion to the count and allocates nothing, unless the deck is
+	 * columnar and each card drawn must be built.
+	 * @param type - Type of card allowed to be sent via the network.
+	 * @param hand - The array to fill with the cards drawn.
+	 * @param count - The number of cards to draw.
+	 * @return The number of cards drawn, which is less than count if the
+	 * deck or the array holds fewer cards.
+	 */
+	public int draw(CardType type, Card[] hand, int count) {
+		return draw(type, hand, count, false);
+	}
+
+	/**
+	 * Draws distinct, randomly chosen cards of the given type into the
+	 * front of the given array, optionally in proportion to their weights.
+	 * @param type - Type of card allowed to be sent via the network.
+	 * @param hand - The array to fill with the cards drawn.
+	 * @param count - The number of cards to draw.
+	 * @param weighted - Whether to draw cards in proportion to weight.
+	 * @return The number of cards drawn, which is less than count if the
+	 * deck or the array holds fewer cards.
+	 */
+	public int draw(CardType type, Card[] hand, int count, boolean weighted) {
+		return weighted ? drawWeighted(type, hand, 0, count)
+				: drawUniform(type, hand, 0, count);
+	}
+
+	/**
+	 * Determine how many cards a request receives: the number asked for,
+	 * or of each type asked for, unless the deck holds fewer.
+	 * @param request - The request of a client.
+	 * @return The number of cards the request receives.
+	 */
+	public int size(CardRequest request) {
+		int size = 0;
+
+		if (!request.isComposed()) {
+			return Math.min(request.getCount(),
+					request.isWeighted() ? drawable(request.getType())
+							: size(request.getType()));
+		}
+		for (CardType single : SINGLE_TYPES) {
+			size += Math.min(request.getCount(single), request.isWeighted()
+					? drawable(single) : size(single));
+		}
+		return size;
+	}
+
+	/**
+	 * Draws the hand a request asks for: the number of cards of its type,
+	 * or for a request with a composition, the number of each single type,
+	 * creatures first, then lands, then spells.
+	 * @param request - The request of a client.
+	 * @return The cards drawn, with no card appearing twice.
+	 */
+	public Card[] draw(CardRequest request) {
+		// The hand to return to the client.
+		Card[] hand = new Card[size(request)];
+
+		draw(request, hand);
+		return hand;
+	}
+
+	/**
+	 * Draws the hand a request asks for into the front of the given array,
+	 * one pool after another for a request with a composition.
+	 * @param request - The request of a client.
+	 * @param hand - The array to fill with the cards drawn.
+	 * @return The number of cards drawn, which is less than asked for if
+	 * the deck or the array holds fewer cards.
+	 */
+	public int draw(CardRequest request, Card[] hand) {
+		// The number of cards drawn so far.
+		int drawn = 0;
+
+		if (!request.isComposed()) {
+			return draw(request.getType(), hand, request.getCount(),
+					request.isWeighted());
+		}
+		for (CardType single : SINGLE_TYPES) {
+			drawn += request.isWeighted()
+					? drawWeighted(single, hand, drawn,
+							request.getCount(single))
+					: drawUniform(single, hand, drawn,
+							request.getCount(single));
+		}
+		return drawn;
+	}
+
+	/**
+	 * Draws distinct cards of the given type uniformly at random into the
+	 * given array, from the given position on.
+	 * @param type - Type of card allowed to be sent via the network.
+	 * @param hand - The array to fill with the cards drawn.
+	 * @param from - The position of the first card drawn in the array.
+	 * @param count - The number of cards to draw.
+	 * @return The number of cards drawn.
+	 */
+	private int drawUniform(CardType type, Card[] hand, int from,
+			int count) {
+		// The indexes of the cards the client may receive.
+		int[] pool = pools[type.ordinal()];
+		// The calling thread's permutation of the pool.
+		int[] order = permutations.get()[type.ordinal()];
+		// Used to randomly choose cards, owned by the calling thread.
+		ThreadLocalRandom generator = ThreadLocalRandom.current();
+		// The number of cards to draw.
+		int drawn = Math.min(count, Math.min(pool.length, hand.length - from));
+
+		for (int i = 0; i < drawn; i++) {
+			int j = i + generator.nextInt(order.length - i);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+			hand[from + i] = card(pool[order[i]]);
+		}
+		return drawn;
+	}
+
+	/**
+	 * Draws distinct cards of the given type in proportion to their weights,
+	 * each draw being in proportion to the weights of the cards not yet
+	 * drawn. Each card is drawn from the pool's alias table in constant
+	 * time, drawing again if it was already drawn. Should that happen too
+	 * often, because a few cards hold most of the weight, the rest of the
+	 * hand is drawn in a single pass over the pool instead, by giving each
+	 * card left a random key weighted by its weight and taking the largest.
+	 * @param type - Type of card allowed to be sent via the network.
+	 * @param hand - The array to fill with the cards drawn.
+	 * @param from - The position of the first card drawn in the array.
+	 * @param count - The number of cards to draw.
+	 * @return The number of cards drawn.
+	 */
+	private int drawWeighted(CardType type, Card[] hand, int from,
+			int count) {
+		// The indexes of the cards the client may receive.
+		int[] pool = pools[type.ordinal()];
+		// The weights of the cards of the pool.
+		AliasTable table = tables[type.ordinal()];
+		// Used to randomly choose cards, owned by the calling thread.
+		ThreadLocalRandom generator = ThreadLocalRandom.current();
+		// The calling thread's marks of the positions drawn.
+		Marks drawn = marks.get();
+		int mark = drawn.next();
+		// The number of cards to draw.
+		int wanted = Math.min(count,
+				Math.min(table.drawable(), hand.length - from));
+		// The number of draws allowed before giving up on the alias table.
+		int tries = 4 * wanted + 16;
+		int size = 0;
+
+		while (size < wanted && tries-- > 0) {
+			int j = table.next(generator);
+			if (drawn.marks[j] != mark) {
+				drawn.marks[j] = mark;
+				hand[from + size++] = card(pool[j]);
+			}
+		}
+		if (size < wanted) {
+			// The positions left with the largest random keys, kept in a
+			// heap whose root is the smallest of them.
+			int k = wanted - size;
+			drawn.reserve(k);
+			int n = 0;
+			for (int j = 0; j < pool.length; j++) {
+				double weight = table.hasWeights() ? weight(pool[j]) : 1;
+				if (drawn.marks[j] != mark && weight > 0) {
+					double key = Math.log(1 - generator.nextDouble()) / weight;
+					if (n < k) {
+						drawn.push(n++, key, j);
+					} else if (key > drawn.keys[0]) {
+						drawn.replaceRoot(n, key, j);
+					}
+				}
+			}
+			// Take the smallest key first, filling the hand from its end,
+			// so the hand is in the order of the keys, largest first.
+			size += n;
+			for (int last = size - 1; n > 0; last--) {
+				hand[from + last] = card(pool[drawn.positions[0]]);
+				n--;
+				drawn.replaceRoot(n, drawn.keys[n], drawn.positions[n]);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * The positions of a pool drawn by the weighted draw of a single thread.
+	 * Each draw uses a new mark, so that the marks need never be cleared.
+	 * Also holds the heap of random keys of a draw which gave up on the
+	 * alias table, kept for the next draw so that no draw allocates.
+	 */
+	private static class Marks {
+		/** The mark of the last draw of each position. */
+		private final int[] marks;
+		/** The mark of the current draw. */
+		private int mark;
+		/** The keys of the heap, the smallest at the root. */
+		private double[] keys = new double[0];
+		/** The pool position of each key of the heap. */
+		private int[] positions = new int[0];
+
+		/**
+		 * Create the marks of a pool.
+		 * @param size - The number of positions of the largest pool.
+		 */
+		private Marks(int size) {
+			marks = new int[size];
+		}
+
+		/**
+		 * Start a new draw.
+		 * @return The mark of the new draw.
+		 */
+		private int next() {
+			if (++mark == 0) {
+				Arrays.fill(marks, 0);
+				mark = 1;
+			}
+			return mark;
+		}
+
+		/**
+		 * Make sure the heap can hold a number of keys.
+		 * @param size - The number of keys.
+		 */
+		private void reserve(int size) {
+			if (keys.length < size) {
+				keys = new double[size];
+				positions = new int[size];
+			}
+		}
+
+		/**
+		 * Add a key to the heap.
+		 * @param size - The number of keys of the heap before this one.
+		 * @param key - The key to add.
+		 * @param position - The pool position of the key.
+		 */
+		private void push(int size, double key, int position) {
+			int i = size;
+
+			while (i > 0 && keys[(i - 1) / 2] > key) {
+				keys[i] = keys[(i - 1) / 2];
+				positions[i] = positions[(i - 1) / 2];
+				i = (i - 1) / 2;
+			}
+			keys[i] = key;
+			positions[i] = position;
+		}
+
+		/**
+		 * Replace the smallest key of the heap.
+		 * @param size - The number of keys of the heap.
+		 * @param key - The key to put in its place.
+		 * @param position - The pool position of the key.
+		 */
+		private void replaceRoot(int size, double key, int position) {
+			int i = 0;
+
+			while (2 * i + 1 < size) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && keys[child + 1] < keys[child]) {
+					child++;
+				}
+				if (keys[child] >= key) {
+					break;
+				}
+				keys[i] = keys[child];
+				positions[i] = positions[child];
+				i = child;
+			}
+			if (size > 0) {
+				keys[i] = key;
+				positions[i] = position;
+			}
+		}
+	}
+
 	/**
 	 * Determine if a card is suitable for returning to the client. A card
-	 * is suitable if it is one of the type specified by the setCardType.
+	 * is suitable if it is one of the specified type.
 	 * @param card  - card to test for validity.
+	 * @param type - Type of card allowed to be sent via the network.
 	 * @return true if the card is suitable, false otherwise.
 	 */
-	private boolean valid(Card card) {
-		// If the card is null, it is not valid!
-		if (card == null)
-			return false;
-
-		switch(this.type){
-		case CREATURE:
-			if (card.getType() == Type.CREATURE) { return true; } break;
-		case LAND:
-			if (card.getType() == Type.LAND) 	 { return true; } break;
-		case SPELL:
-			if (card.getType() == Type.SPELL) 	 { return true; } break;
-			
-		case CS: 
-			if (card.getType() == Type.CREATURE
-			|| card.getType() == Type.SPELL) 	 { return true; } break;
-		case LC:
-			if (card.getType() == Type.LAND 
-			|| card.getType() == Type.CREATURE)  { return true; } break;
-		case LS:
-			if (card.getType() == Type.LAND 
-			|| card.getType() == Type.SPELL) 	 { return true; } break;
-		case ALL:
-			if(card.getType() != Type.UNKNOWN
-			&& card.getType() != Type.ARTIFACT)  { return true; } break;
-		default: return false;
-		}
-		// If the card's type is unknown:
-		return false;
+	private static boolean valid(Card card, CardType type) {
+		return card != null && type.includes(card.getType());
 	}
 }
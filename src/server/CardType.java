@@ -2,18 +2,72 @@ package server;
 
 import java.io.Serializable;
 
+import common.Type;
+
 /**
- * Simple Enumeration for Card Types
+ * Simple Enumeration for Card Types. Each card type lists the
+ * card Types that it allows to be sent back to the client.
  * @author Kevin Filanowski
  * @author Donny Queen
  * @version October 2018
  */
 public enum CardType implements Serializable, Comparable<CardType>{
-	ALL(),
-	CREATURE(),
-	CS(),
-	LAND(),
-	LC(),
-	LS(),
-	SPELL();
+	ALL(Type.CREATURE, Type.LAND, Type.SPELL),
+	CREATURE(Type.CREATURE),
+	CS(Type.CREATURE, Type.SPELL),
+	LAND(Type.LAND),
+	LC(Type.LAND, Type.CREATURE),
+	LS(Type.LAND, Type.SPELL),
+	SPELL(Type.SPELL);
+
+	/** The card Types allowed by this card type. */
+	private final Type[] types;
+
+	/**
+	 * Default Constructor for CardType enumeration.
+	 * @param types - The card Types allowed by this card type.
+	 */
+	private CardType(Type... types) {
+		this.types = types;
+	}
+
+	/**
+	 * Find the card type allowing exactly the given single types.
+	 * @param creature - Whether creatures are allowed.
+	 * @param land - Whether lands are allowed.
+	 * @param spell - Whether spells are allowed.
+	 * @return The card type allowing those types, or ALL if all three or
+	 * none are allowed.
+	 */
+	public static CardType of(boolean creature, boolean land,
+			boolean spell) {
+		if (creature && land && !spell) {
+			return LC;
+		} else if (creature && spell && !land) {
+			return CS;
+		} else if (land && spell && !creature) {
+			return LS;
+		} else if (creature && !land && !spell) {
+			return CREATURE;
+		} else if (land && !creature && !spell) {
+			return LAND;
+		} else if (spell && !creature && !land) {
+			return SPELL;
+		}
+		return ALL;
+	}
+
+	/**
+	 * Determine if a card Type is allowed by this card type.
+	 * @param type - The card Type to test.
+	 * @return true if the card Type is allowed, false otherwise.
+	 */
+	public boolean includes(Type type) {
+		for (Type t : types) {
+			if (t == type) {
+				return true;
+			}
+		}
+		return false;
+	}
 }
@@ -0,0 +1,266 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import common.Card;
+import common.Type;
+
+/**
+ * Class holds the cards of a deck as columns of primitives rather than as
+ * Card objects: an array of ids, an array of type ordinals, an array of
+ * weights, and for the name and mana of each card the index of a string
+ * kept in a single pool of UTF-8 bytes. Each distinct name or mana is kept
+ * once in the pool, at an offset from which the next distinct string gives
+ * its length. A card takes about 15 bytes plus its share of the pool,
+ * against well over 100 bytes as an object with two strings of its own. A
+ * Card is only built when get() is called, so callers which keep it should
+ * not call get() again. The deck cannot change once built, so it can be
+ * shared by any number of threads.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class ColumnarDeck extends AbstractList<Card> implements RandomAccess {
+	/** The types of card, indexed by ordinal. */
+	private static final Type[] TYPES = Type.values();
+
+	/** The id of each card. */
+	private final short[] ids;
+	/** The type ordinal of each card. */
+	private final byte[] types;
+	/** The weight of each card, for weighted draws. */
+	private final float[] weights;
+	/** The index of the name of each card in the table of strings. */
+	private final int[] names;
+	/** The index of the mana of each card in the table of strings. */
+	private final int[] manas;
+	/** The UTF-8 bytes of every distinct name and mana, one after another. */
+	private final byte[] pool;
+	/** Where each distinct string starts in the pool, followed by the
+	 * length of the pool. */
+	private final int[] starts;
+
+	/**
+	 * Build the columns of a deck from its cards.
+	 * @param cards - The cards of the deck, in order.
+	 */
+	public ColumnarDeck(List<Card> cards) {
+		this(builderOf(cards));
+	}
+
+	/**
+	 * Take the columns of a deck from a builder, trimmed to their size.
+	 * @param builder - The builder holding the cards of the deck.
+	 */
+	private ColumnarDeck(Builder builder) {
+		ids = Arrays.copyOf(builder.ids, builder.size);
+		types = Arrays.copyOf(builder.types, builder.size);
+		weights = Arrays.copyOf(builder.weights, builder.size);
+		names = Arrays.copyOf(builder.names, builder.size);
+		manas = Arrays.copyOf(builder.manas, builder.size);
+		pool = Arrays.copyOf(builder.bytes, builder.length);
+		starts = Arrays.copyOf(builder.offsets, builder.strings + 1);
+		starts[builder.strings] = builder.length;
+	}
+
+	/**
+	 * Add every card of a list to a new builder.
+	 * @param cards - The cards of the deck, in order.
+	 * @return The builder.
+	 */
+	private static Builder builderOf(List<Card> cards) {
+		Builder builder = new Builder();
+
+		for (Card card : cards) {
+			builder.add(card);
+		}
+		return builder;
+	}
+
+	/**
+	 * Build a card of the deck.
+	 * @param index - The position of the card in the deck.
+	 * @return A new Card equal to the one at that position.
+	 */
+	@Override
+	public Card get(int index) {
+		return new Card(ids[index], string(names[index]), TYPES[types[index]],
+				string(manas[index]), weights[index]);
+	}
+
+	/**
+	 * Get the number of cards in the deck.
+	 * @return The number of cards.
+	 */
+	@Override
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Get the id of a card of the deck, without building it.
+	 * @param index - The position of the card in the deck.
+	 * @return The id of the card.
+	 */
+	public short id(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * Get the type of a card of the deck, without building it.
+	 * @param index - The position of the card in the deck.
+	 * @return The type of the card.
+	 */
+	public Type type(int index) {
+		return TYPES[types[index]];
+	}
+
+	/**
+	 * Get the weight of a card of the deck, without building it.
+	 * @param index - The position of the card in the deck.
+	 * @return The weight of the card.
+	 */
+	public double weight(int index) {
+		return weights[index];
+	}
+
+	/**
+	 * Decode a distinct string of the pool.
+	 * @param index - The index of the string in the table.
+	 * @return The string.
+	 */
+	private String string(int index) {
+		return new String(pool, starts[index],
+				starts[index + 1] - starts[index], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Builds the columns of a deck one card at a time, so that a deck can
+	 * be read straight into columns without a list of every card. Only the
+	 * card being added need exist as an object. A builder is used by a
+	 * single thread.
+	 */
+	public static final class Builder {
+		/** The index of each distinct string in the table. */
+		private final Map<String, Integer> indexes = new HashMap<>();
+		/** The bytes of the distinct strings, one after another. */
+		private byte[] bytes = new byte[1024];
+		/** Where each distinct string starts in the bytes. */
+		private int[] offsets = new int[64];
+		/** The number of distinct strings. */
+		private int strings;
+		/** The number of bytes of the distinct strings. */
+		private int length;
+		/** The id of each card. */
+		private short[] ids = new short[64];
+		/** The type ordinal of each card. */
+		private byte[] types = new byte[64];
+		/** The weight of each card. */
+		private float[] weights = new float[64];
+		/** The index of the name of each card in the table of strings. */
+		private int[] names = new int[64];
+		/** The index of the mana of each card in the table of strings. */
+		private int[] manas = new int[64];
+		/** The number of cards added. */
+		private int size;
+
+		/**
+		 * Add a card after those already added.
+		 * @param card - The card to add.
+		 */
+		public void add(Card card) {
+			add(card.getId(), card.getName(), card.getType(), card.getMana(),
+					(float) card.getWeight());
+		}
+
+		/**
+		 * Add every card of another builder after those already added.
+		 * @param other - The builder whose cards to add.
+		 */
+		public void addAll(Builder other) {
+			for (int i = 0; i < other.size; i++) {
+				add(other.ids[i], other.string(other.names[i]),
+						TYPES[other.types[i]], other.string(other.manas[i]),
+						other.weights[i]);
+			}
+		}
+
+		/**
+		 * Build the deck of the cards added.
+		 * @return The deck.
+		 */
+		public ColumnarDeck build() {
+			return new ColumnarDeck(this);
+		}
+
+		/**
+		 * Add a card after those already added.
+		 * @param id - The id of the card.
+		 * @param name - The name of the card.
+		 * @param type - The type of the card.
+		 * @param mana - The mana of the card.
+		 * @param weight - The weight of the card.
+		 */
+		private void add(short id, String name, Type type, String mana,
+				float weight) {
+			if (size == ids.length) {
+				int capacity = 2 * size;
+				ids = Arrays.copyOf(ids, capacity);
+				types = Arrays.copyOf(types, capacity);
+				weights = Arrays.copyOf(weights, capacity);
+				names = Arrays.copyOf(names, capacity);
+				manas = Arrays.copyOf(manas, capacity);
+			}
+			ids[size] = id;
+			types[size] = (byte) type.ordinal();
+			weights[size] = weight;
+			names[size] = intern(name);
+			manas[size] = intern(mana);
+			size++;
+		}
+
+		/**
+		 * Find the index of a string in the table, adding it if it is new.
+		 * @param string - The string.
+		 * @return The index of the string.
+		 */
+		private int intern(String string) {
+			Integer index = indexes.get(string);
+
+			if (index == null) {
+				byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+				if (length + utf8.length > bytes.length) {
+					bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length,
+							length + utf8.length));
+				}
+				if (strings + 1 == offsets.length) {
+					offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+				}
+				System.arraycopy(utf8, 0, bytes, length, utf8.length);
+				offsets[strings] = length;
+				length += utf8.length;
+				index = strings++;
+				indexes.put(string, index);
+			}
+			return index;
+		}
+
+		/**
+		 * Decode a distinct string of the table.
+		 * @param index - The index of the string in the table.
+		 * @return The string.
+		 */
+		private String string(int index) {
+			int end = index + 1 < strings ? offsets[index + 1] : length;
+
+			return new String(bytes, offsets[index], end - offsets[index],
+					StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class reloads the deck of a magic server without stopping it. The new
+ * CardSource, with its pools and encoded cards, is built completely before
+ * it replaces the old one, and a CardSource never changes once built, so
+ * requests already drawing from the old deck finish on it while new
+ * requests draw from the new one. Nothing waits for a reload but the
+ * thread doing it. A reload is started by calling reload(), also available
+ * through JMX, or by a change to the cards file when the file is watched.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class DeckReloader implements DeckReloaderMBean {
+	/** How long the cards file must be left alone before it is read, so
+	 * that a file being written is not read half way. */
+	private static final long QUIET_MILLIS = 200;
+
+	/** The server whose deck is reloaded. */
+	private final AbstractMagicServer server;
+	/** The name of the cards file. */
+	private final String filename;
+	/** The number of decks published. */
+	private final AtomicLong reloads = new AtomicLong();
+	/** The number of times the cards file could not be read. */
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Create a reloader of a server's deck.
+	 * @param server - The server whose deck is reloaded.
+	 * @param filename - The name of the cards file.
+	 */
+	public DeckReloader(AbstractMagicServer server, String filename) {
+		this.server = server;
+		this.filename = filename;
+	}
+
+	/**
+	 * Read the cards file again and publish its deck to the server. If the
+	 * file cannot be read the server keeps its old deck. That includes a
+	 * file cut short or rewritten while it is mapped and parsed, which the
+	 * JVM reports as an InternalError, and any other failure of the parser,
+	 * so that a bad file never stops the watching thread. Reloads are done
+	 * one at a time, so an older file never replaces a newer one. The new
+	 * deck is held the same way as the old, as objects or in columns.
+	 * @return A description of the new deck, or of why it was not read.
+	 */
+	@Override
+	public synchronized String reload() {
+		try {
+			CardSource source = new CardSource(filename, true,
+					server.getSource().isColumnar());
+			server.changeSource(source);
+			reloads.incrementAndGet();
+			return "Reloaded " + source.size(CardType.ALL) + " cards from "
+					+ filename;
+		} catch (IOException | RuntimeException | InternalError ex) {
+			failures.incrementAndGet();
+			return "Deck not reloaded: " + ex;
+		}
+	}
+
+	/**
+	 * Start a daemon thread which reloads the deck whenever the cards file
+	 * is created or changed.
+	 * @return The thread started.
+	 * @throws IOException - if the directory of the cards file cannot be
+	 * watched.
+	 */
+	public Thread watch() throws IOException {
+		Path file = Paths.get(filename).toAbsolutePath().normalize();
+		WatchService watcher = FileSystems.getDefault().newWatchService();
+		file.getParent().register(watcher,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+		Thread thread = new Thread(() -> watch(watcher, file.getFileName()),
+				"deck-reloader");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Wait for changes to the cards file and reload the deck after each,
+	 * until the thread is interrupted.
+	 * @param watcher - The watch service of the directory of the file.
+	 * @param name - The name of the file within its directory.
+	 */
+	private void watch(WatchService watcher, Path name) {
+		try (WatchService service = watcher) {
+			while (!Thread.currentThread().isInterrupted()) {
+				if (changed(service.take(), name)) {
+					// Wait until the file has been left alone for a while.
+					WatchKey key;
+					while ((key = service.poll(QUIET_MILLIS,
+							TimeUnit.MILLISECONDS)) != null) {
+						changed(key, name);
+					}
+					System.out.println(reload());
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			// Stop watching.
+		} catch (IOException ex) {
+			System.err.println("Deck watcher stopped: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Check whether the events of a watch key include a change to a file,
+	 * and make the key ready for further events.
+	 * @param key - The watch key signalled.
+	 * @param name - The name of the file within its directory.
+	 * @return Whether the file was created or changed.
+	 */
+	private static boolean changed(WatchKey key, Path name) {
+		boolean changed = false;
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW
+					|| name.equals(event.context())) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+	@Override
+	public String getFilename() {
+		return filename;
+	}
+
+	@Override
+	public long getReloads() {
+		return reloads.get();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.get();
+	}
+}
@@ -0,0 +1,34 @@
+package server;
+
+/**
+ * The management interface of the reloader of a magic server's deck,
+ * through which JMX tools such as jconsole can reload the cards file.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public interface DeckReloaderMBean {
+	/**
+	 * Read the cards file again and serve its deck to new requests.
+	 * @return A description of the new deck, or of why it was not read.
+	 */
+	String reload();
+
+	/**
+	 * Get the name of the cards file.
+	 * @return The name of the cards file.
+	 */
+	String getFilename();
+
+	/**
+	 * Get the number of times a new deck has been published.
+	 * @return The number of reloads.
+	 */
+	long getReloads();
+
+	/**
+	 * Get the number of times the cards file could not be read.
+	 * @return The number of failed reloads.
+	 */
+	long getFailures();
+}
@@ -0,0 +1,307 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+import common.Card;
+import common.Type;
+
+/**
+ * Class writes and reads a snapshot of a deck: the cards read from a .csv
+ * file, already parsed and classified, in a compact binary file kept next
+ * to it. Reading a snapshot maps it into memory and builds the cards
+ * straight from its columns, which is far quicker than parsing the .csv
+ * file again. A snapshot can also be read straight into a ColumnarDeck.
+ *
+ * A snapshot holds a header (magic number, version, and the length and
+ * modification time of the .csv file it was made from), then a table of
+ * the distinct names and mana costs (each a 2 byte length followed by UTF-8
+ * bytes), then one column each of ids (2 bytes), type ordinals (1 byte),
+ * weights (4 byte floats), and name and mana indexes into the table (4
+ * bytes each), and last a CRC-32 of everything before it. A snapshot
+ * whose checksum does not match, or which was made from a .csv file of
+ * another length or modification time, is ignored.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public final class DeckSnapshot {
+	/** The extension added to the name of a .csv file for its snapshot. */
+	public static final String EXTENSION = ".snapshot";
+	/** The first 4 bytes of every snapshot: "MTGS". */
+	private static final int MAGIC = 0x4D544753;
+	/** The version of the snapshot format. */
+	private static final int VERSION = 2;
+	/** The types of card, indexed by ordinal. */
+	private static final Type[] TYPES = Type.values();
+
+	/**
+	 * Private constructor, this class only holds static members.
+	 */
+	private DeckSnapshot() {
+	}
+
+	/**
+	 * Get the name of the snapshot of a .csv file.
+	 * @param filename - The name of the .csv file.
+	 * @return The name of its snapshot.
+	 */
+	public static String snapshotOf(String filename) {
+		return filename + EXTENSION;
+	}
+
+	/**
+	 * Read the snapshot of a .csv file, if it is up to date.
+	 * @param filename - The name of the .csv file.
+	 * @return The cards of the snapshot, or null if there is no snapshot,
+	 * or it is stale or damaged.
+	 */
+	public static List<Card> read(String filename) {
+		return read(filename, ArrayList<Card>::new, List::add);
+	}
+
+	/**
+	 * Read the snapshot of a .csv file straight into the columns of a
+	 * deck, if it is up to date, without a list of its cards.
+	 * @param filename - The name of the .csv file.
+	 * @return The deck of the snapshot, or null if there is no snapshot,
+	 * or it is stale or damaged.
+	 */
+	public static ColumnarDeck readColumnar(String filename) {
+		ColumnarDeck.Builder builder = read(filename,
+				count -> new ColumnarDeck.Builder(),
+				ColumnarDeck.Builder::add);
+
+		return builder == null ? null : builder.build();
+	}
+
+	/**
+	 * Read the snapshot of a .csv file into a sink, if it is up to date.
+	 * @param <S> - The type of sink.
+	 * @param filename - The name of the .csv file.
+	 * @param sinks - Makes an empty sink for the number of cards given.
+	 * @param add - Hands a card to the sink.
+	 * @return The sink holding the cards of the snapshot, or null if there
+	 * is no snapshot, or it is stale or damaged.
+	 */
+	private static <S> S read(String filename, IntFunction<S> sinks,
+			BiConsumer<S, Card> add) {
+		File source = new File(filename);
+		File snapshot = new File(snapshotOf(filename));
+
+		if (!snapshot.isFile()) {
+			return null;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(snapshot, "r");
+				FileChannel channel = file.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			return decode(bytes, source.length(), source.lastModified(),
+					sinks, add);
+		} catch (IOException | BufferUnderflowException
+				| IndexOutOfBoundsException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Write the snapshot of a .csv file. The snapshot is written to a
+	 * temporary file first and then moved into place, so a reader never
+	 * sees half a snapshot. The length and modification time of the file
+	 * must be taken before it is read, so that a snapshot of a file which
+	 * changed while it was read is stale, rather than holding old cards
+	 * under the stamp of the new file.
+	 * @param filename - The name of the .csv file.
+	 * @param cards - The cards read from the file.
+	 * @param length - The length of the file before it was read.
+	 * @param modified - The modification time of the file before it was
+	 * read.
+	 * @throws IOException - if the snapshot cannot be written.
+	 */
+	public static void write(String filename, List<Card> cards, long length,
+			long modified) throws IOException {
+		Path snapshot = new File(snapshotOf(filename)).toPath();
+		byte[] bytes = encode(cards, length, modified);
+		Path temporary = Files.createTempFile(
+				snapshot.toAbsolutePath().getParent(),
+				snapshot.getFileName().toString(), ".tmp");
+
+		try {
+			Files.write(temporary, bytes);
+			try {
+				Files.move(temporary, snapshot,
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(temporary, snapshot,
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Encode a deck as a snapshot.
+	 * @param cards - The cards of the deck.
+	 * @param length - The length of the .csv file the cards were read from.
+	 * @param modified - The modification time of the .csv file.
+	 * @return The bytes of the snapshot.
+	 * @throws IOException - if a card cannot be encoded.
+	 */
+	private static byte[] encode(List<Card> cards, long length,
+			long modified) throws IOException {
+		// The index of each distinct string in the table.
+		Map<String, Integer> indexes = new HashMap<>();
+		// The distinct strings, in the order of their indexes.
+		List<String> table = new ArrayList<>();
+		int[] names = new int[cards.size()];
+		int[] manas = new int[cards.size()];
+
+		for (int i = 0; i < cards.size(); i++) {
+			Card card = cards.get(i);
+			names[i] = intern(card.getName(), indexes, table);
+			manas[i] = intern(card.getMana(), indexes, table);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(length);
+		out.writeLong(modified);
+		out.writeInt(cards.size());
+		out.writeInt(table.size());
+		for (String string : table) {
+			byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+			if (utf8.length > 0xFFFF) {
+				throw new IOException("String too long for a snapshot");
+			}
+			out.writeShort(utf8.length);
+			out.write(utf8);
+		}
+		for (Card card : cards) {
+			out.writeShort(card.getId());
+		}
+		for (Card card : cards) {
+			out.writeByte(card.getType().ordinal());
+		}
+		for (Card card : cards) {
+			out.writeFloat((float) card.getWeight());
+		}
+		for (int name : names) {
+			out.writeInt(name);
+		}
+		for (int mana : manas) {
+			out.writeInt(mana);
+		}
+		out.flush();
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeInt((int) crc.getValue());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Find the index of a string in the table, adding it if it is new.
+	 * @param string - The string.
+	 * @param indexes - The index of each string in the table.
+	 * @param table - The strings of the table, in order.
+	 * @return The index of the string.
+	 */
+	private static int intern(String string, Map<String, Integer> indexes,
+			List<String> table) {
+		Integer index = indexes.get(string);
+
+		if (index == null) {
+			index = table.size();
+			indexes.put(string, index);
+			table.add(string);
+		}
+		return index;
+	}
+
+	/**
+	 * Decode the cards of a snapshot into a sink, if it is up to date.
+	 * @param <S> - The type of sink.
+	 * @param bytes - The bytes of the snapshot.
+	 * @param length - The length of the .csv file now.
+	 * @param modified - The modification time of the .csv file now.
+	 * @param sinks - Makes an empty sink for the number of cards given.
+	 * @param add - Hands a card to the sink.
+	 * @return The sink holding the cards of the snapshot, or null if it is
+	 * stale or damaged.
+	 */
+	private static <S> S decode(ByteBuffer bytes, long length,
+			long modified, IntFunction<S> sinks, BiConsumer<S, Card> add) {
+		if (bytes.remaining() < 4 || bytes.getInt(0) != MAGIC
+				|| bytes.getInt(4) != VERSION || bytes.getLong(8) != length
+				|| bytes.getLong(16) != modified) {
+			return null;
+		}
+		// Check the checksum of everything before it.
+		int end = bytes.limit() - 4;
+		CRC32 crc = new CRC32();
+		ByteBuffer checked = bytes.duplicate();
+		checked.limit(end);
+		crc.update(checked);
+		if ((int) crc.getValue() != bytes.getInt(end)) {
+			return null;
+		}
+
+		bytes.position(24);
+		int count = bytes.getInt();
+		String[] table = new String[bytes.getInt()];
+		byte[] utf8 = new byte[256];
+		for (int i = 0; i < table.length; i++) {
+			int size = bytes.getShort() & 0xFFFF;
+			if (utf8.length < size) {
+				utf8 = new byte[size];
+			}
+			bytes.get(utf8, 0, size);
+			table[i] = new String(utf8, 0, size, StandardCharsets.UTF_8);
+		}
+
+		// The start of each column.
+		int ids = bytes.position();
+		int types = ids + 2 * count;
+		int weights = types + count;
+		int names = weights + 4 * count;
+		int manas = names + 4 * count;
+		if (manas + 4 * count != end) {
+			return null;
+		}
+		S cards = sinks.apply(count);
+		for (int i = 0; i < count; i++) {
+			add.accept(cards, new Card(bytes.getShort(ids + 2 * i),
+					table[bytes.getInt(names + 4 * i)],
+					TYPES[bytes.get(types + i)],
+					table[bytes.getInt(manas + 4 * i)],
+					bytes.getFloat(weights + 4 * i)));
+		}
+		return cards;
+	}
+}
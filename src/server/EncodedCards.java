@@ -0,0 +1,215 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import common.Card;
+import common.CardCodec;
+import common.Protocol;
+import common.WireFormat;
+
+/**
+ * Class holds every card of a deck already encoded in each wire format, so
+ * that sending a card is a copy of bytes rather than a new encoding. For
+ * each format the encoded cards are kept one after another in a single
+ * array, with a table of offsets and lengths indexed by card id, so no two
+ * cards of the deck may share an id. In the serialized format each card is
+ * a whole stream of its own, as sent in a single UDP packet; since only
+ * unbatched UDP responses send it, it is only encoded when first needed.
+ * The deck cannot change once encoded, so one instance can be shared by
+ * any number of threads.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class EncodedCards {
+	/** The cards of the deck, kept to encode the serialized format. */
+	private final List<Card> cards;
+	/** The number of entries of each table, one past the largest index. */
+	private final int ids;
+	/** The cards encoded in the binary format. */
+	private final Table binary;
+	/** The cards encoded in the serialized format, or null until first
+	 * needed. */
+	private volatile Table serial;
+
+	/**
+	 * Encode every card of a deck in the binary format.
+	 * @param cards - The cards of the deck, each with a unique id.
+	 * @throws IllegalArgumentException - if two cards share an id.
+	 */
+	public EncodedCards(List<Card> cards) {
+		int max = 0;
+
+		for (Card card : cards) {
+			max = Math.max(max, index(card) + 1);
+		}
+		this.cards = cards;
+		this.ids = max;
+		this.binary = new Table(WireFormat.BINARY);
+	}
+
+	/**
+	 * Get the cards encoded in a wire format, encoding them if they have
+	 * not been yet.
+	 * @param format - The wire format.
+	 * @return The encoded cards.
+	 */
+	private Table table(WireFormat format) {
+		if (format == WireFormat.BINARY) {
+			return binary;
+		}
+		Table table = serial;
+		if (table == null) {
+			synchronized (this) {
+				table = serial;
+				if (table == null) {
+					table = new Table(format);
+					serial = table;
+				}
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Determine how many bytes a card takes in a wire format.
+	 * @param card - A card of the deck.
+	 * @param format - The wire format.
+	 * @return The number of bytes the card takes.
+	 */
+	public int length(Card card, WireFormat format) {
+		return table(format).lengths[index(card)];
+	}
+
+	/**
+	 * Copy the encoded bytes of a card into a buffer.
+	 * @param card - A card of the deck.
+	 * @param format - The wire format.
+	 * @param out - The buffer to copy into.
+	 * @throws java.nio.BufferOverflowException - if the card does not fit.
+	 */
+	public void copy(Card card, WireFormat format, ByteBuffer out) {
+		Table table = table(format);
+
+		out.put(table.bytes, table.offsets[index(card)],
+				table.lengths[index(card)]);
+	}
+
+	/**
+	 * Write the encoded bytes of a card to a stream.
+	 * @param card - A card of the deck.
+	 * @param format - The wire format.
+	 * @param out - The stream to write to.
+	 * @throws IOException - if the card cannot be written.
+	 */
+	public void write(Card card, WireFormat format, OutputStream out)
+			throws IOException {
+		Table table = table(format);
+
+		out.write(table.bytes, table.offsets[index(card)],
+				table.lengths[index(card)]);
+	}
+
+	/**
+	 * Encode a whole hand as a stream response: in the binary format, a
+	 * header followed by the encoded bytes of every card; serialized, every
+	 * card written to a single object stream, followed by an empty string
+	 * to mark the end of the hand.
+	 * @param hand - Cards of the deck.
+	 * @param format - The wire format.
+	 * @return A new buffer holding the response, ready to be read.
+	 */
+	public ByteBuffer encode(Card[] hand, WireFormat format) {
+		ByteBuffer buffer;
+
+		if (format == WireFormat.BINARY) {
+			int length = CardCodec.HEADER_SIZE;
+			for (Card card : hand) {
+				length += length(card, format);
+			}
+			buffer = ByteBuffer.allocate(length);
+			buffer.put((byte) Protocol.VERSION);
+			buffer.putInt(hand.length);
+			for (Card card : hand) {
+				copy(card, format, buffer);
+			}
+			buffer.flip();
+			return buffer;
+		}
+		try {
+			ByteArrayOutputStream all = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(all);
+			for (Card card : hand) {
+				out.writeObject(card);
+			}
+			out.writeObject("");
+			out.flush();
+			return ByteBuffer.wrap(all.toByteArray());
+		} catch (IOException ex) {
+			// Writing to memory does not fail.
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Find the position of a card in the tables of offsets and lengths.
+	 * @param card - A card of the deck.
+	 * @return The index of the card, its id read as unsigned.
+	 */
+	private static int index(Card card) {
+		return card.getId() & 0xFFFF;
+	}
+
+	/**
+	 * Every card of the deck encoded in a single wire format.
+	 */
+	private class Table {
+		/** The encoded cards, one after another. */
+		private final byte[] bytes;
+		/** Where each card starts, indexed by card id. */
+		private final int[] offsets = new int[ids];
+		/** The length of each card, indexed by card id. */
+		private final int[] lengths = new int[ids];
+
+		/**
+		 * Encode every card of the deck.
+		 * @param format - The format in which to encode the cards.
+		 * @throws IllegalArgumentException - if two cards share an id.
+		 */
+		private Table(WireFormat format) {
+			ByteArrayOutputStream all = new ByteArrayOutputStream();
+
+			try {
+				for (Card card : cards) {
+					int index = index(card);
+					if (lengths[index] != 0) {
+						throw new IllegalArgumentException(
+								"Two cards share the id " + card.getId());
+					}
+					offsets[index] = all.size();
+					if (format == WireFormat.BINARY) {
+						DataOutputStream out = new DataOutputStream(all);
+						CardCodec.write(card, out);
+						out.flush();
+					} else {
+						ObjectOutputStream out = new ObjectOutputStream(all);
+						out.writeObject(card);
+						out.flush();
+					}
+					lengths[index] = all.size() - offsets[index];
+				}
+			} catch (IOException ex) {
+				// Writing to memory does not fail.
+				throw new UncheckedIOException(ex);
+			}
+			bytes = all.toByteArray();
+		}
+	}
+}
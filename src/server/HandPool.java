@@ -0,0 +1,415 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import common.Card;
+import common.WireFormat;
+
+/**
+ * Class holds hands drawn ahead of the requests which will take them, so
+ * that a burst of requests does not wait for cards to be drawn and encoded.
+ * A background thread draws hands from the server's card source into a
+ * bounded ring for each type of card, for weighted and unweighted draws,
+ * and, if the pool encodes its hands, for each wire format. Request
+ * handlers take a hand from a ring in constant time without locking, and
+ * draw their own when the ring is empty.
+ *
+ * Only requests for the number of cards their flag gives are served from
+ * the pool. Each ring is kept filled up to a target which adapts to
+ * demand: the target doubles, up to the capacity of the ring, whenever a
+ * handler finds the ring empty, and halves whenever no hand has been taken
+ * from the ring for a second, so that only the rings in use are filled.
+ * Hands drawn from a deck which has since been replaced are thrown away.
+ * Safe for use by many threads at once.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class HandPool {
+	/** The default number of hands each ring holds at most. */
+	public static final int DEFAULT_CAPACITY = 64;
+	/** The fewest hands a ring in use is filled up to, and the most added
+	 * to a single ring before the others are filled. */
+	private static final int MIN_TARGET = 8;
+	/** The time without a hand taken after which a ring is shrunk, and
+	 * after which the background thread waits until a hand is taken. */
+	private static final long IDLE = TimeUnit.SECONDS.toNanos(1);
+	/** The longest the background thread waits with nothing to draw, while
+	 * hands are being taken. */
+	private static final long PAUSE = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/** The server whose card source and requests the hands are drawn for. */
+	private final AbstractMagicServer server;
+	/** Whether each hand is also encoded as a stream response. */
+	private final boolean encoded;
+	/** The number of hands each ring holds at most. */
+	private final int capacity;
+	/** The rings, by type ordinal, then weighted, then format ordinal. */
+	private final Ring[] rings;
+	/** The number of requests served from the pool. */
+	private final LongAdder hits = new LongAdder();
+	/** The number of requests which found their ring empty. */
+	private final LongAdder misses = new LongAdder();
+	/** The thread which draws hands, or null if the pool is stopped. */
+	private volatile Thread producer;
+	/** Set when the thread which draws hands is about to wait for a hand
+	 * to be taken, so that the next request to take a hand wakes it. */
+	private volatile boolean waiting;
+	/** The time a hand was last taken, or a request last found its ring
+	 * empty, as the thread which draws hands last saw. */
+	private long lastTaken = System.nanoTime();
+
+	/**
+	 * Create a pool of hands for a server, which is empty until started.
+	 * @param server - The server the hands are drawn for.
+	 * @param capacity - The number of hands each ring holds at most,
+	 * rounded up to a power of two.
+	 * @param encoded - Whether to encode each hand as a stream response
+	 * in its wire format, as the TCP servers send it.
+	 */
+	public HandPool(AbstractMagicServer server, int capacity,
+			boolean encoded) {
+		this.server = server;
+		this.encoded = encoded;
+		this.capacity = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+		this.rings = new Ring[CardType.values().length << 2];
+		for (int i = 0; i < rings.length; i++) {
+			rings[i] = new Ring(this.capacity);
+		}
+	}
+
+	/**
+	 * Start the thread which draws hands, if it is not running.
+	 */
+	public synchronized void start() {
+		if (producer == null) {
+			producer = new Thread(this::produce,
+					"hand-pool-" + server.getPort());
+			producer.setDaemon(true);
+			producer.start();
+		}
+	}
+
+	/**
+	 * Stop the thread which draws hands. Hands already drawn may still be
+	 * taken.
+	 */
+	public synchronized void stop() {
+		Thread thread = producer;
+
+		producer = null;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Get the number of requests served from the pool.
+	 * @return The number of hands taken.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Get the number of requests the pool could have served, but which
+	 * found no hand ready and drew their own.
+	 * @return The number of requests which found their ring empty.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Take a hand drawn ahead for a request.
+	 * @param request - The request of a client.
+	 * @param source - The card source the request draws from.
+	 * @return A hand for the request, or null if the request cannot be
+	 * served from the pool or no hand is ready, in which case the caller
+	 * draws its own.
+	 */
+	public Hand take(CardRequest request, CardSource source) {
+		if (request.isComposed()) {
+			return null;
+		}
+		Ring ring = rings[index(request.getType(), request.isWeighted(),
+				request.getFormat())];
+		if (request.getCount() != ring.count) {
+			return null;
+		}
+
+		Hand hand = ring.poll();
+		if (hand != null && hand.source == source
+				&& hand.count == request.getCount()) {
+			ring.taken = true;
+			hits.increment();
+			wake();
+			return hand;
+		}
+		misses.increment();
+		ring.missed = true;
+		wake();
+		return null;
+	}
+
+	/**
+	 * Wake the thread which draws hands, if it is waiting, so that it
+	 * fills again the rings hands have been taken from.
+	 */
+	private void wake() {
+		if (waiting) {
+			waiting = false;
+			LockSupport.unpark(producer);
+		}
+	}
+
+	/**
+	 * Draw hands into the rings until the pool is stopped, a few at a time
+	 * for each ring. Whenever every ring is filled, pause briefly while
+	 * hands are being taken. Once none has been taken for a second, wait
+	 * instead until a hand is taken or a request finds its ring empty,
+	 * waking once a second only while any ring is still to be shrunk.
+	 */
+	private void produce() {
+		Thread self = Thread.currentThread();
+		CardSource last = null;
+
+		while (producer == self) {
+			CardSource source = server.getSource();
+			long now = System.nanoTime();
+			boolean drawn = false;
+			// Whether any ring is still filled up to a target.
+			boolean used = false;
+
+			for (CardType type : CardType.values()) {
+				for (int weighted = 0; weighted < 2; weighted++) {
+					for (WireFormat format : WireFormat.values()) {
+						if (!encoded && format != WireFormat.SERIAL) {
+							continue;
+						}
+						Ring ring = rings[index(type, weighted != 0, format)];
+						if (source != last) {
+							ring.clear();
+						}
+						drawn |= fill(ring, server.pooledRequest(type,
+								weighted != 0, format), source, now);
+						used |= ring.target > 0;
+					}
+				}
+			}
+			last = source;
+			if (drawn || now - lastTaken <= IDLE) {
+				waiting = false;
+				if (!drawn) {
+					LockSupport.parkNanos(this, PAUSE);
+				}
+			} else if (!waiting) {
+				// Look once more before waiting, for hands taken before
+				// the requests taking them could see the thread waiting.
+				waiting = true;
+			} else if (used) {
+				LockSupport.parkNanos(this, IDLE);
+			} else {
+				LockSupport.park(this);
+			}
+		}
+	}
+
+	/**
+	 * Adapt the target of a ring to the demand since it was last filled,
+	 * and draw a few hands into it if it holds fewer.
+	 * @param ring - The ring to fill.
+	 * @param request - The request the hands of the ring are drawn for.
+	 * @param source - The card source to draw from.
+	 * @param now - The time now.
+	 * @return true if any hand was drawn.
+	 */
+	private boolean fill(Ring ring, CardRequest request, CardSource source,
+			long now) {
+		int added = 0;
+
+		ring.count = request.getCount();
+		if (ring.missed || ring.taken) {
+			lastTaken = now;
+		}
+		if (ring.missed) {
+			ring.missed = false;
+			ring.target = Math.min(capacity,
+					Math.max(MIN_TARGET, ring.target * 2));
+			ring.idleSince = now;
+		} else if (ring.taken) {
+			ring.taken = false;
+			ring.idleSince = now;
+		} else if (now - ring.idleSince > IDLE) {
+			ring.target /= 2;
+			ring.idleSince = now;
+		}
+		while (added < MIN_TARGET && ring.size() < ring.target) {
+			Card[] cards = source.draw(request);
+			ring.offer(new Hand(cards, request.getCount(), source, encoded
+					? source.getEncoded().encode(cards, request.getFormat())
+					: null));
+			added++;
+		}
+		return added > 0;
+	}
+
+	/**
+	 * Find the ring of the hands drawn for a kind of request.
+	 * @param type - The types of card asked for.
+	 * @param weighted - Whether cards are drawn in proportion to weight.
+	 * @param format - The wire format asked for.
+	 * @return The index of the ring.
+	 */
+	private int index(CardType type, boolean weighted, WireFormat format) {
+		return (type.ordinal() << 1 | (weighted ? 1 : 0)) << 1
+				| (encoded ? format.ordinal() : 0);
+	}
+
+	/**
+	 * A hand drawn ahead of the request which takes it. A hand is only
+	 * taken once, and cannot change.
+	 */
+	public static final class Hand {
+		/** The cards of the hand. */
+		private final Card[] cards;
+		/** The number of cards the hand was drawn for. */
+		private final int count;
+		/** The card source the hand was drawn from. */
+		private final CardSource source;
+		/** The hand encoded as a stream response, or null. */
+		private final ByteBuffer encoding;
+
+		/**
+		 * Create a hand.
+		 * @param cards - The cards of the hand.
+		 * @param count - The number of cards the hand was drawn for.
+		 * @param source - The card source the hand was drawn from.
+		 * @param encoding - The hand encoded as a stream response, ready
+		 * to be read, or null.
+		 */
+		private Hand(Card[] cards, int count, CardSource source,
+				ByteBuffer encoding) {
+			this.cards = cards;
+			this.count = count;
+			this.source = source;
+			this.encoding = encoding;
+		}
+
+		/**
+		 * Get the cards of the hand, which must not be changed.
+		 * @return The cards of the hand.
+		 */
+		public Card[] getCards() {
+			return cards;
+		}
+
+		/**
+		 * Get the hand encoded as a stream response in the wire format of
+		 * the request, as EncodedCards.encode writes it.
+		 * @return A buffer of its own over the encoded hand, ready to be
+		 * read, or null if the pool does not encode its hands.
+		 */
+		public ByteBuffer getEncoding() {
+			return encoding == null ? null : encoding.duplicate();
+		}
+	}
+
+	/**
+	 * A bounded ring of hands, filled by a single thread and emptied by
+	 * any number. The filling thread writes a slot and then publishes it
+	 * by moving the tail; a taking thread reads the slot at the head and
+	 * then claims it by moving the head, and reads again if another thread
+	 * claimed it first. A slot is only written again once its hand has
+	 * been claimed, so a hand read is never one written over. The thread
+	 * which claims a hand empties its slot, unless it has been written
+	 * again already, so the ring holds no hand once taken.
+	 */
+	private static final class Ring {
+		/** The hands, at their position modulo the capacity. */
+		private final AtomicReferenceArray<Hand> slots;
+		/** The capacity less one, to find the slot of a position. */
+		private final int mask;
+		/** The position of the next hand to take. */
+		private final AtomicLong head = new AtomicLong();
+		/** The position of the next hand to add. */
+		private volatile long tail;
+		/** The number of cards the hands of the ring are drawn for. */
+		private volatile int count = -1;
+		/** The number of hands the ring is filled up to. */
+		private int target;
+		/** The time the target last changed or a hand was last taken. */
+		private long idleSince = System.nanoTime();
+		/** Set when a hand is taken, cleared when the ring is filled. */
+		private volatile boolean taken;
+		/** Set when a request finds the ring empty, cleared when the ring
+		 * is filled. */
+		private volatile boolean missed;
+
+		/**
+		 * Create an empty ring.
+		 * @param capacity - The number of hands it holds, a power of two.
+		 */
+		private Ring(int capacity) {
+			slots = new AtomicReferenceArray<>(capacity);
+			mask = capacity - 1;
+		}
+
+		/**
+		 * Get the number of hands in the ring.
+		 * @return The number of hands not yet taken.
+		 */
+		private int size() {
+			return (int) (tail - head.get());
+		}
+
+		/**
+		 * Add a hand to the ring, if it is not full. Only the filling
+		 * thread may call this.
+		 * @param hand - The hand to add.
+		 * @return true if the hand was added.
+		 */
+		private boolean offer(Hand hand) {
+			long position = tail;
+
+			if (position - head.get() > mask) {
+				return false;
+			}
+			slots.set((int) position & mask, hand);
+			tail = position + 1;
+			return true;
+		}
+
+		/**
+		 * Take the oldest hand from the ring.
+		 * @return The hand, or null if the ring is empty.
+		 */
+		private Hand poll() {
+			while (true) {
+				long position = head.get();
+				if (position == tail) {
+					return null;
+				}
+				int index = (int) position & mask;
+				Hand hand = slots.get(index);
+				if (head.compareAndSet(position, position + 1)) {
+					slots.compareAndSet(index, hand, null);
+					return hand;
+				}
+			}
+		}
+
+		/**
+		 * Take every hand from the ring, so that none is held any longer.
+		 */
+		private void clear() {
+			while (poll() != null) {
+			}
+		}
+	}
+}
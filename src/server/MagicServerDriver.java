@@ -1,53 +1,95 @@
 package server;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
- * The main driver for a magic server, which can be tcp or udp 
- * depending on command line arguments.
- * Usage: java MagicServerDriver <tcp|udp> [port]
+ * The main driver for a magic server, which can be tcp, udp or
+ * non-blocking tcp (nio) depending on command line arguments.
+ * Usage: java MagicServerDriver <tcp|udp|nio> [port] [threads] [+columnar]
+ * [+pool]
  * @author Kevin Filanowski
  * @author Donny Queen
  * @version October 2018
  */
 public class MagicServerDriver {
-	/** Abstraction of a magic server. Can be initialized as TCP or UDP. */
+	/** Abstraction of a magic server. Can be initialized as TCP, UDP or NIO. */
 	private AbstractMagicServer server;
 	/** The port number the server will be open with. */
 	private Integer port;
+	/** The number of connections a TCP server serves at once, or the
+	 * number of loops of a NIO or UDP server. */
+	private Integer threads;
 	/** String representation of tcp */
 	private final String TCP = "tcp";
 	/** String representation of udp */
 	private final String UDP = "udp";
+	/** String representation of non-blocking tcp */
+	private final String NIO = "nio";
+	/** Option to hold the deck as a ColumnarDeck. */
+	private static final String COLUMNAR = "+columnar";
+	/** Option to draw hands ahead of requests. */
+	private static final String POOL = "+pool";
 
 	/**
 	 * Constructor initializes a magic server.
 	 * @param args - The command line arguments.
-	 * @throws FileNotFoundException - Thrown if the cards file is not found.
+	 * @throws IOException - Thrown if the cards file cannot be read.
 	 */
-	public MagicServerDriver(String[] args) throws FileNotFoundException,
+	public MagicServerDriver(String[] args) throws IOException,
 	NumberFormatException {
-		if (args.length > 1)
-			port = Integer.parseInt(args[1]);
-		if (args[0].equalsIgnoreCase(TCP)) {
-			if (port != null) 
-				server = new TcpMagicServer(port);
-			else
-				server = new TcpMagicServer();
-		} else if (args[0].equalsIgnoreCase(UDP)) {
-			if (port != null)
-				server = new UdpMagicServer(port);
+		boolean columnar = false;
+		boolean pool = false;
+		// The number of arguments before the options.
+		int count = args.length;
+
+		while (count > 1 && args[count - 1].startsWith("+")) {
+			String option = args[--count];
+			if (option.equalsIgnoreCase(COLUMNAR))
+				columnar = true;
+			else if (option.equalsIgnoreCase(POOL))
+				pool = true;
 			else
-				server = new UdpMagicServer();
-		} else
+				printUsageAndExit();
+		}
+
+		if (count > 1)
+			port = Integer.parseInt(args[1]);
+		if (count > 2)
+			threads = Integer.parseInt(args[2]);
+		if (!args[0].equalsIgnoreCase(TCP) && !args[0].equalsIgnoreCase(UDP)
+				&& !args[0].equalsIgnoreCase(NIO))
 			printUsageAndExit();
+
+		CardSource source = new CardSource(AbstractMagicServer.DEFAULT_FILE,
+				true, columnar);
+		int listen = port != null ? port : AbstractMagicServer.DEFAULT_PORT;
+		if (args[0].equalsIgnoreCase(TCP))
+			server = new TcpMagicServer(listen, source, threads != null
+					? threads : TcpMagicServer.DEFAULT_THREADS,
+					TcpMagicServer.DEFAULT_BACKLOG);
+		else if (args[0].equalsIgnoreCase(UDP))
+			server = new UdpMagicServer(listen, source,
+					UdpMagicServer.DEFAULT_PAYLOAD, threads != null
+					? threads : UdpMagicServer.DEFAULT_LOOPS);
+		else
+			server = new NioMagicServer(listen, source, threads != null
+					? threads : NioMagicServer.DEFAULT_LOOPS,
+					NioMagicServer.DEFAULT_BACKLOG);
+		if (pool)
+			server.poolHands(HandPool.DEFAULT_CAPACITY);
 	}
 
 	/**
 	 * Prints a simple usage message to stderr and terminates the program.
 	 */
 	private static void printUsageAndExit() {
-		System.out.println("Usage: java MagicServerDriver <tcp|udp> [port] ");
+		System.out.println(
+				"Usage: java MagicServerDriver <tcp|udp|nio> [port] [threads]"
+				+ " [+columnar] [+pool]");
 		System.exit(0);
 	}
 
@@ -58,16 +100,71 @@ public class MagicServerDriver {
 	 * implementations.
 	 */
 	public final void serverListen() throws MagicServerException {
+		exposeMetrics();
+		watchDeck();
 		server.listen();
 	}
 
+	/**
+	 * Make the metrics of the server readable through JMX, as
+	 * server:type=ServerMetrics,port=N, and print them, with the hits and
+	 * misses of the hand pool, when the server is stopped.
+	 */
+	private void exposeMetrics() {
+		ServerMetrics metrics = server.getMetrics();
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+					new ObjectName("server:type=ServerMetrics,port="
+							+ server.getPort()));
+		} catch (JMException ex) {
+			System.err.println("Metrics not registered: " + ex.getMessage());
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			HandPool pool = server.getHandPool();
+			System.out.print(metrics.report());
+			if (pool != null) {
+				System.out.println("hand pool: " + pool.getHits() + " hits, "
+						+ pool.getMisses() + " misses");
+			}
+		}, "metrics-report"));
+	}
+
+	/**
+	 * Reload the deck whenever the cards file changes, or when asked
+	 * through JMX as server:type=DeckReloader,port=N.
+	 */
+	private void watchDeck() {
+		DeckReloader reloader = new DeckReloader(server,
+				AbstractMagicServer.DEFAULT_FILE);
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(reloader,
+					new ObjectName("server:type=DeckReloader,port="
+							+ server.getPort()));
+		} catch (JMException ex) {
+			System.err.println("Reloader not registered: " + ex.getMessage());
+		}
+		try {
+			reloader.watch();
+		} catch (IOException ex) {
+			System.err.println("Cards file not watched: " + ex.getMessage());
+		}
+	}
+
 	/**
 	 * This method serves as the entry point of the program.
 	 * @param args - Command line arguments to the program.
 	 * There must be at least one argument. The first argument specifies if
-	 * the server will use a UDP or TCP connection. The second parameter,
+	 * the server will use a UDP, TCP or NIO connection. The second parameter,
 	 * if present, must be the port number on which the server will 
-	 * listen for requests. Any arguments beyond this will be ignored.
+	 * listen for requests. The third parameter, if present, must be the
+	 * number of connections a TCP server serves at once, the number of
+	 * event loop threads of a NIO server, or the number of receive loops,
+	 * each with its own socket, of a UDP server. The last arguments may be
+	 * +columnar, to hold the deck as a ColumnarDeck, and +pool, to draw
+	 * hands ahead of requests in a HandPool. Any other arguments beyond
+	 * this will be ignored.
 	 */
 	public static void main(String[] args) {
 		if (args.length < 1) {
@@ -77,11 +174,11 @@ public class MagicServerDriver {
 		try {
 			MagicServerDriver driver = new MagicServerDriver(args);
 			driver.serverListen();
-		} catch (FileNotFoundException ex) {
+		} catch (IOException ex) {
 			System.out.println(ex.getMessage());
 			System.exit(1);
 		} catch (NumberFormatException ex) {
-			System.out.println("Invalid Port Number: " + args[1]);
+			System.out.println("Invalid Number: " + ex.getMessage());
 			printUsageAndExit();
 		} catch (MagicServerException ex) {
 			System.out.println(ex.getMessage());
@@ -0,0 +1,449 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import common.AsciiView;
+import common.Card;
+
+/**
+ * This class represents a concrete implementation of a magic server that
+ * uses the TCP transport layer protocol with non-blocking channels. A few
+ * event loop threads, each with its own Selector, serve every connection,
+ * so the server can hold many more connections open than it has threads.
+ * It speaks the same protocol as TcpMagicServer, including pipelined
+ * requests on connections kept open.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class NioMagicServer extends AbstractMagicServer
+implements MagicServer {
+	/** The default number of event loop threads. */
+	public static final int DEFAULT_LOOPS =
+			Runtime.getRuntime().availableProcessors();
+	/** The default number of pending connections to queue. */
+	public static final int DEFAULT_BACKLOG = 1024;
+	/** The longest request line a client may send. */
+	private static final int MAX_LINE = 1024;
+	/** How long to wait before accepting again after accept fails. */
+	private static final long ACCEPT_RETRY_MILLIS = 100;
+	/** The number of event loop threads. */
+	private final int loops;
+	/** The number of pending connections the operating system queues. */
+	private final int backlog;
+
+	/**
+	 * Creates a new NioMagicServer that listens for connections on
+	 * the default magic TCP port, and uses the default card source.
+	 * @throws IOException - if the file used
+	 * to initialize the cards cannot be read.
+	 */
+	public NioMagicServer() throws IOException {
+		this(DEFAULT_PORT);
+	}
+
+	/**
+	 * Creates a new NioMagicServer that listens for connections on
+	 * the specified magic TCP port, and uses the default card source.
+	 * @param port - port the server will listen at.
+	 * @throws IOException - if the input file cannot be read.
+	 */
+	public NioMagicServer(int port) throws IOException {
+		this(port, DEFAULT_LOOPS);
+	}
+
+	/**
+	 * Creates a new NioMagicServer that listens for connections on
+	 * the specified magic TCP port with the specified number of event
+	 * loops, and uses the default card source.
+	 * @param port - port the server will listen at.
+	 * @param loops - number of event loop threads.
+	 * @throws IOException - if the input file cannot be read.
+	 */
+	public NioMagicServer(int port, int loops) throws IOException {
+		super(port);
+		this.loops = Math.max(1, loops);
+		this.backlog = DEFAULT_BACKLOG;
+	}
+
+	/**
+	 * Creates a new NioMagicServer that listens for connections on
+	 * the specified magic TCP port, and uses the specified card source.
+	 * @param port - port the server will listen at.
+	 * @param source - source used to generate cards.
+	 * @param loops - number of event loop threads.
+	 * @param backlog - number of pending connections to queue.
+	 */
+	public NioMagicServer(int port, CardSource source, int loops,
+			int backlog) {
+		super(port, source);
+		this.loops = Math.max(1, loops);
+		this.backlog = backlog;
+	}
+
+	/**
+	 * Causes the magic server to listen for requests. The calling thread
+	 * accepts connections and hands them to the event loops in turn.
+	 * @throws MagicServerException - if an error occurs while
+	 * trying to listen for connections.
+	 */
+	public void listen() throws MagicServerException {
+		System.out.println("NIO Server listening on port: " + getPort());
+		// The event loops which serve accepted connections.
+		EventLoop[] eventLoops = new EventLoop[loops];
+
+		try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			serverChannel.bind(new InetSocketAddress(getPort()), backlog);
+			for (int i = 0; i < loops; i++) {
+				eventLoops[i] = new EventLoop(Selector.open());
+				Thread thread = new Thread(eventLoops[i], "nio-loop-" + i);
+				thread.setDaemon(true);
+				thread.start();
+			}
+
+			// Consistently process requests until server closes.
+			int next = 0;
+			while (serverChannel.isOpen()) {
+				SocketChannel channel;
+				try {
+					channel = serverChannel.accept();
+				} catch (ClosedChannelException ex) {
+					break;
+				} catch (IOException ex) {
+					// Such as too many open files: the connections already
+					// open are still served, and accepting is tried again.
+					System.err.println("NIO accept error: " + ex.getMessage());
+					Thread.sleep(ACCEPT_RETRY_MILLIS);
+					continue;
+				}
+				eventLoops[next].add(channel);
+				next = (next + 1) % loops;
+			}
+		}
+		catch (IOException ioe) {
+			throw new MagicServerException(ioe.getMessage());
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new MagicServerException(ie.getMessage());
+		}
+		finally {
+			for (EventLoop eventLoop : eventLoops) {
+				if (eventLoop != null) {
+					eventLoop.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Build the response to a request: the cards of the requested hand,
+	 * in the requested format, ready to be written with a gathering write.
+	 * A binary response is copied from the cards encoded when the deck was
+	 * read into a single buffer. A hand drawn ahead of the request is sent
+	 * as it was encoded then.
+	 * @param request - The request of the client.
+	 * @return The buffers holding the response, in order.
+	 */
+	private ByteBuffer[] respond(CardRequest request) {
+		CardSource source = getSource();
+		// A hand drawn and encoded ahead of the request, if any.
+		HandPool.Hand pooled = takeHand(request, source);
+		Card[] hand = pooled != null ? pooled.getCards()
+				: source.draw(request);
+		// The buffers holding the response.
+		ByteBuffer[] response = { pooled != null ? pooled.getEncoding()
+				: source.getEncoded().encode(hand, request.getFormat()) };
+
+		getMetrics().served(ServerMetrics.NIO, request.getType(),
+				hand.length, response[0].remaining());
+		return response;
+	}
+
+	/**
+	 * An event loop thread, which serves the connections registered with
+	 * its Selector.
+	 */
+	private class EventLoop implements Runnable {
+		/** The selector which tells which connections are ready. */
+		private final Selector selector;
+		/** Connections accepted, but not yet registered with the selector. */
+		private final Queue<SocketChannel> accepted;
+		/** Buffer every connection of this loop reads into. */
+		private final ByteBuffer readBuffer;
+		/** Reads each request line of every connection of this loop in
+		 * place. */
+		private final AsciiView line = new AsciiView();
+
+		/**
+		 * Create a new event loop.
+		 * @param selector - The selector of the event loop.
+		 */
+		private EventLoop(Selector selector) {
+			this.selector = selector;
+			this.accepted = new ConcurrentLinkedQueue<>();
+			this.readBuffer = ByteBuffer.allocateDirect(MAX_LINE);
+		}
+
+		/**
+		 * Hand an accepted connection to this event loop.
+		 * @param channel - The accepted connection.
+		 */
+		private void add(SocketChannel channel) {
+			accepted.add(channel);
+			selector.wakeup();
+		}
+
+		/**
+		 * Stop the event loop.
+		 */
+		private void close() {
+			try {
+				selector.close();
+			} catch (IOException ex) {
+				System.err.println("NIO loop error: " + ex.getMessage());
+			}
+		}
+
+		/**
+		 * Serve connections until the selector is closed.
+		 */
+		@Override
+		public void run() {
+			try {
+				while (selector.isOpen()) {
+					selector.select();
+					register();
+					Iterator<SelectionKey> keys =
+							selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						serve(key);
+					}
+				}
+			} catch (IOException | ClosedSelectorException ex) {
+				// The server is shutting down.
+			}
+		}
+
+		/**
+		 * Register the newly accepted connections with the selector. A
+		 * connection which cannot be registered is closed.
+		 */
+		private void register() {
+			SocketChannel channel;
+
+			while ((channel = accepted.poll()) != null) {
+				try {
+					channel.configureBlocking(false);
+					channel.register(selector, SelectionKey.OP_READ,
+							new Connection());
+				} catch (IOException ex) {
+					System.err.println("NIO client error: "
+							+ ex.getMessage());
+					close(channel);
+				}
+			}
+		}
+
+		/**
+		 * Read from or write to a connection which is ready. Any error,
+		 * expected or not, closes only that connection, so the other
+		 * connections of the loop are still served.
+		 * @param key - The key of the connection.
+		 */
+		private void serve(SelectionKey key) {
+			SocketChannel channel = (SocketChannel) key.channel();
+			Connection connection = (Connection) key.attachment();
+
+			try {
+				if (key.isReadable()) {
+					readBuffer.clear().limit(Math.min(readBuffer.capacity(),
+							connection.input.remaining()));
+					connection.ended = channel.read(readBuffer) < 0;
+					readBuffer.flip();
+					connection.input.put(readBuffer);
+				} else if (key.isWritable() && connection.write(channel)) {
+					connection.response = null;
+					completed(connection);
+				} else {
+					return;
+				}
+				if (connection.response == null) {
+					respondToLines(connection);
+				}
+				if (connection.response != null) {
+					key.interestOps(SelectionKey.OP_WRITE);
+				} else if (connection.ended || !connection.open) {
+					channel.close();
+				} else {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			} catch (IOException | RuntimeException ex) {
+				System.err.println("NIO client error: " + ex);
+				key.cancel();
+				close(channel);
+			}
+		}
+
+		/**
+		 * Close a connection.
+		 * @param channel - The channel connected to the client.
+		 */
+		private void close(SocketChannel channel) {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// Nothing more can be done for this connection.
+			}
+		}
+
+		/**
+		 * Record the latency of every request of a response just written.
+		 * @param connection - The connection the response was written to.
+		 */
+		private void completed(Connection connection) {
+			long now = System.nanoTime();
+
+			for (int i = 0; i < connection.requests; i++) {
+				getMetrics().completed(ServerMetrics.NIO,
+						connection.types[i], now - connection.started[i]);
+			}
+			connection.requests = 0;
+		}
+
+		/**
+		 * Build the responses to every whole request line the connection
+		 * has read, in order, as one response to be written with a single
+		 * gathering write. Stops after a request which does not keep the
+		 * connection open.
+		 * @param connection - The connection to respond to.
+		 * @throws IOException - if a line is too long or a response cannot
+		 * be built.
+		 */
+		private void respondToLines(Connection connection)
+				throws IOException {
+			// The buffers of every response, in order.
+			List<ByteBuffer> responses = new ArrayList<>();
+			CharSequence line;
+
+			connection.input.flip();
+			try {
+				while (connection.open
+						&& (line = connection.nextLine(this.line)) != null) {
+					CardRequest request = setCardsReturned(line);
+					connection.pending(request.getType());
+					Collections.addAll(responses, respond(request));
+					connection.open = request.isKeepAlive();
+				}
+			} finally {
+				connection.input.compact();
+			}
+			if (!responses.isEmpty()) {
+				connection.response =
+						responses.toArray(new ByteBuffer[responses.size()]);
+				connection.next = 0;
+			}
+		}
+	}
+
+	/**
+	 * The state of a single connection: the request lines read so far and
+	 * the response not yet written.
+	 */
+	private static class Connection {
+		/** The bytes read from the client but not yet answered. */
+		private final ByteBuffer input = ByteBuffer.allocate(2 * MAX_LINE);
+		/** The buffers of the response not yet written, or null. */
+		private ByteBuffer[] response;
+		/** The first buffer of the response not yet fully written. */
+		private int next;
+		/** Whether the client may send further requests. */
+		private boolean open = true;
+		/** Whether the client has closed its side of the connection. */
+		private boolean ended;
+		/** The time the connection was accepted. */
+		private final long accepted = System.nanoTime();
+		/** The kind of cards of each request of the response. */
+		private CardType[] types = new CardType[1];
+		/** The time each request of the response was read. */
+		private long[] started = new long[1];
+		/** The number of requests in the response. */
+		private int requests;
+		/** The number of requests read from the connection. */
+		private long read;
+
+		/**
+		 * Note a request read, to be timed until its response is written.
+		 * The first request is timed from when the connection was accepted.
+		 * @param type - The kind of cards requested.
+		 */
+		private void pending(CardType type) {
+			if (requests == types.length) {
+				types = Arrays.copyOf(types, 2 * requests);
+				started = Arrays.copyOf(started, 2 * requests);
+			}
+			types[requests] = type;
+			started[requests++] = read++ == 0 ? accepted : System.nanoTime();
+		}
+
+		/**
+		 * Take the next whole request line from the bytes read so far,
+		 * which the input buffer must be ready to read. Once the client
+		 * has closed its side of the connection, the last line need not
+		 * end with a line terminator.
+		 * @param view - The view to present the line with.
+		 * @return The view of the request line, valid until the input
+		 * buffer is compacted, or null if more bytes are needed.
+		 * @throws IOException - if the line is longer than allowed.
+		 */
+		private CharSequence nextLine(AsciiView view) throws IOException {
+			for (int i = input.position(); i < input.limit(); i++) {
+				if (input.get(i) == '\n') {
+					view.wrap(input.array(), input.position(), i);
+					input.position(i + 1);
+					return view;
+				}
+			}
+			if (input.remaining() >= MAX_LINE) {
+				throw new IOException("Request line too long");
+			}
+			if (ended && input.hasRemaining()) {
+				view.wrap(input.array(), input.position(), input.limit());
+				input.position(input.limit());
+				return view;
+			}
+			return null;
+		}
+
+		/**
+		 * Write as much of the response as the channel accepts.
+		 * @param channel - The channel connected to the client.
+		 * @return true once the whole response has been written.
+		 * @throws IOException - if the response cannot be written.
+		 */
+		private boolean write(SocketChannel channel) throws IOException {
+			channel.write(response, next, response.length - next);
+			while (next < response.length && !response[next].hasRemaining()) {
+				next++;
+			}
+			return next == response.length;
+		}
+	}
+}
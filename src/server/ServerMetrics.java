@@ -0,0 +1,197 @@
+package server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import common.AtomicHistogram;
+import common.Histogram;
+
+/**
+ * Class counts the work of a magic server, for each transport and each
+ * CardType requested: requests served, cards sent, bytes written and the
+ * latency of each request, from when it was accepted or read to when the
+ * last byte of its response was written. Failed sends are counted for
+ * each transport. Recording never locks and only adds to striped
+ * counters, so metrics can be left on under load. The metrics can be read
+ * through JMX, or as text with report().
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+	/** The name of the blocking TCP transport. */
+	public static final String TCP = "tcp";
+	/** The name of the UDP transport. */
+	public static final String UDP = "udp";
+	/** The name of the non-blocking TCP transport. */
+	public static final String NIO = "nio";
+	/** The number of nanoseconds in a microsecond, as latencies print. */
+	private static final double MICROSECOND = 1000.0;
+
+	/** The metrics of each transport, by name. */
+	private final ConcurrentMap<String, Transport> transports =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * Count a request served, once its response is built.
+	 * @param transport - The name of the transport which served it.
+	 * @param type - The kind of cards requested.
+	 * @param cards - The number of cards in the response.
+	 * @param bytes - The number of bytes in the response.
+	 */
+	public void served(String transport, CardType type, int cards,
+			long bytes) {
+		Counters counters = transport(transport).counters[type.ordinal()];
+
+		counters.requests.increment();
+		counters.cards.add(cards);
+		counters.bytes.add(bytes);
+	}
+
+	/**
+	 * Record the latency of a request, once its response is written.
+	 * @param transport - The name of the transport which served it.
+	 * @param type - The kind of cards requested.
+	 * @param nanos - The nanoseconds from when the request was accepted or
+	 * read to when the last byte of its response was written.
+	 */
+	public void completed(String transport, CardType type, long nanos) {
+		transport(transport).counters[type.ordinal()].latency.record(nanos);
+	}
+
+	/**
+	 * Count a response, or part of one, which could not be sent.
+	 * @param transport - The name of the transport which failed.
+	 */
+	public void sendFailed(String transport) {
+		transport(transport).sendFailures.increment();
+	}
+
+	/**
+	 * Get the metrics of a transport, created the first time it is used.
+	 * @param name - The name of the transport.
+	 * @return The metrics of the transport.
+	 */
+	private Transport transport(String name) {
+		Transport transport = transports.get(name);
+
+		if (transport == null) {
+			transport = transports.computeIfAbsent(name, k -> new Transport());
+		}
+		return transport;
+	}
+
+	@Override
+	public long getRequests() {
+		long total = 0;
+		for (Transport transport : transports.values()) {
+			for (Counters counters : transport.counters) {
+				total += counters.requests.sum();
+			}
+		}
+		return total;
+	}
+
+	@Override
+	public long getCardsSent() {
+		long total = 0;
+		for (Transport transport : transports.values()) {
+			for (Counters counters : transport.counters) {
+				total += counters.cards.sum();
+			}
+		}
+		return total;
+	}
+
+	@Override
+	public long getBytesWritten() {
+		long total = 0;
+		for (Transport transport : transports.values()) {
+			for (Counters counters : transport.counters) {
+				total += counters.bytes.sum();
+			}
+		}
+		return total;
+	}
+
+	@Override
+	public long getSendFailures() {
+		long total = 0;
+		for (Transport transport : transports.values()) {
+			total += transport.sendFailures.sum();
+		}
+		return total;
+	}
+
+	@Override
+	public String report() {
+		StringBuilder report = new StringBuilder(String.format(
+				"%-9s %-8s %10s %12s %14s %10s %10s %10s %10s%n",
+				"transport", "flag", "requests", "cards", "bytes",
+				"p50 us", "p99 us", "p99.9 us", "max us"));
+
+		for (Map.Entry<String, Transport> entry
+				: new TreeMap<>(transports).entrySet()) {
+			Transport transport = entry.getValue();
+			for (CardType type : CardType.values()) {
+				Counters counters = transport.counters[type.ordinal()];
+				long requests = counters.requests.sum();
+				if (requests == 0) {
+					continue;
+				}
+				Histogram latency = counters.latency.snapshot();
+				report.append(String.format(
+						"%-9s %-8s %10d %12d %14d %10.1f %10.1f %10.1f %10.1f%n",
+						entry.getKey(), type, requests, counters.cards.sum(),
+						counters.bytes.sum(),
+						latency.getValueAtPercentile(50) / MICROSECOND,
+						latency.getValueAtPercentile(99) / MICROSECOND,
+						latency.getValueAtPercentile(99.9) / MICROSECOND,
+						latency.getMax() / MICROSECOND));
+			}
+			if (transport.sendFailures.sum() > 0) {
+				report.append(entry.getKey()).append(" send failures: ")
+						.append(transport.sendFailures.sum())
+						.append(System.lineSeparator());
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * The metrics of a single transport.
+	 */
+	private static class Transport {
+		/** The counters of each kind of card requested, by ordinal. */
+		private final Counters[] counters =
+				new Counters[CardType.values().length];
+		/** The number of sends which failed. */
+		private final LongAdder sendFailures = new LongAdder();
+
+		/**
+		 * Create the metrics of a transport, with nothing counted.
+		 */
+		private Transport() {
+			for (int i = 0; i < counters.length; i++) {
+				counters[i] = new Counters();
+			}
+		}
+	}
+
+	/**
+	 * The counters of a single transport and kind of card.
+	 */
+	private static class Counters {
+		/** The number of requests served. */
+		private final LongAdder requests = new LongAdder();
+		/** The number of cards sent. */
+		private final LongAdder cards = new LongAdder();
+		/** The number of bytes written. */
+		private final LongAdder bytes = new LongAdder();
+		/** The nanoseconds taken by each request. */
+		private final AtomicHistogram latency = new AtomicHistogram();
+	}
+}
@@ -0,0 +1,40 @@
+package server;
+
+/**
+ * The management interface of the metrics of a magic server, through
+ * which JMX tools such as jconsole can read them.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public interface ServerMetricsMBean {
+	/**
+	 * Get the number of requests served by every transport.
+	 * @return The number of requests served.
+	 */
+	long getRequests();
+
+	/**
+	 * Get the number of cards sent by every transport.
+	 * @return The number of cards sent.
+	 */
+	long getCardsSent();
+
+	/**
+	 * Get the number of bytes written by every transport.
+	 * @return The number of bytes written.
+	 */
+	long getBytesWritten();
+
+	/**
+	 * Get the number of responses which could not be sent.
+	 * @return The number of failed sends.
+	 */
+	long getSendFailures();
+
+	/**
+	 * Describe every metric, one line for each transport and flag.
+	 * @return The description of the metrics.
+	 */
+	String report();
+}
@@ -1,12 +1,21 @@
 package server;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.io.FileNotFoundException;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectOutputStream;
-import java.util.Scanner;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import common.AsciiView;
 import common.Card;
+import common.CardCodec;
+import common.WireFormat;
 /**
  * This class represents a concrete implementation of a magic server that
  * uses the TCP transport layer protocol.
@@ -16,25 +25,52 @@ import common.Card;
  */
 public class TcpMagicServer extends AbstractMagicServer
 implements MagicServer {
+	/** The default number of connections served at once. */
+	public static final int DEFAULT_THREADS =
+			Runtime.getRuntime().availableProcessors() * 4;
+	/** The default number of pending connections to queue. */
+	public static final int DEFAULT_BACKLOG = 128;
+	/** The longest request line a client may send. */
+	private static final int MAX_LINE = 1024;
+	/** The maximum number of connections served at once. */
+	private final int threads;
+	/** The number of pending connections the operating system queues. */
+	private final int backlog;
 
 	/**
 	 * Creates a new TcpMagicServer that listens for connections on
 	 * the default magic TCP port, and uses the default card source.
-	 * @throws FileNotFoundException - if the file used
-	 * to initialize the cards is not found.
+	 * @throws IOException - if the file used
+	 * to initialize the cards cannot be read.
 	 */
-	public TcpMagicServer() throws FileNotFoundException {
+	public TcpMagicServer() throws IOException {
 		super();
+		this.threads = DEFAULT_THREADS;
+		this.backlog = DEFAULT_BACKLOG;
 	}
 
 	/**
 	 * Creates a new TcpMagicServer that listens for connections on
 	 * the specified magic TCP port, and uses the default card source.
 	 * @param port - port the server will listen at.
-	 * @throws FileNotFoundException - if the input file cannot be located.
+	 * @throws IOException - if the input file cannot be read.
 	 */
-	public TcpMagicServer(int port) throws FileNotFoundException {
+	public TcpMagicServer(int port) throws IOException {
+		this(port, DEFAULT_THREADS);
+	}
+
+	/**
+	 * Creates a new TcpMagicServer that listens for connections on
+	 * the specified magic TCP port, serves at most the specified number
+	 * of connections at once, and uses the default card source.
+	 * @param port - port the server will listen at.
+	 * @param threads - maximum number of connections served at once.
+	 * @throws IOException - if the input file cannot be read.
+	 */
+	public TcpMagicServer(int port, int threads) throws IOException {
 		super(port);
+		this.threads = Math.max(1, threads);
+		this.backlog = DEFAULT_BACKLOG;
 	}
 
 	/**
@@ -44,74 +80,296 @@ implements MagicServer {
 	 * @param source - source used to generate cards.
 	 */
 	public TcpMagicServer(int port, CardSource source) {
+		this(port, source, DEFAULT_THREADS, DEFAULT_BACKLOG);
+	}
+
+	/**
+	 * Creates a new TcpMagicServer that listens for connections on
+	 * the specified magic TCP port, and uses the specified card source.
+	 * @param port - port the server will listen at.
+	 * @param source - source used to generate cards.
+	 * @param threads - maximum number of connections served at once.
+	 * @param backlog - number of pending connections to queue.
+	 */
+	public TcpMagicServer(int port, CardSource source, int threads,
+			int backlog) {
 		super(port, source);
+		this.threads = Math.max(1, threads);
+		this.backlog = backlog;
 	}
 
 	/**
 	 * Creates a new TcpMagicServer that listens for connections on
 	 * the default magic TCP port, and uses the specified card source.
 	 * @param source - source used to generate cards.
-	 * @throws FileNotFoundException - if the input file cannot be located.
+	 * @throws IOException - if the input file cannot be read.
 	 */
 	public TcpMagicServer(CardSource source) {
-		super(source);
+		this(DEFAULT_PORT, source);
 	}
 
 	/**
-	 * Causes the magic server to listen for requests.
+	 * Causes the magic server to listen for requests. Each accepted
+	 * connection is handed to a worker thread, so one slow client does not
+	 * hold up the others. At most getThreads() connections are served at
+	 * once; further clients wait in the accept backlog.
 	 * @throws MagicServerException - if an error occurs while
 	 * trying to listen for connections.
 	 */
 	public void listen() throws MagicServerException {
 		System.out.println("TCP Server listening on port: " + getPort());
-		// Scanner to read client commands.
-		Scanner inClient;
-		// String to hold client commands.
-		String clientString;
-		// Socket to connect to client.
-		Socket connect;
-		// Object output stream for the client to send cards to client.
-		ObjectOutputStream outClient;
+		// Worker threads which serve the accepted connections.
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		// Limits the number of connections being served at once.
+		Semaphore permits = new Semaphore(threads);
 
-		try (ServerSocket serverSocket = new ServerSocket(getPort());)
+		try (ServerSocket serverSocket = new ServerSocket(getPort(), backlog);)
 		{
-			Card card = null;
-
-			//ArrayList that holds cards that have already been sent
-			ArrayList<Card> usedCards = new ArrayList<>();
 			// Consistently process requests until server closes.
 			while(!serverSocket.isClosed()) {
-				connect = serverSocket.accept();
-				outClient = new ObjectOutputStream(connect.getOutputStream());
-				// Scan input from client
-				inClient = new Scanner(connect.getInputStream());
-				clientString = inClient.nextLine();
-				setCardsReturned(clientString.toUpperCase());
-
-				int i = 0;
-				while( i < this.getItemsToSend()){
-					card = getSource().next();
-					if(!usedCards.contains(card)){
-						usedCards.add(card);
-						outClient.writeObject(card);
-						outClient.flush();
-						i++;
-					}
+				permits.acquire();
+				Socket connect;
+				try {
+					connect = serverSocket.accept();
+				} catch (IOException ioe) {
+					permits.release();
+					throw ioe;
 				}
-				//Clears the usedCards for the next connection
-				usedCards.clear();
-				// Writing the finished statement (An empty string).
-				outClient.writeObject("");
-				outClient.flush();
-
-				// Closing connections.
-				inClient.close();
-				connect.close();
-				outClient.close();
+				long accepted = System.nanoTime();
+				workers.execute(() -> {
+					try {
+						serve(connect, accepted);
+					} finally {
+						permits.release();
+					}
+				});
 			}
 		}
 		catch(IOException ioe){
 			throw new MagicServerException(ioe.getMessage());
 		}
+		catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new MagicServerException(ie.getMessage());
+		}
+		finally {
+			workers.shutdown();
+		}
+	}
+
+	/**
+	 * Serve a single client connection: read the flag, send back the
+	 * requested cards in the requested format, and close the connection.
+	 * If the request asks to keep the connection open, further requests
+	 * are read and answered in order until the client closes the connection.
+	 * All state used here is local to the connection. The latency of the
+	 * first request counts from when the connection was accepted, and of
+	 * each later request from when it was read.
+	 * @param connect - The socket connected to the client.
+	 * @param accepted - The time the connection was accepted.
+	 */
+	private void serve(Socket connect, long accepted) {
+		try (Socket client = connect) {
+			// Reads client commands.
+			LineReader inClient = new LineReader(client.getInputStream());
+			// Stream for binary responses, shared by every request.
+			DataOutputStream binaryOut = null;
+			CardRequest request = null;
+			CharSequence line = inClient.next();
+
+			if (line == null) {
+				throw new EOFException("No request line");
+			}
+			do {
+				// Every request after the first is timed from when it is read.
+				long started = request == null ? accepted : System.nanoTime();
+				request = setCardsReturned(line);
+				CardSource source = getSource();
+				// A hand drawn and encoded ahead of the request, if any.
+				HandPool.Hand pooled = takeHand(request, source);
+				Card[] hand = pooled != null ? pooled.getCards()
+						: source.draw(request);
+				// The number of bytes in the response.
+				long bytes;
+
+				if (request.getFormat() == WireFormat.BINARY
+						&& binaryOut == null) {
+					binaryOut = new DataOutputStream(
+							new BufferedOutputStream(
+									client.getOutputStream()));
+				}
+				if (pooled != null) {
+					bytes = writeEncoded(pooled.getEncoding(),
+							request.getFormat() == WireFormat.BINARY
+							? binaryOut : client.getOutputStream());
+				} else if (request.getFormat() == WireFormat.BINARY) {
+					bytes = writeBinary(hand, source.getEncoded(), binaryOut);
+				} else {
+					bytes = writeSerial(hand, client.getOutputStream());
+				}
+				getMetrics().served(ServerMetrics.TCP, request.getType(),
+						hand.length, bytes);
+				getMetrics().completed(ServerMetrics.TCP, request.getType(),
+						System.nanoTime() - started);
+			} while (request.isKeepAlive()
+					&& (line = inClient.next()) != null);
+		}
+		catch(IOException ex){
+			System.err.println("TCP client error: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Send a hand of cards using Java serialization, followed by an empty
+	 * string to mark the end of the hand.
+	 * @param hand - The cards to send.
+	 * @param out - The stream connected to the client.
+	 * @return The number of bytes sent.
+	 * @throws IOException - if the cards cannot be sent.
+	 */
+	private long writeSerial(Card[] hand, OutputStream out)
+			throws IOException {
+		// Counts the bytes sent to the client.
+		DataOutputStream counted = new DataOutputStream(out);
+		// Object output stream for the client to send cards to client.
+		ObjectOutputStream outClient = new ObjectOutputStream(counted);
+
+		// Send each card of the requested hand to the client.
+		for (Card card : hand) {
+			outClient.writeObject(card);
+			outClient.flush();
+		}
+		// Writing the finished statement (An empty string).
+		outClient.writeObject("");
+		outClient.flush();
+		return counted.size();
+	}
+
+	/**
+	 * Send a hand already encoded in its wire format.
+	 * @param encoding - The encoded hand, ready to be read.
+	 * @param out - The stream connected to the client.
+	 * @return The number of bytes sent.
+	 * @throws IOException - if the hand cannot be sent.
+	 */
+	private long writeEncoded(ByteBuffer encoding, OutputStream out)
+			throws IOException {
+		int length = encoding.remaining();
+
+		out.write(encoding.array(),
+				encoding.arrayOffset() + encoding.position(), length);
+		out.flush();
+		return length;
+	}
+
+	/**
+	 * Send a hand of cards in the binary format, as a header holding
+	 * the number of cards followed by the cards, copied from the cards
+	 * encoded when the deck was read.
+	 * @param hand - The cards to send.
+	 * @param encoded - The cards of the deck the hand was drawn from,
+	 * already encoded.
+	 * @param outClient - The stream connected to the client.
+	 * @return The number of bytes sent.
+	 * @throws IOException - if the cards cannot be sent.
+	 */
+	private long writeBinary(Card[] hand, EncodedCards encoded,
+			DataOutputStream outClient) throws IOException {
+		long bytes = CardCodec.HEADER_SIZE;
+
+		CardCodec.writeHeader(hand.length, outClient);
+		for (Card card : hand) {
+			encoded.write(card, WireFormat.BINARY, outClient);
+			bytes += encoded.length(card, WireFormat.BINARY);
+		}
+		outClient.flush();
+		return bytes;
+	}
+
+	/**
+	 * Get the maximum number of connections served at once.
+	 * @return The maximum number of connections served at once.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Get the number of pending connections the operating system
+	 * queues while all workers are busy.
+	 * @return The length of the accept backlog.
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * Reads the request lines of a connection into a buffer reused for
+	 * every line, and presents each line as an AsciiView of the buffer,
+	 * so that reading a request allocates nothing.
+	 */
+	private static class LineReader {
+		/** The stream connected to the client. */
+		private final InputStream in;
+		/** The bytes read from the client. */
+		private final byte[] buffer = new byte[2 * MAX_LINE];
+		/** The view of the last line read. */
+		private final AsciiView line = new AsciiView();
+		/** The index of the first byte read but not yet returned. */
+		private int start;
+		/** The index just past the last byte read. */
+		private int end;
+
+		/**
+		 * Create a reader of the lines sent by a client.
+		 * @param in - The stream connected to the client.
+		 */
+		private LineReader(InputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * Read the next line, without its line terminator. The line is
+		 * only valid until the next call.
+		 * @return The line, or null once the client has closed the
+		 * connection.
+		 * @throws IOException - if the line cannot be read or is longer
+		 * than allowed.
+		 */
+		private CharSequence next() throws IOException {
+			int scanned = start;
+
+			while (true) {
+				for (; scanned < end; scanned++) {
+					if (buffer[scanned] == '\n') {
+						int stop = scanned > start
+								&& buffer[scanned - 1] == '\r'
+								? scanned - 1 : scanned;
+						line.wrap(buffer, start, stop);
+						start = scanned + 1;
+						return line;
+					}
+				}
+				if (end - start >= MAX_LINE) {
+					throw new IOException("Request line too long");
+				}
+				// Move what is left of the buffer to its start.
+				System.arraycopy(buffer, start, buffer, 0, end - start);
+				scanned -= start;
+				end -= start;
+				start = 0;
+				int read = in.read(buffer, end, buffer.length - end);
+				if (read < 0) {
+					// The last line need not end with a line terminator.
+					if (end == 0) {
+						return null;
+					}
+					line.wrap(buffer, 0, end);
+					start = end;
+					return line;
+				}
+				end += read;
+			}
+		}
 	}
 }
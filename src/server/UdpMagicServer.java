@@ -1,32 +1,53 @@
 package server;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import common.AsciiView;
 import common.Card;
+import common.CardPacket;
+import common.Protocol;
+import common.WireFormat;
 /**
  * This class represents a concrete implementation of a magic server
- * that uses the UDP transport layer protocol.
+ * that uses the UDP transport layer protocol. Several receive loops, each
+ * with a socket of its own bound to the same port, answer requests at once.
  * @author Kevin Filanowski
  * @author Donny Queen
  * @version October 2018
  */
 public class UdpMagicServer extends AbstractMagicServer implements MagicServer {
-	private static final int SIZE = 1024;
+	private static final int SIZE = Protocol.MAX_REQUEST;
+	/** The largest card which fits in a packet, with any header. */
+	private static final int MAX_CARD =
+			CardPacket.MAX_SIZE - CardPacket.HEADER_SIZE;
+	/** The default largest payload of a batched packet, safe for most MTUs. */
+	public static final int DEFAULT_PAYLOAD = 1400;
+	/** The default number of receive loops, one for each core. */
+	public static final int DEFAULT_LOOPS =
+			Runtime.getRuntime().availableProcessors();
+	/** The largest payload of a batched packet. */
+	private int payloadSize = DEFAULT_PAYLOAD;
+	/** The number of receive loops, each with a socket of its own. */
+	private int loops = DEFAULT_LOOPS;
+	/** The id of the last batched response sent by any receive loop. */
+	private final AtomicInteger responses = new AtomicInteger();
 	
 	/**
 	 * Creates a new UdpMagicServer that listens for connections on
 	 * the default magic TCP port, and uses the default card source.
-	 * @throws FileNotFoundException - if the file used
-	 * to initialize the cards is not found.
+	 * @throws IOException - if the file used
+	 * to initialize the cards cannot be read.
 	 */
-	public UdpMagicServer() throws FileNotFoundException {
+	public UdpMagicServer() throws IOException {
 		super();
 	}
 
@@ -34,9 +55,9 @@ public class UdpMagicServer extends AbstractMagicServer implements MagicServer {
 	 * Creates a new UdpMagicServer that listens for connections on
 	 * the specified magic TCP port, and uses the default card source.
 	 * @param port - port the server will listen at.
-	 * @throws FileNotFoundException - if the input file cannot be located.
+	 * @throws IOException - if the input file cannot be read.
 	 */
-	public UdpMagicServer(int port) throws FileNotFoundException {
+	public UdpMagicServer(int port) throws IOException {
 		super(port);
 	}
 
@@ -50,11 +71,41 @@ public class UdpMagicServer extends AbstractMagicServer implements MagicServer {
 		super(port, source);
 	}
 
+	/**
+	 * Creates a new UdpMagicServer that listens for connections on
+	 * the specified magic UDP port, uses the specified card source, and
+	 * sends batched packets of at most the specified payload size.
+	 * @param port - port the server will listen at.
+	 * @param source - source used to generate cards.
+	 * @param payloadSize - largest payload of a batched packet.
+	 */
+	public UdpMagicServer(int port, CardSource source, int payloadSize) {
+		super(port, source);
+		this.payloadSize = Math.max(CardPacket.HEADER_SIZE + 1,
+				Math.min(payloadSize, CardPacket.MAX_SIZE));
+	}
+
+	/**
+	 * Creates a new UdpMagicServer that listens for connections on
+	 * the specified magic UDP port with the specified number of receive
+	 * loops, uses the specified card source, and sends batched packets of
+	 * at most the specified payload size.
+	 * @param port - port the server will listen at.
+	 * @param source - source used to generate cards.
+	 * @param payloadSize - largest payload of a batched packet.
+	 * @param loops - number of receive loops, each with its own socket.
+	 */
+	public UdpMagicServer(int port, CardSource source, int payloadSize,
+			int loops) {
+		this(port, source, payloadSize);
+		this.loops = Math.max(1, loops);
+	}
+
 	/**
 	 * Creates a new UdpMagicServer that listens for connections on
 	 * the default magic TCP port, and uses the specified card source.
 	 * @param source - source used to generate cards.
-	 * @throws FileNotFoundException - if the input file cannot be located.
+	 * @throws IOException - if the input file cannot be read.
 	 */
 	public UdpMagicServer(CardSource source) {
 		super(source);
@@ -63,65 +114,467 @@ public class UdpMagicServer extends AbstractMagicServer implements MagicServer {
 	/**
 	 * Causes the magic server to listen for requests.
 	 * Listens for a flag, and sends back the requested types of cards to
-	 * the client, using UDP. The server ends communication by
-	 * sending an empty packet to the client.
+	 * the client, using UDP, one card per packet or, for batched requests,
+	 * as many cards as fit in each packet. The server ends communication
+	 * by sending an empty packet to the client. A reliable response instead
+	 * ends with an END packet, and its packets are held for a short time so
+	 * that any the client reports missing can be sent again.
+	 *
+	 * Each receive loop binds a socket of its own to the port, with
+	 * SO_REUSEPORT, and the operating system spreads clients over the
+	 * sockets, always sending a given client to the same socket, and so to
+	 * the loop which holds its reliable responses. The calling thread runs
+	 * the first loop. Where SO_REUSEPORT is not supported a single loop
+	 * serves every client.
 	 * @throws MagicServerException - if an error occurs while
 	 * trying to listen for connections.
-	 * @throws SocketException 
 	 */
 	public void listen() throws MagicServerException {
-		ArrayList<Card> usedCards = new ArrayList<>();
-		System.out.println("Udp Server listening on port: " + getPort());
-		try (DatagramSocket serverSocket = new DatagramSocket(getPort());)
-		{
-			while(!serverSocket.isClosed()){ 
-				// Create a packet to receive data.
-				byte[] receiveData = new byte[SIZE];
-				DatagramPacket receivePacket = new DatagramPacket(receiveData,
-						receiveData.length);
-
-				// Receive data.
-				serverSocket.receive(receivePacket);
-				setCardsReturned(new String(
-								receivePacket.getData()).toUpperCase());
-
-				// Extract return address and port from packet.
-				InetAddress IPAddress = receivePacket.getAddress();
-				int port = receivePacket.getPort();
-
-				// Create packet to send data. Set up sending data.
-				DatagramPacket sendPacket;				
-				
-				// Counter for the number of unique and correct cards have been sent
-				int i = 0;	
-				// Write random cards of client's requested type to client.
-				Card card;
-				while (i < this.getItemsToSend()) {    
-				ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-				ObjectOutputStream objOut = new ObjectOutputStream(outStream);
-				byte[] sendData;
-					card = getSource().next();
-					// Ensure we do not send duplicates.
-					if (!usedCards.contains(card)) {
-						usedCards.add(card);
-						objOut.writeObject(card);
-						objOut.flush();
-						sendData = outStream.toByteArray();
-						sendPacket = new DatagramPacket(sendData,
-								sendData.length, IPAddress, port);
-						serverSocket.send(sendPacket);
-						i++;
+		// The socket of each receive loop.
+		List<DatagramChannel> channels = new ArrayList<>();
+
+		try {
+			channels.add(open(loops > 1));
+			boolean sharded = channels.get(0).supportedOptions()
+					.contains(StandardSocketOptions.SO_REUSEPORT);
+			if (loops > 1 && !sharded) {
+				System.out.println("SO_REUSEPORT is not supported,"
+						+ " serving UDP from a single loop");
+			}
+			while (sharded && channels.size() < loops) {
+				channels.add(open(true));
+			}
+			System.out.println("Udp Server listening on port: " + getPort()
+					+ (channels.size() > 1 ? " with " + channels.size()
+							+ " loops" : ""));
+			for (int i = 1; i < channels.size(); i++) {
+				ReceiveLoop loop = new ReceiveLoop(channels.get(i));
+				Thread thread = new Thread(() -> {
+					try {
+						loop.run();
+					} catch (IOException ex) {
+						System.err.println("UDP loop error: "
+								+ ex.getMessage());
 					}
-				}
-				usedCards.clear();
-				// Send empty packet to close.
-				byte[] sendEmpty = new byte[0];
-				sendPacket = new DatagramPacket(sendEmpty, sendEmpty.length,
-						IPAddress, port);
-				serverSocket.send(sendPacket);
+				}, "udp-loop-" + i);
+				thread.setDaemon(true);
+				thread.start();
 			}
+			new ReceiveLoop(channels.get(0)).run();
 		} catch (IOException ex) {
 			throw new MagicServerException(ex.getMessage());
+		} finally {
+			for (DatagramChannel channel : channels) {
+				try {
+					channel.close();
+				} catch (IOException ex) {
+					// Nothing more can be done for this socket.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Open a socket bound to the port of the server.
+	 * @param reusePort - Whether to let other sockets bind to the same port
+	 * too, if supported.
+	 * @return The socket.
+	 * @throws IOException - if the socket cannot be bound.
+	 */
+	private DatagramChannel open(boolean reusePort) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+
+		try {
+			if (reusePort && channel.supportedOptions().contains(
+					StandardSocketOptions.SO_REUSEPORT)) {
+				channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			}
+			channel.bind(new InetSocketAddress(getPort()));
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+		return channel;
+	}
+
+	/**
+	 * Answer a single request received by a receive loop.
+	 * @param loop - The receive loop, whose buffers and socket to use.
+	 * @param command - The request.
+	 * @param client - The address of the client.
+	 * @param started - The time the request was received.
+	 */
+	private void serve(ReceiveLoop loop, CharSequence command,
+			SocketAddress client, long started) {
+		loop.sent.expire(System.currentTimeMillis());
+
+		// Answer acknowledgements of reliable responses.
+		if (Protocol.isFlag(command, Protocol.NACK)) {
+			try {
+				resend(loop.channel, loop.sent, command, client);
+			} catch (IOException ex) {
+				getMetrics().sendFailed(ServerMetrics.UDP);
+			}
+			return;
+		} else if (Protocol.isFlag(command, Protocol.ACK)) {
+			long id = Protocol.responseId(command);
+			if (id >= 0) {
+				loop.sent.remove(client, (int) id);
+			}
+			return;
+		}
+		CardRequest request = setCardsReturned(command);
+
+		CardSource source = getSource();
+		// A hand drawn ahead of the request, if any.
+		HandPool.Hand pooled = takeHand(request, source);
+		Card[] hand = loop.hand;
+		int drawn;
+
+		// Write random cards of client's requested type to client.
+		if (pooled != null) {
+			hand = pooled.getCards();
+			drawn = hand.length;
+		} else {
+			if (hand.length < request.getCount()) {
+				hand = loop.hand = new Card[request.getCount()];
+			}
+			drawn = source.draw(request, hand);
+		}
+		// The format the cards are sent in.
+		WireFormat format = request.isBatched() || request.isReliable()
+				? WireFormat.BINARY : request.getFormat();
+		EncodedCards encoded = source.getEncoded();
+		for (int i = 0; i < drawn; i++) {
+			if (encoded.length(hand[i], format) > MAX_CARD) {
+				drawn = leaveOutOversized(loop, hand, drawn, format, encoded);
+				hand = loop.hand;
+				break;
+			}
+		}
+		try {
+			long bytes = respond(loop.channel, request, hand, drawn,
+					encoded, loop.payload, loop.sent, client);
+			getMetrics().served(ServerMetrics.UDP, request.getType(),
+					drawn, bytes);
+			getMetrics().completed(ServerMetrics.UDP,
+					request.getType(), System.nanoTime() - started);
+		} catch (IOException ex) {
+			// A client which cannot be reached does not stop the
+			// server from answering others.
+			getMetrics().sendFailed(ServerMetrics.UDP);
+		}
+	}
+
+	/**
+	 * Leave out of a hand the cards too large for a packet, which cannot
+	 * be sent, keeping the others in order in the hand of the receive loop.
+	 * @param loop - The receive loop, whose hand holds the cards kept.
+	 * @param hand - The cards drawn, which may be the hand of the loop.
+	 * @param drawn - The number of cards drawn.
+	 * @param format - The format the cards are sent in.
+	 * @param encoded - The cards of the deck, already encoded.
+	 * @return The number of cards kept.
+	 */
+	private int leaveOutOversized(ReceiveLoop loop, Card[] hand, int drawn,
+			WireFormat format, EncodedCards encoded) {
+		int kept = 0;
+
+		if (loop.hand.length < drawn) {
+			loop.hand = Arrays.copyOf(loop.hand, drawn);
+		}
+		for (int i = 0; i < drawn; i++) {
+			if (encoded.length(hand[i], format) <= MAX_CARD) {
+				loop.hand[kept++] = hand[i];
+			}
+		}
+		System.err.println("UDP left out " + (drawn - kept)
+				+ " cards too large for a packet");
+		return kept;
+	}
+
+	/**
+	 * Hands drawn ahead of requests are not encoded, as each packet of a
+	 * response is encoded as it is sent.
+	 * @return false.
+	 */
+	@Override
+	protected boolean encodesHands() {
+		return false;
+	}
+
+	/**
+	 * Send the response to a request: one packet per card, or batched
+	 * packets, followed by an empty packet, or a reliable response, whose
+	 * packets are kept to be sent again.
+	 * @param channel - The socket to send the packets from.
+	 * @param request - The request of the client.
+	 * @param hand - The cards to send.
+	 * @param drawn - The number of cards in the hand.
+	 * @param encoded - The cards of the deck, already encoded.
+	 * @param payload - The buffer to hold the payload of each packet.
+	 * @param sent - The packets of reliable responses.
+	 * @param client - The address of the client.
+	 * @return The number of bytes sent.
+	 * @throws IOException - if a packet cannot be sent.
+	 */
+	private long respond(DatagramChannel channel, CardRequest request,
+			Card[] hand, int drawn, EncodedCards encoded, ByteBuffer payload,
+			UdpSendBuffer sent, SocketAddress client) throws IOException {
+		long bytes = 0;
+		// The id of the response, if it is batched.
+		int id = responses.incrementAndGet();
+
+		if (request.isReliable()) {
+			List<byte[]> packets = sendReliable(channel, id, hand, drawn,
+					encoded, payload, client);
+			sent.put(client, id, packets, System.currentTimeMillis());
+			for (byte[] packet : packets) {
+				bytes += packet.length;
+			}
+			return bytes;
+		} else if (request.isBatched()) {
+			bytes = sendBatched(channel, id, hand, drawn, encoded, payload,
+					client, null);
+		} else {
+			for (int i = 0; i < drawn; i++) {
+				encode(hand[i], request.getFormat(), encoded, payload);
+				bytes += sendPacket(channel, payload, client, null);
+			}
+		}
+		// Send empty packet to close.
+		payload.clear();
+		sendPacket(channel, payload, client, null);
+		return bytes;
+	}
+
+	/**
+	 * Send a hand of cards as batched packets followed by an END packet
+	 * holding the number of packets and cards sent.
+	 * @param channel - The socket to send the packets from.
+	 * @param id - The id of the response.
+	 * @param hand - The cards to send.
+	 * @param drawn - The number of cards in the hand.
+	 * @param encoded - The cards of the deck, already encoded.
+	 * @param payload - The buffer to hold the payload of each packet.
+	 * @param client - The address of the client.
+	 * @return A copy of every packet sent, indexed by sequence number,
+	 * with the END packet last.
+	 * @throws IOException - if a packet cannot be sent.
+	 */
+	private List<byte[]> sendReliable(DatagramChannel channel, int id,
+			Card[] hand, int drawn, EncodedCards encoded, ByteBuffer payload,
+			SocketAddress client) throws IOException {
+		// A copy of every packet sent.
+		List<byte[]> packets = new ArrayList<>();
+
+		sendBatched(channel, id, hand, drawn, encoded, payload, client,
+				packets);
+		payload.clear().position(CardPacket.HEADER_SIZE);
+		payload.putInt(drawn);
+		CardPacket.writeHeader(payload, CardPacket.END, id, packets.size(),
+				0);
+		sendPacket(channel, payload, client, packets);
+		return packets;
+	}
+
+	/**
+	 * Send again the packets of a reliable response which a client reports
+	 * missing, followed by the END packet of the response. Reports for
+	 * responses no longer held, or since replaced, are ignored. Each packet
+	 * is sent at most once per report, however often it is listed, so that
+	 * a report cannot make the server send more than the whole response.
+	 * @param channel - The socket to send the packets from.
+	 * @param sent - The packets of reliable responses.
+	 * @param command - The report sent by the client: NACK followed by the
+	 * id of the response and the sequence numbers of the missing packets.
+	 * @param client - The address of the client.
+	 * @throws IOException - if a packet cannot be sent.
+	 */
+	private void resend(DatagramChannel channel, UdpSendBuffer sent,
+			CharSequence command, SocketAddress client) throws IOException {
+		long id = Protocol.responseId(command);
+		// The packets of the response, the END packet last.
+		List<byte[]> packets = id < 0 ? null : sent.get(client, (int) id);
+
+		if (packets == null) {
+			return;
+		}
+		// The DATA packets already sent again.
+		BitSet resent = new BitSet(packets.size() - 1);
+		// The number of DATA packets which may still be sent again.
+		int left = packets.size() - 1;
+		// Read each word made only of digits after the id as a sequence
+		// number, skipping the NACK itself and anything else.
+		int i = 0;
+		boolean first = true;
+		while (i < command.length() && left > 0) {
+			int sequence = 0;
+			boolean digits = true;
+			int start = i;
+			for (; i < command.length() && command.charAt(i) > ' '; i++) {
+				char c = command.charAt(i);
+				digits &= c >= '0' && c <= '9';
+				sequence = Math.min(packets.size(), 10 * sequence
+						+ (c - '0'));
+			}
+			if (digits && i > start && first) {
+				first = false;
+			} else if (digits && i > start
+					&& sequence < packets.size() - 1
+					&& !resent.get(sequence)) {
+				resent.set(sequence);
+				left--;
+				channel.send(ByteBuffer.wrap(packets.get(sequence)), client);
+			}
+			i++;
+		}
+		channel.send(ByteBuffer.wrap(packets.get(packets.size() - 1)),
+				client);
+	}
+
+	/**
+	 * Send a hand of cards packed into as few packets as possible. Each
+	 * packet starts with a header holding the id of the response, its
+	 * sequence number and the number of cards it holds, and is no larger
+	 * than the payload size, unless a single card does not fit in it. No
+	 * card may be larger than the buffer holding the payload.
+	 * @param channel - The socket to send the packets from.
+	 * @param id - The id of the response.
+	 * @param hand - The cards to send.
+	 * @param drawn - The number of cards in the hand.
+	 * @param encoded - The cards of the deck, already encoded.
+	 * @param payload - The buffer to hold the payload of each packet.
+	 * @param client - The address of the client.
+	 * @param packets - If not null, a copy of each packet sent is added to
+	 * it so that the packet can be sent again.
+	 * @return The number of bytes sent.
+	 * @throws IOException - if a packet cannot be sent.
+	 */
+	private long sendBatched(DatagramChannel channel, int id, Card[] hand,
+			int drawn, EncodedCards encoded, ByteBuffer payload,
+			SocketAddress client, List<byte[]> packets) throws IOException {
+		// The sequence number of the packet being filled.
+		int sequence = 0;
+		// The number of cards in the packet being filled.
+		int count = 0;
+		// The number of bytes sent.
+		long bytes = 0;
+
+		payload.clear().limit(payloadSize).position(CardPacket.HEADER_SIZE);
+		for (int i = 0; i < drawn; i++) {
+			int length = encoded.length(hand[i], WireFormat.BINARY);
+			if (count > 0 && payload.remaining() < length) {
+				CardPacket.writeHeader(payload, CardPacket.DATA, id,
+						sequence++, count);
+				bytes += sendPacket(channel, payload, client, packets);
+				payload.clear().limit(payloadSize)
+						.position(CardPacket.HEADER_SIZE);
+				count = 0;
+			}
+			if (payload.remaining() < length) {
+				payload.limit(payload.capacity());
+			}
+			encoded.copy(hand[i], WireFormat.BINARY, payload);
+			count++;
+		}
+		if (count > 0) {
+			CardPacket.writeHeader(payload, CardPacket.DATA, id, sequence,
+					count);
+			bytes += sendPacket(channel, payload, client, packets);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Send the payload held in a buffer as a single packet.
+	 * @param channel - The socket to send the packet from.
+	 * @param payload - The buffer holding the payload, up to its position.
+	 * @param client - The address of the client.
+	 * @param packets - If not null, a copy of the packet is added to it.
+	 * @return The number of bytes sent.
+	 * @throws IOException - if the packet cannot be sent.
+	 */
+	private int sendPacket(DatagramChannel channel, ByteBuffer payload,
+			SocketAddress client, List<byte[]> packets) throws IOException {
+		int length = payload.position();
+
+		payload.flip();
+		channel.send(payload, client);
+		payload.limit(payload.capacity()).position(length);
+		if (packets != null) {
+			packets.add(Arrays.copyOf(payload.array(), length));
+		}
+		return length;
+	}
+
+	/**
+	 * Encode a single card into the payload of a packet. A card in the
+	 * binary format is preceded by the format version; otherwise it is
+	 * written with Java serialization. The bytes are copied from the cards
+	 * encoded when the deck was read.
+	 * @param card - The card to encode.
+	 * @param format - The format in which to encode the card.
+	 * @param encoded - The cards of the deck, already encoded.
+	 * @param payload - The buffer to hold the payload, which is cleared.
+	 */
+	private void encode(Card card, WireFormat format, EncodedCards encoded,
+			ByteBuffer payload) {
+		payload.clear();
+		if (format == WireFormat.BINARY) {
+			payload.put((byte) Protocol.VERSION);
+		}
+		encoded.copy(card, format, payload);
+	}
+
+	/**
+	 * A receive loop: a socket bound to the port of the server, and the
+	 * buffers the loop reuses for every request it answers.
+	 */
+	private class ReceiveLoop {
+		/** The socket of the loop. */
+		private final DatagramChannel channel;
+		/** Holds each request received. */
+		private final ByteBuffer received = ByteBuffer.allocate(SIZE);
+		/** Reads each request received in place. */
+		private final AsciiView command = new AsciiView();
+		/** Holds the payload of each packet sent, which may be as large
+		 * as any packet, so that any card which fits in a packet can be
+		 * sent in one of its own. */
+		private final ByteBuffer payload =
+				ByteBuffer.allocate(CardPacket.MAX_SIZE);
+		/** Holds the packets of reliable responses sent from the socket. */
+		private final UdpSendBuffer sent = new UdpSendBuffer();
+		/** Holds the hand drawn for each request. */
+		private Card[] hand = new Card[THREE_TYPES];
+
+		/**
+		 * Create a receive loop.
+		 * @param channel - The socket of the loop.
+		 */
+		private ReceiveLoop(DatagramChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Answer requests until the socket is closed.
+		 * @throws IOException - if a request cannot be received.
+		 */
+		private void run() throws IOException {
+			while (channel.isOpen()) {
+				received.clear();
+				SocketAddress client = channel.receive(received);
+				long started = System.nanoTime();
+				try {
+					serve(this, command.wrap(received.array(), 0,
+							received.position()), client, started);
+				} catch (RuntimeException ex) {
+					// A request which cannot be answered does not stop
+					// the loop from answering others.
+					System.err.println("UDP request error: " + ex);
+					getMetrics().sendFailed(ServerMetrics.UDP);
+				}
+			}
 		}
 	}
 }
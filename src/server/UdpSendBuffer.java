@@ -0,0 +1,131 @@
+package server;
+
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class holds the packets of recent reliable UDP responses, so that any
+ * packet a client reports missing can be sent again. Each response is kept
+ * for a short time, or until the client acknowledges it. A client has at
+ * most one response held at a time, and reports and acknowledgements name
+ * the id of the response they refer to, so those of a response since
+ * replaced are ignored. This class is not thread safe; it is
+ * owned by the thread which serves the socket.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class UdpSendBuffer {
+	/** The default number of milliseconds to hold a response. */
+	public static final long DEFAULT_RETAIN = 2000;
+	/** The number of milliseconds to hold a response. */
+	private final long retain;
+	/** The packets of each response, oldest response first. */
+	private final LinkedHashMap<SocketAddress, Response> responses;
+
+	/**
+	 * Create a new, empty UdpSendBuffer which holds responses for
+	 * the default time.
+	 */
+	public UdpSendBuffer() {
+		this(DEFAULT_RETAIN);
+	}
+
+	/**
+	 * Create a new, empty UdpSendBuffer.
+	 * @param retain - The number of milliseconds to hold a response.
+	 */
+	public UdpSendBuffer(long retain) {
+		this.retain = retain;
+		this.responses = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Hold the packets of a response sent to a client, replacing any
+	 * response held for the client before.
+	 * @param client - The address of the client.
+	 * @param id - The id of the response.
+	 * @param packets - The packets of the response, indexed by sequence.
+	 * @param now - The current time in milliseconds.
+	 */
+	public void put(SocketAddress client, int id, List<byte[]> packets,
+			long now) {
+		responses.remove(client);
+		responses.put(client, new Response(id, packets, now + retain));
+	}
+
+	/**
+	 * Get the packets of the response held for a client.
+	 * @param client - The address of the client.
+	 * @param id - The id of the response.
+	 * @return The packets of the response, indexed by sequence, or null
+	 * if the response held for the client, if any, has another id.
+	 */
+	public List<byte[]> get(SocketAddress client, int id) {
+		Response response = responses.get(client);
+		return response == null || response.id != id
+				? null : response.packets;
+	}
+
+	/**
+	 * Stop holding the response for a client, once it has every packet.
+	 * @param client - The address of the client.
+	 * @param id - The id of the response, which is kept if the response
+	 * held for the client has another id.
+	 */
+	public void remove(SocketAddress client, int id) {
+		if (get(client, id) != null) {
+			responses.remove(client);
+		}
+	}
+
+	/**
+	 * Stop holding every response older than the retain time. Responses
+	 * are held in the order they were sent, so only the expired ones
+	 * are looked at.
+	 * @param now - The current time in milliseconds.
+	 */
+	public void expire(long now) {
+		Iterator<Map.Entry<SocketAddress, Response>> it =
+				responses.entrySet().iterator();
+
+		while (it.hasNext() && it.next().getValue().expires <= now) {
+			it.remove();
+		}
+	}
+
+	/**
+	 * Get the number of responses being held.
+	 * @return The number of responses being held.
+	 */
+	public int size() {
+		return responses.size();
+	}
+
+	/**
+	 * The packets of one response and the time at which they expire.
+	 */
+	private static class Response {
+		/** The id of the response. */
+		private final int id;
+		/** The packets of the response, indexed by sequence. */
+		private final List<byte[]> packets;
+		/** The time in milliseconds at which the response expires. */
+		private final long expires;
+
+		/**
+		 * Create a new held response.
+		 * @param id - The id of the response.
+		 * @param packets - The packets of the response.
+		 * @param expires - The time at which the response expires.
+		 */
+		private Response(int id, List<byte[]> packets, long expires) {
+			this.id = id;
+			this.packets = packets;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import common.Card;
+import common.Protocol;
+
+/**
+ * Tests the reports of missing packets a UDP client sends.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class MagicUdpClientTest {
+	/**
+	 * A report lists the missing packets, after the id of the response.
+	 */
+	@Test
+	public void nackListsMissingPackets() {
+		TreeMap<Integer, List<Card>> received = new TreeMap<>();
+		received.put(0, Collections.emptyList());
+		received.put(2, Collections.emptyList());
+
+		assertEquals(Protocol.NACK + " 4294967295 1 3 4", new String(
+				MagicUdpClient.nack(-1, received, 5),
+				StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * A report of more packets than fit in a request the server reads
+	 * whole lists only those which fit, so that none is cut short.
+	 */
+	@Test
+	public void nackFitsInRequest() {
+		byte[] nack = MagicUdpClient.nack(1, new TreeMap<>(), 60000);
+		String report = new String(nack, StandardCharsets.US_ASCII);
+
+		assertTrue(nack.length <= Protocol.MAX_REQUEST);
+		assertTrue(report.startsWith(Protocol.NACK + " 1 0 1 2 "), report);
+		assertTrue(Character.isDigit(report.charAt(report.length() - 1)));
+	}
+}
@@ -0,0 +1,159 @@
+package common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the binary wire format of cards.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class CardCodecTest {
+	/** Cards with ids at either end of a short, names and mana outside
+	 * ASCII, and an empty mana. */
+	private static final Card[] CARDS = {
+			new Card((short) 0, "Llanowar Elves", Type.CREATURE, "G"),
+			new Card(Short.MIN_VALUE, "Æther Vial", Type.ARTIFACT, "1"),
+			new Card(Short.MAX_VALUE, "Forest", Type.LAND, ""),
+			new Card((short) -1, "Fireball, \"X\"", Type.SPELL, "XR"),
+			new Card((short) 42, "日本語", Type.UNKNOWN, "{2}{U}") };
+
+	/**
+	 * Each card written to a stream reads back as itself, taking the
+	 * number of bytes its length gives.
+	 * @throws IOException - if a card cannot be read.
+	 */
+	@Test
+	public void cardsRoundTripThroughStreams() throws IOException {
+		for (Card card : CARDS) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			CardCodec.write(card, new DataOutputStream(bytes));
+			assertEquals(CardCodec.length(card), bytes.size());
+			assertCard(card, CardCodec.read(in(bytes.toByteArray())));
+		}
+	}
+
+	/**
+	 * Each card encoded into a buffer decodes as itself, and the length
+	 * read from the buffer is the length of the card.
+	 * @throws IOException - if a card cannot be decoded.
+	 */
+	@Test
+	public void cardsRoundTripThroughBuffers() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+		for (Card card : CARDS) {
+			CardCodec.encode(card, buffer);
+		}
+		buffer.flip();
+		for (Card card : CARDS) {
+			assertEquals(CardCodec.length(card), CardCodec.length(buffer));
+			assertCard(card, CardCodec.decode(buffer));
+		}
+		assertEquals(0, buffer.remaining());
+	}
+
+	/**
+	 * The length of a card is only given once enough of it has arrived,
+	 * and a card cut short is not decoded.
+	 */
+	@Test
+	public void partialCardsAreNotRead() {
+		Card card = CARDS[3];
+		ByteBuffer whole = ByteBuffer.allocate(CardCodec.length(card));
+		CardCodec.encode(card, whole);
+		// The bytes needed to tell the length: up to the mana length.
+		int known = whole.capacity() - card.getMana().length();
+
+		for (int size = 0; size < whole.capacity(); size++) {
+			ByteBuffer part = ByteBuffer.wrap(whole.array(), 0, size);
+			int length = CardCodec.length(part);
+			if (size < known) {
+				assertEquals(-1, length, "size " + size);
+			} else {
+				assertEquals(whole.capacity(), length, "size " + size);
+			}
+			assertThrows(IOException.class, () -> CardCodec.decode(part),
+					"size " + size);
+		}
+	}
+
+	/**
+	 * A header of another version of the format is refused.
+	 */
+	@Test
+	public void otherVersionsAreRefused() {
+		byte[] bytes = { (byte) (Protocol.VERSION + 1), 0, 0, 0, 1 };
+
+		assertThrows(IOException.class,
+				() -> CardCodec.readHeader(in(bytes)));
+	}
+
+	/**
+	 * A header reads back the number of cards written.
+	 * @throws IOException - if the header cannot be read.
+	 */
+	@Test
+	public void headerRoundTrips() throws IOException {
+		for (int count : new int[] { 0, 1, Protocol.MAX_CARDS }) {
+			assertEquals(count, CardCodec.readHeader(in(header(count))));
+		}
+	}
+
+	/**
+	 * A header giving a number of cards no response may hold is refused,
+	 * rather than trusted to size the hand.
+	 */
+	@Test
+	public void headerCountIsChecked() {
+		for (int count : new int[] { -1, Integer.MIN_VALUE,
+				Protocol.MAX_CARDS + 1, Integer.MAX_VALUE }) {
+			assertThrows(IOException.class,
+					() -> CardCodec.readHeader(in(header(count))));
+		}
+	}
+
+	/**
+	 * Make sure a card read back is the card written.
+	 * @param expected - The card written.
+	 * @param actual - The card read.
+	 */
+	private static void assertCard(Card expected, Card actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getType(), actual.getType());
+		assertEquals(expected.getMana(), actual.getMana());
+	}
+
+	/**
+	 * Write the header of a hand.
+	 * @param count - The number of cards the header gives.
+	 * @return The bytes of the header.
+	 * @throws IOException - if the header cannot be written.
+	 */
+	private static byte[] header(int count) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		CardCodec.writeHeader(count, new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Read from bytes.
+	 * @param bytes - The bytes to read.
+	 * @return A stream of the bytes.
+	 */
+	private static DataInputStream in(byte[] bytes) {
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+}
@@ -0,0 +1,65 @@
+package common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the header of batched UDP packets.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class CardPacketTest {
+	/**
+	 * A header reads back as written, the sequence and count as unsigned,
+	 * leaving the buffer at the first card.
+	 * @throws IOException - if the header cannot be read.
+	 */
+	@Test
+	public void headerRoundTrips() throws IOException {
+		ByteBuffer payload = ByteBuffer.allocate(CardPacket.HEADER_SIZE + 3);
+
+		CardPacket.writeHeader(payload, CardPacket.DATA, -7, 0xFFFF, 40000);
+		assertEquals(0, payload.position());
+		CardPacket header = CardPacket.readHeader(payload);
+		assertEquals(CardPacket.DATA, header.getKind());
+		assertEquals(-7, header.getResponse());
+		assertEquals(0xFFFF, header.getSequence());
+		assertEquals(40000, header.getCount());
+		assertEquals(CardPacket.HEADER_SIZE, payload.position());
+	}
+
+	/**
+	 * A packet shorter than a header, or of another version, is refused.
+	 */
+	@Test
+	public void badHeadersAreRefused() {
+		ByteBuffer other = ByteBuffer.allocate(CardPacket.END_SIZE);
+		CardPacket.writeHeader(other, CardPacket.END, 1, 0, 0);
+		other.put(0, (byte) (Protocol.VERSION + 1));
+
+		assertThrows(IOException.class, () -> CardPacket.readHeader(
+				ByteBuffer.allocate(CardPacket.HEADER_SIZE - 1)));
+		assertThrows(IOException.class, () -> CardPacket.readHeader(other));
+	}
+
+	/**
+	 * Later responses are newer, also once the ids wrap around.
+	 */
+	@Test
+	public void newerAllowsForWrapping() {
+		assertTrue(CardPacket.isNewer(2, 1));
+		assertFalse(CardPacket.isNewer(1, 2));
+		assertFalse(CardPacket.isNewer(5, 5));
+		assertTrue(CardPacket.isNewer(Integer.MIN_VALUE, Integer.MAX_VALUE));
+		assertFalse(CardPacket.isNewer(Integer.MAX_VALUE, Integer.MIN_VALUE));
+		assertTrue(CardPacket.isNewer(0, -1));
+	}
+}
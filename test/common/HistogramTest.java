@@ -0,0 +1,89 @@
+package common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the bucket math and statistics of histograms.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class HistogramTest {
+	/**
+	 * Buckets follow the order of values, and every non-negative long has
+	 * one.
+	 */
+	@Test
+	public void bucketsCoverEveryLong() {
+		int last = -1;
+
+		for (long value = 0; value < 1 << 16; value++) {
+			int index = Histogram.index(value);
+			assertTrue(index == last || index == last + 1, "" + value);
+			last = index;
+		}
+		for (int bit = 16; bit < Long.SIZE - 1; bit++) {
+			assertTrue(Histogram.index((1L << bit) - 1)
+					< Histogram.index(1L << bit));
+		}
+		assertTrue(Histogram.index(Long.MAX_VALUE) < Histogram.BUCKETS);
+	}
+
+	/**
+	 * Small values are kept exactly, and every value to within 1 part in
+	 * 128, never below it.
+	 */
+	@Test
+	public void valuesKeepTheirPrecision() {
+		Random generator = new Random(7);
+
+		for (int i = 0; i < 10000; i++) {
+			long value = i < 256 ? i
+					: generator.nextLong() >>> 1 + generator.nextInt(63);
+			Histogram histogram = new Histogram();
+			histogram.record(value);
+			histogram.record(Long.MAX_VALUE);
+			long kept = histogram.getValueAtPercentile(50);
+			assertTrue(kept >= value && kept - value <= value / 128,
+					value + " kept as " + kept);
+			if (value < 256) {
+				assertEquals(value, kept);
+			}
+		}
+	}
+
+	/**
+	 * Percentiles, count, mean and extremes follow the values recorded,
+	 * also once histograms are added together or reset.
+	 */
+	@Test
+	public void statisticsFollowValues() {
+		Histogram low = new Histogram();
+		Histogram high = new Histogram();
+
+		assertEquals(0, low.getValueAtPercentile(50));
+		assertEquals(0, low.getMin());
+		for (int value = 1; value <= 100; value++) {
+			(value <= 50 ? low : high).record(value);
+		}
+		low.record(-5);
+		low.add(high);
+
+		assertEquals(101, low.getCount());
+		assertEquals(0, low.getMin());
+		assertEquals(100, low.getMax());
+		assertEquals(5050 / 101.0, low.getMean(), 1e-9);
+		assertEquals(50, low.getValueAtPercentile(50));
+		assertEquals(99, low.getValueAtPercentile(99));
+		assertEquals(100, low.getValueAtPercentile(100));
+		assertEquals(0, low.getValueAtPercentile(0));
+		low.reset();
+		assertEquals(0, low.getCount());
+		assertEquals(0, low.getMax());
+	}
+}
@@ -0,0 +1,71 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that indexes are drawn in proportion to their weights.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class AliasTableTest {
+	/** The number of draws each test makes. */
+	private static final int DRAWS = 200000;
+
+	/**
+	 * Each index is drawn about as often as its share of the weight, and
+	 * indexes without weight never.
+	 */
+	@Test
+	public void drawsFollowWeights() {
+		double[] weights = { 10, 0, 3, 0.875, 0.125, 6, 0 };
+		AliasTable table = new AliasTable(weights);
+		int[] counts = draw(table);
+
+		assertEquals(weights.length, table.size());
+		assertEquals(5, table.drawable());
+		assertTrue(table.hasWeights());
+		for (int i = 0; i < weights.length; i++) {
+			double expected = DRAWS * weights[i] / 20;
+			// Well over four standard deviations of a binomial count.
+			assertEquals(expected, counts[i], 5 * Math.sqrt(expected) + 1,
+					"index " + i);
+		}
+	}
+
+	/**
+	 * Every index is drawn alike when every weight is 0.
+	 */
+	@Test
+	public void zeroWeightsDrawUniformly() {
+		AliasTable table = new AliasTable(new double[4]);
+		int[] counts = draw(table);
+
+		assertEquals(4, table.drawable());
+		assertFalse(table.hasWeights());
+		for (int count : counts) {
+			assertEquals(DRAWS / 4.0, count, 5 * Math.sqrt(DRAWS / 4.0));
+		}
+	}
+
+	/**
+	 * Draw from a table many times with a fixed seed.
+	 * @param table - The table to draw from.
+	 * @return How often each index was drawn.
+	 */
+	private static int[] draw(AliasTable table) {
+		Random generator = new Random(42);
+		int[] counts = new int[table.size()];
+
+		for (int i = 0; i < DRAWS; i++) {
+			counts[table.next(generator)]++;
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,201 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import common.Card;
+import common.Type;
+
+/**
+ * Tests the parsing of cards files.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class CardLoaderTest {
+	/** Holds the files written by the tests. */
+	@TempDir
+	Path folder;
+
+	/**
+	 * Ids are read as Short.parseShort reads them, sign and all.
+	 * @throws IOException - if the file cannot be read.
+	 */
+	@Test
+	public void idsFollowParseShort() throws IOException {
+		List<Card> cards = load("-32768,A,Land\n+5,B,Land\n"
+				+ " 32767 ,C,Land\n-0,D,Land\n");
+
+		assertEquals(4, cards.size());
+		assertEquals(Short.MIN_VALUE, cards.get(0).getId());
+		assertEquals(5, cards.get(1).getId());
+		assertEquals(Short.MAX_VALUE, cards.get(2).getId());
+		assertEquals(0, cards.get(3).getId());
+	}
+
+	/**
+	 * An id which is not a short makes the row malformed.
+	 */
+	@Test
+	public void idsOutsideShortAreMalformed() {
+		for (String id : new String[] { "32768", "-32769", "-", "+", "",
+				"1-2", "x" }) {
+			assertThrows(IOException.class, () -> load(id + ",A,Land\n"),
+					id);
+		}
+	}
+
+	/**
+	 * Quoted fields may hold commas and doubled quotes, and need not be
+	 * quoted whole.
+	 * @throws IOException - if the file cannot be read.
+	 */
+	@Test
+	public void quotedFieldsKeepCommasAndQuotes() throws IOException {
+		List<Card> cards = load("1,\"Fire, Ice\",Instant,\"{1}{R}\"\n"
+				+ "2,\"Say \"\"hi\"\"\",Creature - Elf,G\n"
+				+ "3,\"\",Land,\"\"\n");
+
+		assertEquals(3, cards.size());
+		assertEquals("Fire, Ice", cards.get(0).getName());
+		assertEquals(Type.SPELL, cards.get(0).getType());
+		assertEquals("{1}{R}", cards.get(0).getMana());
+		assertEquals("Say \"hi\"", cards.get(1).getName());
+		assertEquals(Type.CREATURE, cards.get(1).getType());
+		assertEquals("", cards.get(2).getName());
+		assertEquals("", cards.get(2).getMana());
+	}
+
+	/**
+	 * Blank lines are skipped, carriage returns dropped, the last row need
+	 * not end a line, and fields past the weight are ignored.
+	 * @throws IOException - if the file cannot be read.
+	 */
+	@Test
+	public void linesAreReadLeniently() throws IOException {
+		List<Card> cards = load("\n1,Forest,Land\r\n\r\n\n"
+				+ "2,Bolt,Instant,R,2,extra,fields\n3,Ox,Creature,W");
+
+		assertEquals(3, cards.size());
+		assertEquals(Type.LAND, cards.get(0).getType());
+		assertEquals("", cards.get(0).getMana());
+		assertEquals(2, cards.get(1).getId());
+		assertEquals("R", cards.get(1).getMana());
+		assertEquals(2, cards.get(1).getWeight());
+		assertEquals("W", cards.get(2).getMana());
+	}
+
+	/**
+	 * A weight is a number or a rarity, and weighs 1 if missing or blank.
+	 * @throws IOException - if the file cannot be read.
+	 */
+	@Test
+	public void weightsAreNumbersOrRarities() throws IOException {
+		List<Card> cards = load("1,A,Land\n2,B,Land,,\n3,C,Land,,0.5\n"
+				+ "4,D,Land,, Common \n5,E,Land,,UNCOMMON\n6,F,Land,,rare\n"
+				+ "7,G,Land,,mythic\n8,H,Land,,0\n");
+		double[] weights = { 1, 1, 0.5, 10, 3, 0.875, 0.125, 0 };
+
+		assertEquals(weights.length, cards.size());
+		for (int i = 0; i < weights.length; i++) {
+			assertEquals(weights[i], cards.get(i).getWeight(), "row " + i);
+		}
+	}
+
+	/**
+	 * A row without a type line, or with a weight which is negative, not
+	 * finite, or neither a number nor a rarity, is refused with the byte
+	 * at which it starts.
+	 */
+	@Test
+	public void malformedRowsAreRefused() {
+		for (String row : new String[] { "1,A", "1", ",A,Land",
+				"1,A,Land,,-1", "1,A,Land,,NaN", "1,A,Land,,Infinity",
+				"1,A,Land,,legendary" }) {
+			IOException ex = assertThrows(IOException.class,
+					() -> load("0,Fine,Land\n" + row + "\n"), row);
+			assertTrue(ex.getMessage().contains("at byte 12 "),
+					ex.getMessage());
+		}
+	}
+
+	/**
+	 * A file large enough to be parsed in parallel chunks gives the cards
+	 * a single chunk gives, in the same order, whether they are collected
+	 * into a list or handed to a sink for each chunk.
+	 * @throws IOException - if the file cannot be read.
+	 */
+	@Test
+	public void chunksGiveTheCardsOfTheWholeFile() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; text.length() < 3 << 20; i++) {
+			text.append((short) i).append(",\"Card, number ").append(i)
+					.append("\",Creature - Elf,{").append(i % 9)
+					.append("}{G},").append(i % 4 == 0 ? "rare" : "2")
+					.append(i % 3 == 0 ? "\r\n" : "\n");
+		}
+		Path file = write(text.toString());
+
+		List<Card> whole = CardLoader.load(file.toString(), 1);
+		List<Card> chunked = CardLoader.load(file.toString(), 7);
+		List<List<Card>> sinks = CardLoader.load(file.toString(), 7,
+				ArrayList<Card>::new, List::add);
+		List<Card> sunk = new ArrayList<>();
+		sinks.forEach(sunk::addAll);
+
+		assertTrue(sinks.size() > 1);
+		assertEquals(whole.size(), chunked.size());
+		assertEquals(whole.size(), sunk.size());
+		for (int i = 0; i < whole.size(); i++) {
+			assertCard(whole.get(i), chunked.get(i));
+			assertCard(whole.get(i), sunk.get(i));
+		}
+	}
+
+	/**
+	 * Make sure two cards are the same in every field.
+	 * @param expected - The expected card.
+	 * @param actual - The card read.
+	 */
+	private static void assertCard(Card expected, Card actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getType(), actual.getType());
+		assertEquals(expected.getMana(), actual.getMana());
+		assertEquals(expected.getWeight(), actual.getWeight());
+	}
+
+	/**
+	 * Read the cards of a file holding the given text.
+	 * @param text - The rows of the file.
+	 * @return The cards of the file.
+	 * @throws IOException - if the file cannot be written or read.
+	 */
+	private List<Card> load(String text) throws IOException {
+		return CardLoader.load(write(text).toString());
+	}
+
+	/**
+	 * Write a cards file holding the given text.
+	 * @param text - The rows of the file.
+	 * @return The file.
+	 * @throws IOException - if the file cannot be written.
+	 */
+	private Path write(String text) throws IOException {
+		Path file = folder.resolve("cards.csv");
+
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -0,0 +1,101 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import common.Card;
+import common.Type;
+
+/**
+ * Tests that a deck held in columns gives back the cards it was built
+ * from.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class ColumnarDeckTest {
+	/** A deck sharing names and mana between cards, some not ASCII. */
+	private static final List<Card> DECK = Arrays.asList(
+			new Card((short) 5, "Island", Type.LAND, "", 10),
+			new Card((short) -9, "Æther Adept", Type.CREATURE, "1UU", 3),
+			new Card((short) 12, "Island", Type.LAND, "", 0.125),
+			new Card(Short.MAX_VALUE, "Opt", Type.SPELL, "U", 0),
+			new Card((short) 0, "Ornithopter", Type.ARTIFACT, "", 1));
+
+	/**
+	 * A deck built from a list gives back every card of the list, in
+	 * order, and reads its columns without building cards.
+	 */
+	@Test
+	public void deckGivesBackItsCards() {
+		ColumnarDeck deck = new ColumnarDeck(DECK);
+
+		assertDeck(deck);
+		for (int i = 0; i < DECK.size(); i++) {
+			assertEquals(DECK.get(i).getId(), deck.id(i));
+			assertEquals(DECK.get(i).getType(), deck.type(i));
+			assertEquals(DECK.get(i).getWeight(), deck.weight(i));
+		}
+		assertThrows(UnsupportedOperationException.class,
+				() -> deck.set(0, DECK.get(1)));
+	}
+
+	/**
+	 * Builders filled separately and joined give the deck of all their
+	 * cards in order, each with its own strings.
+	 */
+	@Test
+	public void joinedBuildersKeepTheirCards() {
+		ColumnarDeck.Builder first = new ColumnarDeck.Builder();
+		ColumnarDeck.Builder second = new ColumnarDeck.Builder();
+		ColumnarDeck.Builder empty = new ColumnarDeck.Builder();
+
+		for (int i = 0; i < DECK.size(); i++) {
+			(i < 2 ? first : second).add(DECK.get(i));
+		}
+		first.addAll(empty);
+		first.addAll(second);
+		assertDeck(first.build());
+		assertEquals(0, empty.build().size());
+	}
+
+	/**
+	 * A deck larger than the first columns of a builder grows them.
+	 */
+	@Test
+	public void builderGrows() {
+		ColumnarDeck.Builder builder = new ColumnarDeck.Builder();
+
+		for (int i = 0; i < 5000; i++) {
+			builder.add(new Card((short) i, "Card " + i, Type.CREATURE,
+					i % 2 == 0 ? "G" : "", i));
+		}
+		ColumnarDeck deck = builder.build();
+		assertEquals(5000, deck.size());
+		assertEquals("Card 4999", deck.get(4999).getName());
+		assertEquals("", deck.get(4999).getMana());
+		assertEquals(4998, deck.weight(4998));
+	}
+
+	/**
+	 * Make sure a deck holds the cards of DECK, in order.
+	 * @param deck - The deck.
+	 */
+	private static void assertDeck(List<Card> deck) {
+		assertEquals(DECK.size(), deck.size());
+		for (int i = 0; i < DECK.size(); i++) {
+			Card expected = DECK.get(i);
+			Card actual = deck.get(i);
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.getType(), actual.getType());
+			assertEquals(expected.getMana(), actual.getMana());
+			assertEquals(expected.getWeight(), actual.getWeight());
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import common.Card;
+import common.Type;
+
+/**
+ * Tests that snapshots of a deck read back as the deck, and only while
+ * they are up to date.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class DeckSnapshotTest {
+	/** A deck sharing a name and a mana between cards. */
+	private static final List<Card> DECK = Arrays.asList(
+			new Card((short) 3, "Forest", Type.LAND, "", 10),
+			new Card((short) -2, "Forest", Type.LAND, "", 0.125),
+			new Card((short) 9, "Grizzly Bears", Type.CREATURE, "1G", 3),
+			new Card((short) 1, "Giant Growth", Type.SPELL, "G", 0));
+
+	/** Holds the files written by the tests. */
+	@TempDir
+	Path folder;
+	/** The .csv file whose snapshot the tests write. */
+	private Path file;
+
+	/**
+	 * Write the .csv file the snapshot is made from.
+	 * @throws IOException - if the file cannot be written.
+	 */
+	@BeforeEach
+	public void writeFile() throws IOException {
+		file = folder.resolve("cards.csv");
+		Files.write(file, "not read by these tests\n".getBytes());
+	}
+
+	/**
+	 * A snapshot reads back as the deck written, as a list of cards or as
+	 * columns.
+	 * @throws IOException - if the snapshot cannot be written.
+	 */
+	@Test
+	public void snapshotRoundTrips() throws IOException {
+		write();
+
+		assertDeck(DeckSnapshot.read(file.toString()));
+		assertDeck(DeckSnapshot.readColumnar(file.toString()));
+	}
+
+	/**
+	 * A snapshot of a .csv file which has since changed length or
+	 * modification time is ignored.
+	 * @throws IOException - if a file cannot be written.
+	 */
+	@Test
+	public void staleSnapshotIsIgnored() throws IOException {
+		write();
+		Files.write(file, "a different length\n".getBytes());
+		assertNull(DeckSnapshot.read(file.toString()));
+
+		write();
+		assertNotNull(DeckSnapshot.read(file.toString()));
+		file.toFile().setLastModified(file.toFile().lastModified() - 5000);
+		assertNull(DeckSnapshot.read(file.toString()));
+		assertNull(DeckSnapshot.readColumnar(file.toString()));
+	}
+
+	/**
+	 * A snapshot whose bytes were damaged, or which is missing, is
+	 * ignored.
+	 * @throws IOException - if a file cannot be written.
+	 */
+	@Test
+	public void damagedSnapshotIsIgnored() throws IOException {
+		assertNull(DeckSnapshot.read(file.toString()));
+		write();
+		try (RandomAccessFile snapshot = new RandomAccessFile(
+				DeckSnapshot.snapshotOf(file.toString()), "rw")) {
+			snapshot.seek(snapshot.length() / 2);
+			int b = snapshot.read();
+			snapshot.seek(snapshot.length() / 2);
+			snapshot.write(b ^ 1);
+		}
+		assertNull(DeckSnapshot.read(file.toString()));
+	}
+
+	/**
+	 * Write the snapshot of the deck, stamped with the file as it is now.
+	 * @throws IOException - if the snapshot cannot be written.
+	 */
+	private void write() throws IOException {
+		DeckSnapshot.write(file.toString(), DECK, file.toFile().length(),
+				file.toFile().lastModified());
+	}
+
+	/**
+	 * Make sure a deck read back holds the cards of the deck written.
+	 * @param cards - The deck read back.
+	 */
+	private static void assertDeck(List<Card> cards) {
+		assertNotNull(cards);
+		assertEquals(DECK.size(), cards.size());
+		for (int i = 0; i < DECK.size(); i++) {
+			Card expected = DECK.get(i);
+			Card actual = cards.get(i);
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.getType(), actual.getType());
+			assertEquals(expected.getMana(), actual.getMana());
+			assertEquals(expected.getWeight(), actual.getWeight());
+		}
+	}
+}
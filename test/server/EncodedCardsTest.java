@@ -0,0 +1,141 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import common.Card;
+import common.CardCodec;
+import common.Protocol;
+import common.Type;
+import common.WireFormat;
+
+/**
+ * Tests that every card of a deck is sent with its own encoding.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class EncodedCardsTest {
+	/** A deck whose ids are out of order, negative and past 32767 read as
+	 * unsigned. */
+	private static final List<Card> DECK = Arrays.asList(
+			new Card((short) 7, "Alpha Bear", Type.CREATURE, "1G"),
+			new Card((short) 2, "Zeta Island", Type.LAND, ""),
+			new Card((short) -3, "Lightning Bolt", Type.SPELL, "R"),
+			new Card(Short.MAX_VALUE, "Sol Ring", Type.ARTIFACT, "1"));
+
+	/** Holds the files written by the tests. */
+	@TempDir
+	Path folder;
+
+	/**
+	 * Each card copied in the binary format decodes to that card.
+	 * @throws IOException - if a card cannot be decoded.
+	 */
+	@Test
+	public void binaryCardsDecodeToThemselves() throws IOException {
+		EncodedCards encoded = new EncodedCards(DECK);
+
+		for (Card card : DECK) {
+			ByteBuffer buffer = ByteBuffer.allocate(
+					encoded.length(card, WireFormat.BINARY));
+			encoded.copy(card, WireFormat.BINARY, buffer);
+			assertEquals(0, buffer.remaining());
+			buffer.flip();
+			assertCard(card, CardCodec.decode(buffer));
+		}
+	}
+
+	/**
+	 * Each card copied in the serialized format reads back as that card.
+	 * @throws Exception - if a card cannot be read.
+	 */
+	@Test
+	public void serialCardsReadToThemselves() throws Exception {
+		EncodedCards encoded = new EncodedCards(DECK);
+
+		for (Card card : DECK) {
+			ByteBuffer buffer = ByteBuffer.allocate(
+					encoded.length(card, WireFormat.SERIAL));
+			encoded.copy(card, WireFormat.SERIAL, buffer);
+			try (ObjectInputStream in = new ObjectInputStream(
+					new ByteArrayInputStream(buffer.array()))) {
+				assertCard(card, (Card) in.readObject());
+			}
+		}
+	}
+
+	/**
+	 * A whole hand encoded in the binary format holds its cards in order.
+	 * @throws IOException - if the hand cannot be decoded.
+	 */
+	@Test
+	public void handDecodesInOrder() throws IOException {
+		EncodedCards encoded = new EncodedCards(DECK);
+		Card[] hand = { DECK.get(2), DECK.get(0), DECK.get(3) };
+		ByteBuffer buffer = encoded.encode(hand, WireFormat.BINARY);
+
+		assertEquals(Protocol.VERSION, buffer.get());
+		assertEquals(hand.length, buffer.getInt());
+		for (Card card : hand) {
+			assertCard(card, CardCodec.decode(buffer));
+		}
+		assertEquals(0, buffer.remaining());
+	}
+
+	/**
+	 * Two cards sharing an id cannot be encoded, since the later one would
+	 * be sent in place of the earlier.
+	 */
+	@Test
+	public void sharedIdIsRejected() {
+		List<Card> deck = Arrays.asList(
+				new Card((short) 7, "Alpha Bear", Type.CREATURE, "1G"),
+				new Card((short) 7, "Zeta Island", Type.LAND, ""));
+
+		assertThrows(IllegalArgumentException.class,
+				() -> new EncodedCards(deck));
+	}
+
+	/**
+	 * A cards file with two cards sharing an id does not make a deck.
+	 * @throws IOException - if the file cannot be written.
+	 */
+	@Test
+	public void sharedIdInFileIsRejected() throws IOException {
+		Path file = folder.resolve("cards.csv");
+		Files.write(file, ("7,Alpha Bear,Creature - Bear,1G\n"
+				+ "7,Zeta Island,Basic Land - Island,\n")
+				.getBytes(StandardCharsets.UTF_8));
+
+		IOException ex = assertThrows(IOException.class,
+				() -> new CardSource(file.toString()));
+		assertTrue(ex.getMessage().contains("id 7"), ex.getMessage());
+	}
+
+	/**
+	 * Check that a card read back is the card written.
+	 * @param expected - The card written.
+	 * @param actual - The card read back.
+	 */
+	private static void assertCard(Card expected, Card actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getType(), actual.getType());
+		assertEquals(expected.getMana(), actual.getMana());
+	}
+}
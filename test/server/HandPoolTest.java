@@ -0,0 +1,174 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import common.Card;
+import common.CardCodec;
+import common.Type;
+import common.WireFormat;
+
+/**
+ * Tests that hands drawn ahead are taken by the requests they were drawn
+ * for, and only while their deck is in use.
+ * @author Kevin Filanowski
+ * @author Donny Queen
+ * @version October 2018
+ */
+public class HandPoolTest {
+	/** How long to wait for the pool to draw a hand. */
+	private static final long WAIT = TimeUnit.SECONDS.toNanos(10);
+
+	/** Holds the files written by the tests. */
+	@TempDir
+	Path folder;
+	/** The server the hands are drawn for, which never listens. */
+	private AbstractMagicServer server;
+
+	/**
+	 * Create a server with a deck of creatures, lands and spells, whose
+	 * hands are drawn ahead.
+	 * @throws IOException - if the deck cannot be written or read.
+	 */
+	@BeforeEach
+	public void startPool() throws IOException {
+		server = new AbstractMagicServer(0, source("deck.csv")) {
+			@Override
+			public void listen() {
+			}
+		};
+		server.poolHands(HandPool.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Stop drawing hands.
+	 */
+	@AfterEach
+	public void stopPool() {
+		server.poolHands(0);
+	}
+
+	/**
+	 * A request for the number of cards its flag gives soon takes a hand
+	 * of distinct cards of its type, already encoded as its response.
+	 * @throws IOException - if the encoded hand cannot be decoded.
+	 */
+	@Test
+	public void requestsTakeEncodedHands() throws IOException {
+		CardRequest request = server.pooledRequest(CardType.CREATURE, false,
+				WireFormat.BINARY);
+		HandPool.Hand hand = take(request, server.getSource());
+
+		assertNotNull(hand);
+		Card[] cards = hand.getCards();
+		assertEquals(request.getCount(), cards.length);
+		Set<Short> ids = new HashSet<>();
+		for (Card card : cards) {
+			assertEquals(Type.CREATURE, card.getType());
+			assertTrue(ids.add(card.getId()));
+		}
+		ByteBuffer encoding = hand.getEncoding();
+		encoding.position(1);
+		assertEquals(cards.length, encoding.getInt());
+		for (Card card : cards) {
+			assertEquals(card.getId(), CardCodec.decode(encoding).getId());
+		}
+		assertEquals(0, encoding.remaining());
+		assertTrue(server.getHandPool().getHits() > 0);
+	}
+
+	/**
+	 * Requests the pool does not draw for are never served from it.
+	 */
+	@Test
+	public void otherRequestsAreNotServed() {
+		HandPool pool = server.getHandPool();
+		CardRequest pooled = server.pooledRequest(CardType.LAND, false,
+				WireFormat.BINARY);
+		assertNotNull(take(pooled, server.getSource()));
+
+		CardRequest other = new CardRequest(CardType.LAND,
+				pooled.getCount() + 1, WireFormat.BINARY, false, false,
+				false, false);
+		CardRequest composed = new CardRequest(1, 2, 3, WireFormat.BINARY,
+				false, false, false, false);
+		assertNull(pool.take(other, server.getSource()));
+		assertNull(pool.take(composed, server.getSource()));
+	}
+
+	/**
+	 * Once the deck is replaced, requests only take hands of the new deck.
+	 * @throws IOException - if the new deck cannot be read.
+	 */
+	@Test
+	public void handsOfAnOldDeckAreThrownAway() throws IOException {
+		CardRequest request = server.pooledRequest(CardType.SPELL, true,
+				WireFormat.SERIAL);
+		CardSource old = server.getSource();
+		assertNotNull(take(request, old));
+
+		CardSource replaced = source("other.csv");
+		server.changeSource(replaced);
+		HandPool.Hand hand = take(request, replaced);
+		assertNotNull(hand);
+		for (Card card : hand.getCards()) {
+			assertTrue(card.getId() >= 1000, "" + card.getId());
+		}
+	}
+
+	/**
+	 * Take a hand from the pool, waiting for it to be drawn.
+	 * @param request - The request to take a hand for.
+	 * @param source - The card source the request draws from.
+	 * @return The hand, or null if none was drawn in time.
+	 */
+	private HandPool.Hand take(CardRequest request, CardSource source) {
+		long start = System.nanoTime();
+
+		while (System.nanoTime() - start < WAIT) {
+			HandPool.Hand hand = server.getHandPool().take(request, source);
+			if (hand != null) {
+				return hand;
+			}
+			Thread.yield();
+		}
+		return null;
+	}
+
+	/**
+	 * Write and read a deck of 100 cards of each type, whose ids start at
+	 * 1000 in the deck named other.csv.
+	 * @param name - The name of the file.
+	 * @return The deck.
+	 * @throws IOException - if the deck cannot be written or read.
+	 */
+	private CardSource source(String name) throws IOException {
+		StringBuilder text = new StringBuilder();
+		int first = name.equals("other.csv") ? 1000 : 0;
+		String[] types = { "Creature - Bear", "Basic Land", "Instant" };
+
+		for (int i = 0; i < 300; i++) {
+			text.append(first + i).append(",Card ").append(i).append(',')
+					.append(types[i % 3]).append(",{G},").append(i % 5)
+					.append('\n');
+		}
+		Path file = folder.resolve(name);
+		Files.write(file, text.toString().getBytes());
+		return new CardSource(file.toString());
+	}
+}